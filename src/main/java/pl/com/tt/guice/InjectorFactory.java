@@ -16,14 +16,11 @@
 
 package pl.com.tt.guice;
 
-import com.google.common.base.Predicate;
-import com.google.common.collect.Multimap;
 import com.google.inject.AbstractModule;
 import com.google.inject.Guice;
 import com.google.inject.Injector;
 import com.google.inject.Module;
 import com.google.inject.util.Modules;
-import java.lang.reflect.Field;
 import java.lang.reflect.Modifier;
 import java.net.URL;
 import java.util.ArrayList;
@@ -33,13 +30,18 @@ import java.util.List;
 import java.util.Set;
 import javax.inject.Inject;
 import org.reflections.Reflections;
-import org.reflections.scanners.SubTypesScanner;
 import org.reflections.util.ClasspathHelper;
 import org.reflections.util.ConfigurationBuilder;
 import org.reflections.util.FilterBuilder;
 import org.reflections.util.FilterBuilder.Include;
-import org.reflections.util.Utils;
-import pl.com.tt.guice.reflections.StaticFieldAnnotationsScanner;
+import pl.com.tt.guice.jfr.BootstrapEvents;
+import pl.com.tt.guice.jfr.ScanSpan;
+import pl.com.tt.guice.jfr.Span;
+import pl.com.tt.guice.profiling.InjectorStatistics;
+import pl.com.tt.guice.profiling.ProvisionProfiler;
+import pl.com.tt.guice.reflections.CountingFilter;
+import pl.com.tt.guice.reflections.ScanIndex;
+import pl.com.tt.guice.reflections.ScanIndexScanner;
 
 /**
  * Factory producing injector from modules configured according to application
@@ -60,6 +62,8 @@ import pl.com.tt.guice.reflections.StaticFieldAnnotationsScanner;
  * <li>{@link MODE#PROD} - application is running in production mode.
  * <p>Do not override final production module with either test nor development modules</p></li>
  * </ul>
+ * <p/>
+ * Modules installed (or extended) by other found modules are configured only once.
  *
  * @see DevelopmentModule
  * @see TestModule
@@ -69,6 +73,13 @@ import pl.com.tt.guice.reflections.StaticFieldAnnotationsScanner;
  */
 public class InjectorFactory {
 
+    /**
+     * System property with number of threads used to instantiate modules
+     * and record their bindings in parallel. Modules are instantiated
+     * one by one when it's not set.
+     */
+    public static final String MODULE_THREADS_PROPERTY = "guiceunit.modules.threads";
+
     /**
      * Current application runtime mode
      */
@@ -100,10 +111,20 @@ public class InjectorFactory {
      */
     public static Injector createInjector(Iterable<Class<? extends Module>> modules, MODE mode)
             throws InstantiationException, IllegalAccessException {
+        return createInjector(modules, mode, null);
+    }
 
-        Module module = setupModule(modules, mode);
-        Injector injector = Guice.createInjector(module);
-
+    private static Injector createInjector(Iterable<Class<? extends Module>> modules, MODE mode, ScanIndex index)
+            throws InstantiationException, IllegalAccessException {
+        Module module = setupModule(modules, mode, index);
+        Span span = BootstrapEvents.injectorCreation("InjectorFactory " + mode, false);
+        Injector injector;
+        try {
+            injector = Guice.createInjector(ProvisionProfiler.wrap(module));
+        } finally {
+            span.end();
+        }
+        InjectorStatistics.record("InjectorFactory " + mode, injector);
         return injector;
     }
 
@@ -121,8 +142,8 @@ public class InjectorFactory {
      */
     public static Injector createInjector(MODE mode)
             throws InstantiationException, IllegalAccessException {
-        Collection<Class<? extends Module>> allModules = findAllModules();
-        return createInjector(allModules, mode);
+        ScanIndex index = indexClasspath(ClasspathHelper.forJavaClassPath(), false);
+        return createInjector(getModules(index), mode, index);
     }
 
     /**
@@ -143,9 +164,9 @@ public class InjectorFactory {
 
     /**
      * Scan classpath members for Guice Modules. This scan will only find classes
-     * that <b>directly</b> extend {@link AbstractModule} or implement {@link Module}
-     * and are not from
-     * <code>com.google</code> package (to exclude internal Guice
+     * that extend {@link AbstractModule} or implement {@link Module}
+     * (directly or through other modules), have <code>Module</code> in name
+     * and are not from <code>com.google</code> package (to exclude internal Guice
      * modules)
      *
      * @param classPathMembers classpath members to scan
@@ -153,19 +174,15 @@ public class InjectorFactory {
      */
     @SuppressWarnings("unchecked")
     public static Collection<Class<? extends Module>> findAllModules(Set<URL> classPathMembers) {
-        //Search only for classes with Module in name.
-        //Exclude Google Guice internal injectors
-        // and our wrapper module.
-        Predicate<String> filter = new FilterBuilder().include(".*Module.*").exclude("com\\.google\\..*").
-                exclude("pl\\.com\\.tt\\.guice\\.junit\\.GUnitInjectorFactory\\$WrapperModule.*");
-        //Find all Guice modules
-        ConfigurationBuilder config = new ConfigurationBuilder().setUrls(classPathMembers).
-                setScanners(new SubTypesScanner()).filterInputsBy(filter);
-        Reflections reflections = new Reflections(config);
+        return getModules(indexClasspath(classPathMembers, false));
+    }
 
+    @SuppressWarnings("unchecked")
+    private static Collection<Class<? extends Module>> getModules(ScanIndex index) {
         Set<Class<? extends Module>> moduleClasses = new HashSet<Class<? extends Module>>();
-        moduleClasses.addAll(reflections.getSubTypesOf(Module.class));
-        moduleClasses.addAll(reflections.getSubTypesOf(AbstractModule.class));
+        for (Class<?> moduleClass : index.getClasses(ScanIndex.MODULE)) {
+            moduleClasses.add((Class<? extends Module>) moduleClass);
+        }
         return moduleClasses;
     }
 
@@ -181,29 +198,53 @@ public class InjectorFactory {
      * @param classPathMembers classpath members to scan
      * @return all classes that are Guice modules
      */
-    @SuppressWarnings("unchecked")
     public static Collection<Class<?>> findAllStaticInjects(Set<URL> classPathMembers) {
-        //Search only for classes with Module in name.
+        return new HashSet<Class<?>>(indexClasspath(classPathMembers, true).getClasses(ScanIndex.STATIC_INJECT));
+    }
+
+    /**
+     * Scan classpath members for names of classes that have static fields annotated with
+     * {@link Inject}. Found classes are not loaded.
+     *
+     * <p/>
+     * This scan will only find classes that are not from
+     * <code>com.google</code> package (to exclude internal Guice
+     * modules)
+     *
+     * @param classPathMembers classpath members to scan
+     * @return names of all classes with static injections
+     */
+    public static Collection<String> findAllStaticInjectNames(Set<URL> classPathMembers) {
+        return new HashSet<String>(indexClasspath(classPathMembers, true).getNames(ScanIndex.STATIC_INJECT));
+    }
+
+    /**
+     * Scan classpath members for modules and classes with static injections
+     * in single pass. Found classes are not loaded.
+     *
+     * @param classPathMembers classpath members to scan
+     * @param staticInjects if classes with static injections should be found,
+     * only classes with <code>Module</code> in name are scanned if false
+     * @return index of found classes
+     */
+    @SuppressWarnings("unchecked")
+    public static ScanIndex indexClasspath(Set<URL> classPathMembers, boolean staticInjects) {
+        //Search only for classes with Module in name if we look just for modules.
         //Exclude Google Guice internal injectors
         // and our wrapper module.
-        Predicate<String> filter = new FilterBuilder().include(".*").exclude("com\\.google\\..*").
-                exclude("pl\\.com\\.tt\\.guice\\.junit\\.GUnitInjectorFactory\\$WrapperModule.*");
-        //Find all classes with @Inject fields
-        StaticFieldAnnotationsScanner scanner = new StaticFieldAnnotationsScanner();
-        scanner.filterResultsBy(new FilterBuilder().include(Inject.class.getName()));
+        CountingFilter filter = new CountingFilter(new FilterBuilder().include(staticInjects ? ".*" : ".*Module.*").
+                exclude("com\\.google\\..*").
+                exclude("pl\\.com\\.tt\\.guice\\.junit\\.GUnitInjectorFactory\\$WrapperModule.*"));
+        ScanSpan span = BootstrapEvents.classpathScan(staticInjects ? "modules and static injections" : "modules",
+                classPathMembers.size());
+        ScanIndexScanner scanner = new ScanIndexScanner(staticInjects);
         ConfigurationBuilder config = new ConfigurationBuilder().setUrls(classPathMembers).
                 setScanners(scanner).filterInputsBy(filter);
-        Reflections reflections = new Reflections(config);
-        
-        Multimap<String, String> keys = reflections.getStore().get(scanner);
-        Collection<String> fieldFqns = keys.get(Inject.class.getName());
-        Set<Class<?>> classes = new HashSet<Class<?>>(fieldFqns.size());
-        for (String string : fieldFqns) {
-            Field field = Utils.getFieldFromString(string);
-            classes.add(field.getDeclaringClass());
-        }
+        new Reflections(config);
 
-        return classes;
+        ScanIndex index = scanner.getIndex();
+        span.end(filter.getAccepted(), index.size());
+        return index;
     }
 
     /**
@@ -218,39 +259,134 @@ public class InjectorFactory {
      */
     public static Module setupModule(Iterable<Class<? extends Module>> modules, MODE mode)
             throws InstantiationException, IllegalAccessException {
+        return setupModule(modules, mode, null);
+    }
+
+    /**
+     * Configure combined module from passed in modules according to application
+     * runtime mode, using module types (master, test, development) found by classpath
+     * scan instead of reading module annotations again.
+     *
+     * @param modules modules to use for Injector configuration
+     * @param mode runtime mode of application
+     * @param index classpath scan results with modules, modules not in index
+     * (or all if null) have their annotations read
+     * @return configured and ready to use Injector
+     * @throws InstantiationException if could not create instance of passed in module
+     * @throws IllegalAccessException if could not create instance of passed in module
+     */
+    public static Module setupModule(Iterable<Class<? extends Module>> modules, MODE mode, ScanIndex index)
+            throws InstantiationException, IllegalAccessException {
+        List<Class<? extends Module>> moduleClasses = new ArrayList<Class<? extends Module>>();
+        for (Class<? extends Module> moduleClass : modules) {
+            if (isInstantiable(moduleClass)) {
+                moduleClasses.add(moduleClass);
+            }
+        }
+
+        List<Module> instances = instantiate(moduleClasses);
+        List<Class<? extends Module>> testClasses = new ArrayList<Class<? extends Module>>();
+        List<Class<? extends Module>> devClasses = new ArrayList<Class<? extends Module>>();
+        List<Class<? extends Module>> prodClasses = new ArrayList<Class<? extends Module>>();
         List<Module> testModules = new ArrayList<Module>();
         List<Module> devModules = new ArrayList<Module>();
         List<Module> prodModules = new ArrayList<Module>();
         Module masterModule = null;
-
-
-        for (Class<? extends Module> moduleClass : modules) {
-            int modifiers = moduleClass.getModifiers();
-            if (!Modifier.isAbstract(modifiers) && !Modifier.isInterface(modifiers)
-                    && Modifier.isPublic(modifiers)) {
-                if (moduleClass.isAnnotationPresent(TestModule.class)) {
-                    testModules.add(moduleClass.newInstance());
-                } else if (moduleClass.isAnnotationPresent(DevelopmentModule.class)) {
-                    devModules.add(moduleClass.newInstance());
-                } else if (moduleClass.isAnnotationPresent(MasterModule.class)) {
-                    masterModule = moduleClass.newInstance();
-                } else {
-                    prodModules.add(moduleClass.newInstance());
-                }
+        for (int i = 0; i < moduleClasses.size(); i++) {
+            Class<? extends Module> moduleClass = moduleClasses.get(i);
+            int type = getModuleType(moduleClass, index);
+            if (type == ScanIndex.TEST_MODULE) {
+                testClasses.add(moduleClass);
+                testModules.add(instances.get(i));
+            } else if (type == ScanIndex.DEVELOPMENT_MODULE) {
+                devClasses.add(moduleClass);
+                devModules.add(instances.get(i));
+            } else if (type == ScanIndex.MASTER_MODULE) {
+                masterModule = instances.get(i);
+            } else {
+                prodClasses.add(moduleClass);
+                prodModules.add(instances.get(i));
             }
         }
 
+        //Modules of each kind are combined, so each kind is checked separately.
+        //Modules not used in current mode are not configured at all.
+        ModuleDeduplicator deduplicator = new ModuleDeduplicator();
+        prodModules = deduplicator.deduplicate(prodClasses, prodModules);
+        if (mode == MODE.TEST) {
+            testModules = deduplicator.deduplicate(testClasses, testModules);
+        } else if (mode == MODE.DEV) {
+            devModules = deduplicator.deduplicate(devClasses, devModules);
+        }
+        return combine(prodModules, masterModule, testModules, devModules, mode);
+    }
+
+    /**
+     * Combine modules according to application runtime mode.
+     */
+    static Module combine(List<Module> prodModules, Module masterModule, List<Module> testModules, List<Module> devModules,
+            MODE mode) {
         Module module = Modules.combine(prodModules);
         if (masterModule != null) {
-            module = Modules.override(prodModules).with(masterModule);
+            module = BootstrapEvents.override(module, masterModule);
         }
 
         if (mode == MODE.TEST && !testModules.isEmpty()) {
-            module = Modules.override(module).with(testModules);
+            module = BootstrapEvents.override(module, testModules);
         } else if (mode == MODE.DEV && !devModules.isEmpty()) {
-            module = Modules.override(module).with(devModules);
+            module = BootstrapEvents.override(module, devModules);
         }
 
         return module;
     }
+
+    /**
+     * Get type of module: {@link ScanIndex#TEST_MODULE}, {@link ScanIndex#DEVELOPMENT_MODULE},
+     * {@link ScanIndex#MASTER_MODULE} or 0 for production module.
+     */
+    private static int getModuleType(Class<?> moduleClass, ScanIndex index) {
+        int id = index == null ? -1 : index.getId(moduleClass.getName());
+        if (id >= 0) {
+            return index.getModuleType(id);
+        } else if (moduleClass.isAnnotationPresent(TestModule.class)) {
+            return ScanIndex.TEST_MODULE;
+        } else if (moduleClass.isAnnotationPresent(DevelopmentModule.class)) {
+            return ScanIndex.DEVELOPMENT_MODULE;
+        } else if (moduleClass.isAnnotationPresent(MasterModule.class)) {
+            return ScanIndex.MASTER_MODULE;
+        }
+        return 0;
+    }
+
+    static boolean isInstantiable(Class<?> moduleClass) {
+        int modifiers = moduleClass.getModifiers();
+        return !Modifier.isAbstract(modifiers) && !Modifier.isInterface(modifiers) && Modifier.isPublic(modifiers);
+    }
+
+    /**
+     * Instantiate modules, in parallel if {@link #MODULE_THREADS_PROPERTY} is set.
+     */
+    static List<Module> instantiate(List<Class<? extends Module>> moduleClasses)
+            throws InstantiationException, IllegalAccessException {
+        int threads = Integer.getInteger(MODULE_THREADS_PROPERTY, 0);
+        if (threads > 1 && moduleClasses.size() > 1) {
+            return new ParallelModuleRecorder(threads).record(moduleClasses);
+        }
+
+        List<Module> instances = new ArrayList<Module>(moduleClasses.size());
+        for (Class<? extends Module> moduleClass : moduleClasses) {
+            instances.add(instantiate(moduleClass));
+        }
+        return instances;
+    }
+
+    static Module instantiate(Class<? extends Module> moduleClass)
+            throws InstantiationException, IllegalAccessException {
+        Span span = BootstrapEvents.moduleInstantiation(moduleClass);
+        try {
+            return moduleClass.newInstance();
+        } finally {
+            span.end();
+        }
+    }
 }
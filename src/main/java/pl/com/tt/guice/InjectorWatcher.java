@@ -0,0 +1,528 @@
+/*
+ * Copyright (c) 2012 Transition Technologies S.A.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package pl.com.tt.guice;
+
+import com.google.inject.AbstractModule;
+import com.google.inject.Guice;
+import com.google.inject.Injector;
+import com.google.inject.Module;
+import com.google.inject.spi.Element;
+import com.google.inject.spi.Elements;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import javassist.bytecode.AnnotationsAttribute;
+import javassist.bytecode.ClassFile;
+import javassist.bytecode.annotation.Annotation;
+import lombok.extern.slf4j.Slf4j;
+import org.reflections.util.ClasspathHelper;
+import org.reflections.util.Utils;
+import pl.com.tt.guice.InjectorFactory.MODE;
+import pl.com.tt.guice.jfr.BootstrapEvents;
+import pl.com.tt.guice.jfr.Span;
+import pl.com.tt.guice.profiling.ProvisionProfiler;
+import pl.com.tt.guice.reflections.ScanIndex;
+
+/**
+ * Creates injector like {@link InjectorFactory#createInjector(MODE)} and creates it
+ * again when modules in classpath directories change.
+ * <p/>
+ * Classpath directories are watched with {@link WatchService}. Only changed class files
+ * are read, modules among them are classified again (production, {@link MasterModule},
+ * {@link DevelopmentModule} or {@link TestModule}), loaded in new class loader and their
+ * bindings recorded. Bindings of other modules are recorded only once, when watcher
+ * starts, so reload time depends on size of change, not size of classpath. Modules
+ * installing changed ones are reloaded with them, so they don't keep old bindings.
+ * New injector is published to {@link InjectorReloadListener}s.
+ * <p/>
+ * Only module classes are reloaded, other classes are loaded once by application
+ * class loader, so changes to them still need restart. If new injector can't be
+ * created, error is logged and previous injector is kept.
+ *
+ * @author Marek Piechut <m.piechut@tt.com.pl>
+ */
+@Slf4j
+public class InjectorWatcher implements Closeable {
+
+    /**
+     * Time to wait for more changes before reloading,
+     * so files written together are reloaded together.
+     */
+    private static final long QUIET_PERIOD_MILLIS = 100;
+    private final MODE mode;
+    private final List<Path> roots = new ArrayList<Path>();
+    private final URLClassLoader classLoader;
+    /**
+     * Modules by class name, sorted so injector is always combined the same way.
+     */
+    private final Map<String, WatchedModule> modules = new TreeMap<String, WatchedModule>();
+    private final List<InjectorReloadListener> listeners = new CopyOnWriteArrayList<InjectorReloadListener>();
+    private final WatchService watchService;
+    private final Map<WatchKey, Path> watchedDirs = new HashMap<WatchKey, Path>();
+    private final Thread thread;
+    private volatile Injector injector;
+
+    private InjectorWatcher(MODE mode, Set<URL> classPathMembers)
+            throws IOException, InstantiationException, IllegalAccessException {
+        this.mode = mode;
+        ClassLoader parent = Thread.currentThread().getContextClassLoader();
+        classLoader = new URLClassLoader(classPathMembers.toArray(new URL[classPathMembers.size()]),
+                parent != null ? parent : InjectorWatcher.class.getClassLoader());
+        for (URL url : classPathMembers) {
+            File file = toFile(url);
+            if (file != null && file.isDirectory()) {
+                roots.add(file.toPath());
+            }
+        }
+
+        loadModules(classPathMembers);
+        injector = createInjector();
+
+        watchService = FileSystems.getDefault().newWatchService();
+        for (Path root : roots) {
+            register(root, null);
+        }
+        thread = new Thread(new Runnable() {
+
+            public void run() {
+                watch();
+            }
+        }, "GuiceUnit injector watcher");
+        thread.setDaemon(true);
+    }
+
+    /**
+     * Create injector from modules in Java classpath and start watching
+     * classpath directories.
+     *
+     * @param mode runtime mode of application
+     * @return started watcher
+     * @throws IOException if could not watch classpath directories
+     * @throws InstantiationException if could not create instance of module
+     * @throws IllegalAccessException if could not create instance of module
+     */
+    public static InjectorWatcher start(MODE mode)
+            throws IOException, InstantiationException, IllegalAccessException {
+        return start(mode, ClasspathHelper.forJavaClassPath());
+    }
+
+    /**
+     * Create injector from modules in classpath members and start watching
+     * directories among them.
+     *
+     * @param mode runtime mode of application
+     * @param classPathMembers classpath members to scan
+     * @return started watcher
+     * @throws IOException if could not watch classpath directories
+     * @throws InstantiationException if could not create instance of module
+     * @throws IllegalAccessException if could not create instance of module
+     */
+    public static InjectorWatcher start(MODE mode, Set<URL> classPathMembers)
+            throws IOException, InstantiationException, IllegalAccessException {
+        InjectorWatcher watcher = new InjectorWatcher(mode, classPathMembers);
+        watcher.thread.start();
+        return watcher;
+    }
+
+    /**
+     * Get current injector.
+     *
+     * @return last successfully created injector
+     */
+    public Injector getInjector() {
+        return injector;
+    }
+
+    public void addListener(InjectorReloadListener listener) {
+        listeners.add(listener);
+    }
+
+    public void removeListener(InjectorReloadListener listener) {
+        listeners.remove(listener);
+    }
+
+    /**
+     * Stop watching classpath directories.
+     */
+    public void close()
+            throws IOException {
+        thread.interrupt();
+        watchService.close();
+        classLoader.close();
+    }
+
+    @SuppressWarnings("unchecked")
+    private void loadModules(Set<URL> classPathMembers)
+            throws InstantiationException, IllegalAccessException {
+        ScanIndex index = InjectorFactory.indexClasspath(classPathMembers, false);
+        List<Class<? extends Module>> moduleClasses = new ArrayList<Class<? extends Module>>();
+        for (int id = 0; id < index.size(); id++) {
+            if (index.is(id, ScanIndex.MODULE)) {
+                String name = index.getName(id);
+                modules.put(name, new WatchedModule(index.getModuleType(id)));
+                Class<?> moduleClass = loadClass(name, classLoader);
+                if (moduleClass != null && InjectorFactory.isInstantiable(moduleClass)) {
+                    moduleClasses.add((Class<? extends Module>) moduleClass);
+                }
+            }
+        }
+
+        List<Module> instances = InjectorFactory.instantiate(moduleClasses);
+        for (int i = 0; i < instances.size(); i++) {
+            modules.get(moduleClasses.get(i).getName()).elements = Elements.getElements(instances.get(i));
+        }
+    }
+
+    private void watch() {
+        try {
+            while (!Thread.currentThread().isInterrupted()) {
+                Set<Path> changed = new HashSet<Path>();
+                collectChanges(watchService.take(), changed);
+                for (WatchKey key = watchService.poll(QUIET_PERIOD_MILLIS, TimeUnit.MILLISECONDS); key != null;
+                        key = watchService.poll(QUIET_PERIOD_MILLIS, TimeUnit.MILLISECONDS)) {
+                    collectChanges(key, changed);
+                }
+                reload(changed);
+            }
+        } catch (InterruptedException ex) {
+            //Closed
+        } catch (ClosedWatchServiceException ex) {
+            //Closed
+        }
+    }
+
+    private void collectChanges(WatchKey key, Set<Path> changed) {
+        Path dir = watchedDirs.get(key);
+        for (WatchEvent<?> event : key.pollEvents()) {
+            if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+                log.warn("Lost file system events, all class files will be checked");
+                for (Path root : roots) {
+                    addClassFiles(root, changed);
+                }
+                continue;
+            }
+
+            Path path = dir.resolve((Path) event.context());
+            if (event.kind() == StandardWatchEventKinds.ENTRY_CREATE && Files.isDirectory(path)) {
+                register(path, changed);
+            } else if (path.toString().endsWith(".class")) {
+                changed.add(path);
+            }
+        }
+        if (!key.reset()) {
+            watchedDirs.remove(key);
+        }
+    }
+
+    private synchronized void reload(Set<Path> changed) {
+        long start = System.currentTimeMillis();
+        Map<String, Integer> reloaded = new TreeMap<String, Integer>();
+        boolean removed = false;
+        for (Path path : changed) {
+            String className = getClassName(path);
+            if (className == null) {
+                continue;
+            }
+            Integer type = Files.exists(path) ? classify(path) : null;
+            if (type != null) {
+                reloaded.put(className, type);
+            } else if (modules.remove(className) != null) {
+                log.info("Module removed: " + className);
+                removed = true;
+            }
+        }
+        //Nested classes of modules (e.g. anonymous providers) changed, reload modules too
+        for (Path path : changed) {
+            String className = getClassName(path);
+            while (className != null && className.indexOf('$') > 0) {
+                className = className.substring(0, className.lastIndexOf('$'));
+                WatchedModule module = modules.get(className);
+                if (module != null && !reloaded.containsKey(className)) {
+                    reloaded.put(className, module.type);
+                }
+            }
+        }
+        if (reloaded.isEmpty() && !removed) {
+            return;
+        }
+        addInstallingModules(reloaded);
+
+        ModuleReloadingClassLoader loader = new ModuleReloadingClassLoader(reloaded.keySet(), classLoader);
+        for (Map.Entry<String, Integer> entry : reloaded.entrySet()) {
+            reloadModule(entry.getKey(), entry.getValue(), loader);
+        }
+        try {
+            injector = createInjector();
+        } catch (RuntimeException ex) {
+            log.error("Could not create injector after modules " + reloaded.keySet() + " changed. Keeping previous one.", ex);
+            return;
+        }
+        log.info("Reloaded modules " + reloaded.keySet() + " in " + (System.currentTimeMillis() - start) + " ms");
+        for (InjectorReloadListener listener : listeners) {
+            try {
+                listener.injectorReloaded(injector);
+            } catch (RuntimeException ex) {
+                log.error("Injector reload listener failed: " + listener, ex);
+            }
+        }
+    }
+
+    /**
+     * Add modules which recorded elements declared in reloaded modules (they install them),
+     * otherwise they would keep old bindings of reloaded modules.
+     */
+    private void addInstallingModules(Map<String, Integer> reloaded) {
+        boolean added = true;
+        while (added) {
+            added = false;
+            for (Map.Entry<String, WatchedModule> entry : modules.entrySet()) {
+                WatchedModule module = entry.getValue();
+                if (module.elements == null || reloaded.containsKey(entry.getKey())) {
+                    continue;
+                }
+                for (String source : ModuleDeduplicator.sourceClasses(module.elements)) {
+                    if (ModuleReloadingClassLoader.isModuleClass(reloaded.keySet(), source)) {
+                        reloaded.put(entry.getKey(), module.type);
+                        added = true;
+                        break;
+                    }
+                }
+            }
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private void reloadModule(String name, int type, ClassLoader loader) {
+        WatchedModule module = new WatchedModule(type);
+        Class<?> moduleClass = loadClass(name, loader);
+        if (moduleClass == null) {
+            return;
+        }
+        if (InjectorFactory.isInstantiable(moduleClass)) {
+            try {
+                module.elements = Elements.getElements(InjectorFactory.instantiate((Class<? extends Module>) moduleClass));
+            } catch (Exception ex) {
+                log.error("Could not instantiate module: " + name + ". Keeping previous version.", ex);
+                return;
+            }
+        }
+        modules.put(name, module);
+    }
+
+    private Injector createInjector() {
+        List<Module> prodModules = new ArrayList<Module>();
+        List<Module> testModules = new ArrayList<Module>();
+        List<Module> devModules = new ArrayList<Module>();
+        Module masterModule = null;
+        Set<List<Object>> recorded = new HashSet<List<Object>>();
+        for (WatchedModule watched : modules.values()) {
+            if (watched.elements == null) {
+                continue;
+            }
+            Module module = Elements.getModule(ModuleDeduplicator.removeDuplicates(watched.elements, recorded));
+            if (watched.type == ScanIndex.TEST_MODULE) {
+                testModules.add(module);
+            } else if (watched.type == ScanIndex.DEVELOPMENT_MODULE) {
+                devModules.add(module);
+            } else if (watched.type == ScanIndex.MASTER_MODULE) {
+                masterModule = module;
+            } else {
+                prodModules.add(module);
+            }
+        }
+
+        Module module = InjectorFactory.combine(prodModules, masterModule, testModules, devModules, mode);
+        Span span = BootstrapEvents.injectorCreation("InjectorWatcher " + mode, false);
+        try {
+            return Guice.createInjector(ProvisionProfiler.wrap(module));
+        } finally {
+            span.end();
+        }
+    }
+
+    /**
+     * Read class file and check if it's a module.
+     *
+     * @return module type flag (0 for production module) or null if class is not a module
+     */
+    private Integer classify(Path path) {
+        ClassFile classFile;
+        InputStream in = null;
+        try {
+            in = Files.newInputStream(path);
+            classFile = new ClassFile(new DataInputStream(in));
+        } catch (IOException ex) {
+            log.warn("Could not read class file: " + path, ex);
+            return null;
+        } finally {
+            Utils.close(in);
+        }
+
+        //The same rules as classpath scan
+        if (!classFile.getName().contains("Module") || !isModule(classFile)) {
+            return null;
+        }
+        AnnotationsAttribute annotations = (AnnotationsAttribute) classFile.getAttribute(AnnotationsAttribute.visibleTag);
+        int flags = 0;
+        for (Annotation annotation : annotations == null ? new Annotation[0] : annotations.getAnnotations()) {
+            if (annotation.getTypeName().equals(MasterModule.class.getName())) {
+                flags |= ScanIndex.MASTER_MODULE;
+            } else if (annotation.getTypeName().equals(TestModule.class.getName())) {
+                flags |= ScanIndex.TEST_MODULE;
+            } else if (annotation.getTypeName().equals(DevelopmentModule.class.getName())) {
+                flags |= ScanIndex.DEVELOPMENT_MODULE;
+            }
+        }
+        return ScanIndex.getModuleTypeOf(flags);
+    }
+
+    private boolean isModule(ClassFile classFile) {
+        List<String> supertypes = new ArrayList<String>();
+        supertypes.add(classFile.getSuperclass());
+        for (String name : classFile.getInterfaces()) {
+            supertypes.add(name);
+        }
+        for (String supertype : supertypes) {
+            if (supertype.equals(Module.class.getName()) || supertype.equals(AbstractModule.class.getName())
+                    || modules.containsKey(supertype)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private String getClassName(Path path) {
+        for (Path root : roots) {
+            if (path.startsWith(root)) {
+                String relative = root.relativize(path).toString();
+                return relative.substring(0, relative.length() - ".class".length()).replace(File.separatorChar, '.');
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Watch directory and all it's subdirectories.
+     *
+     * @param changed if not null, class files found in directories are added to it
+     */
+    private void register(Path dir, final Set<Path> changed) {
+        try {
+            Files.walkFileTree(dir, new SimpleFileVisitor<Path>() {
+
+                @Override
+                public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs)
+                        throws IOException {
+                    WatchKey key = dir.register(watchService, StandardWatchEventKinds.ENTRY_CREATE,
+                            StandardWatchEventKinds.ENTRY_MODIFY, StandardWatchEventKinds.ENTRY_DELETE);
+                    watchedDirs.put(key, dir);
+                    return FileVisitResult.CONTINUE;
+                }
+
+                @Override
+                public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+                    if (changed != null && file.toString().endsWith(".class")) {
+                        changed.add(file);
+                    }
+                    return FileVisitResult.CONTINUE;
+                }
+            });
+        } catch (IOException ex) {
+            log.error("Could not watch directory: " + dir, ex);
+        }
+    }
+
+    private void addClassFiles(Path root, final Set<Path> changed) {
+        try {
+            Files.walkFileTree(root, new SimpleFileVisitor<Path>() {
+
+                @Override
+                public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+                    if (file.toString().endsWith(".class")) {
+                        changed.add(file);
+                    }
+                    return FileVisitResult.CONTINUE;
+                }
+            });
+        } catch (IOException ex) {
+            log.error("Could not read directory: " + root, ex);
+        }
+    }
+
+    private static Class<?> loadClass(String name, ClassLoader classLoader) {
+        try {
+            return Class.forName(name, false, classLoader);
+        } catch (ClassNotFoundException ex) {
+            log.error("Could not load module: " + name, ex);
+        } catch (LinkageError ex) {
+            log.error("Could not load module: " + name, ex);
+        }
+        return null;
+    }
+
+    private static File toFile(URL url) {
+        try {
+            return "file".equals(url.getProtocol()) ? new File(url.toURI()) : null;
+        } catch (URISyntaxException ex) {
+            return null;
+        }
+    }
+
+    /**
+     * Module with it's recorded bindings.
+     */
+    private static class WatchedModule {
+
+        /**
+         * Module type flag from {@link ScanIndex}, 0 for production module.
+         */
+        private final int type;
+        /**
+         * Recorded elements, null if module can't be instantiated (e.g. is abstract).
+         */
+        private List<Element> elements;
+
+        WatchedModule(int type) {
+            this.type = type;
+        }
+    }
+}
@@ -0,0 +1,306 @@
+/*
+ * Copyright (c) 2012 Transition Technologies S.A.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package pl.com.tt.guice;
+
+import com.google.inject.Binding;
+import com.google.inject.Module;
+import com.google.inject.Scope;
+import com.google.inject.spi.BindingScopingVisitor;
+import com.google.inject.spi.BindingTargetVisitor;
+import com.google.inject.spi.ConstructorBinding;
+import com.google.inject.spi.DefaultBindingTargetVisitor;
+import com.google.inject.spi.DefaultElementVisitor;
+import com.google.inject.spi.Element;
+import com.google.inject.spi.ElementVisitor;
+import com.google.inject.spi.Elements;
+import com.google.inject.spi.InstanceBinding;
+import com.google.inject.spi.LinkedKeyBinding;
+import com.google.inject.spi.PrivateElements;
+import com.google.inject.spi.ProviderInstanceBinding;
+import com.google.inject.spi.ProviderKeyBinding;
+import com.google.inject.spi.ScopeBinding;
+import com.google.inject.spi.StaticInjectionRequest;
+import com.google.inject.spi.UntargettedBinding;
+import java.lang.annotation.Annotation;
+import java.lang.reflect.Member;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Finds modules that would be configured more than once in combined module.
+ * <p/>
+ * Classpath scan finds all modules, also ones that are installed by other found
+ * modules (or extended by them), so the same bindings would be configured twice.
+ * Guice skips such modules only if they implement <code>equals()</code>, otherwise
+ * injector creation fails or does the work twice. All modules are recorded
+ * and module is skipped when all of it's elements (same binding or element type declared
+ * in the same place) are also elements of other module. Remaining duplicates, e.g. of submodule
+ * installed by more than one module, are removed from all but first module, so result
+ * is the same whether modules were recorded one by one or in parallel.
+ * <p/>
+ * Skipped modules are logged.
+ *
+ * @author Marek Piechut <m.piechut@tt.com.pl>
+ */
+@Slf4j
+class ModuleDeduplicator {
+
+    /**
+     * Identifies elements that are safe to configure only once if declared
+     * more than once in the same place. Returns null for other elements.
+     */
+    private static final ElementVisitor<List<Object>> DUPLICATE_SIGNATURE = new DefaultElementVisitor<List<Object>>() {
+
+        @Override
+        protected List<Object> visitOther(Element element) {
+            return null;
+        }
+
+        @Override
+        public <T> List<Object> visit(Binding<T> binding) {
+            return Arrays.asList(binding.getKey(), binding.getSource(), binding.acceptScopingVisitor(SCOPING),
+                    binding.acceptTargetVisitor(TARGET));
+        }
+
+        @Override
+        public List<Object> visit(ScopeBinding scopeBinding) {
+            return Arrays.<Object>asList(ScopeBinding.class, scopeBinding.getAnnotationType(), scopeBinding.getSource());
+        }
+
+        @Override
+        public List<Object> visit(StaticInjectionRequest request) {
+            return Arrays.<Object>asList(StaticInjectionRequest.class, request.getType(), request.getSource());
+        }
+
+        @Override
+        public List<Object> visit(PrivateElements privateElements) {
+            return Arrays.<Object>asList(PrivateElements.class, privateElements.getExposedKeys(),
+                    privateElements.getSource());
+        }
+    };
+    /**
+     * Identifies scope of binding.
+     */
+    private static final BindingScopingVisitor<Object> SCOPING = new BindingScopingVisitor<Object>() {
+
+        public Object visitEagerSingleton() {
+            return "eager singleton";
+        }
+
+        public Object visitScope(Scope scope) {
+            return scope;
+        }
+
+        public Object visitScopeAnnotation(Class<? extends Annotation> scopeAnnotation) {
+            return scopeAnnotation;
+        }
+
+        public Object visitNoScoping() {
+            return "no scope";
+        }
+    };
+    /**
+     * Identifies what key is bound to, so only the same bindings are duplicates
+     * and conflicting ones (e.g. module with different constructor arguments
+     * installed in the same place) are still reported by Guice.
+     */
+    private static final BindingTargetVisitor<Object, Object> TARGET = new DefaultBindingTargetVisitor<Object, Object>() {
+
+        @Override
+        protected Object visitOther(Binding<?> binding) {
+            return binding;
+        }
+
+        @Override
+        public Object visit(InstanceBinding<?> binding) {
+            return Arrays.asList(InstanceBinding.class, binding.getInstance());
+        }
+
+        @Override
+        public Object visit(ProviderInstanceBinding<?> binding) {
+            //Provider methods are identified by method, which is source of binding
+            Object provider = binding.getProviderInstance();
+            return Arrays.asList(ProviderInstanceBinding.class,
+                    binding.getSource() instanceof Member ? provider.getClass() : provider);
+        }
+
+        @Override
+        public Object visit(ProviderKeyBinding<?> binding) {
+            return Arrays.asList(ProviderKeyBinding.class, binding.getProviderKey());
+        }
+
+        @Override
+        public Object visit(LinkedKeyBinding<?> binding) {
+            return Arrays.asList(LinkedKeyBinding.class, binding.getLinkedKey());
+        }
+
+        @Override
+        public Object visit(ConstructorBinding<?> binding) {
+            return Arrays.asList(ConstructorBinding.class, binding.getConstructor());
+        }
+
+        @Override
+        public Object visit(UntargettedBinding<?> binding) {
+            return UntargettedBinding.class;
+        }
+    };
+    private final Map<Class<? extends Module>, String> skipped = new LinkedHashMap<Class<? extends Module>, String>();
+
+    /**
+     * Record modules and skip redundant ones.
+     *
+     * @param moduleClasses classes of modules
+     * @param modules instances of modules in the same order as classes
+     * @return recorded modules that are not redundant, in original order
+     */
+    List<Module> deduplicate(List<Class<? extends Module>> moduleClasses, List<Module> modules) {
+        final List<List<Element>> elements = new ArrayList<List<Element>>(modules.size());
+        final List<Set<List<Object>>> signatures = new ArrayList<Set<List<Object>>>(modules.size());
+        List<Integer> order = new ArrayList<Integer>(modules.size());
+        for (int i = 0; i < modules.size(); i++) {
+            List<Element> moduleElements = Elements.getElements(modules.get(i));
+            elements.add(moduleElements);
+            signatures.add(signatures(moduleElements));
+            order.add(i);
+        }
+
+        //Check biggest modules first, so module is compared only with ones that can contain it
+        final List<Class<? extends Module>> classes = moduleClasses;
+        Collections.sort(order, new Comparator<Integer>() {
+
+            public int compare(Integer o1, Integer o2) {
+                int size1 = signatures.get(o1).size();
+                int size2 = signatures.get(o2).size();
+                if (size1 != size2) {
+                    return size1 > size2 ? -1 : 1;
+                }
+                return classes.get(o1).getName().compareTo(classes.get(o2).getName());
+            }
+        });
+
+        boolean[] redundant = new boolean[modules.size()];
+        List<Integer> kept = new ArrayList<Integer>();
+        for (Integer index : order) {
+            Set<List<Object>> moduleSignatures = signatures.get(index);
+            if (!moduleSignatures.isEmpty()) {
+                for (Integer other : kept) {
+                    if (signatures.get(other).containsAll(moduleSignatures)) {
+                        redundant[index] = true;
+                        skip(classes.get(index), classes.get(other), elements.get(other));
+                        break;
+                    }
+                }
+            }
+            if (!redundant[index]) {
+                kept.add(index);
+            }
+        }
+
+        List<Module> unique = new ArrayList<Module>(kept.size());
+        Set<List<Object>> recorded = new HashSet<List<Object>>();
+        for (int i = 0; i < modules.size(); i++) {
+            if (!redundant[i]) {
+                unique.add(Elements.getModule(removeDuplicates(elements.get(i), recorded)));
+            }
+        }
+        if (!skipped.isEmpty()) {
+            log.info("Skipped " + skipped.size() + " of " + modules.size() + " modules configured by other modules");
+        }
+        return unique;
+    }
+
+    /**
+     * Get modules skipped so far.
+     *
+     * @return reasons of skipping by module class
+     */
+    Map<Class<? extends Module>, String> getSkipped() {
+        return skipped;
+    }
+
+    /**
+     * Remove elements that were already recorded: bindings of the same key
+     * to the same target, scope bindings, static injection requests and private
+     * modules declared in the same place. Other elements (lookups, injection requests etc.) are
+     * always kept.
+     *
+     * @param elements recorded elements of module
+     * @param recorded signatures of elements recorded so far, updated with new ones
+     * @return elements without duplicates
+     */
+    static List<Element> removeDuplicates(List<Element> elements, Set<List<Object>> recorded) {
+        List<Element> unique = new ArrayList<Element>(elements.size());
+        for (Element element : elements) {
+            List<Object> signature = element.acceptVisitor(DUPLICATE_SIGNATURE);
+            if (signature == null || recorded.add(signature)) {
+                unique.add(element);
+            }
+        }
+        return unique;
+    }
+
+    private void skip(Class<? extends Module> moduleClass, Class<? extends Module> otherClass, List<Element> otherElements) {
+        String reason;
+        if (moduleClass.isAssignableFrom(otherClass)) {
+            reason = "extended by " + otherClass.getName();
+        } else if (sourceClasses(otherElements).contains(moduleClass.getName())) {
+            reason = "installed by " + otherClass.getName();
+        } else {
+            reason = "bindings are subset of " + otherClass.getName();
+        }
+        skipped.put(moduleClass, reason);
+        log.info("Skipping module " + moduleClass.getName() + ": " + reason);
+    }
+
+    /**
+     * Identify elements by binding key and target (or element type) and place where they were declared.
+     */
+    private static Set<List<Object>> signatures(List<Element> elements) {
+        Set<List<Object>> signatures = new HashSet<List<Object>>();
+        for (Element element : elements) {
+            List<Object> signature = element.acceptVisitor(DUPLICATE_SIGNATURE);
+            signatures.add(signature == null ? Arrays.<Object>asList(element.getClass(), element.getSource()) : signature);
+        }
+        return signatures;
+    }
+
+    /**
+     * Names of classes where elements were declared.
+     */
+    static Set<String> sourceClasses(List<Element> elements) {
+        Set<String> classes = new HashSet<String>();
+        for (Element element : elements) {
+            Object source = element.getSource();
+            if (source instanceof StackTraceElement) {
+                classes.add(((StackTraceElement) source).getClassName());
+            } else if (source instanceof Member) {
+                classes.add(((Member) source).getDeclaringClass().getName());
+            } else if (source instanceof Class) {
+                classes.add(((Class<?>) source).getName());
+            }
+        }
+        return classes;
+    }
+}
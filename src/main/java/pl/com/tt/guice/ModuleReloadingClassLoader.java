@@ -0,0 +1,91 @@
+/*
+ * Copyright (c) 2012 Transition Technologies S.A.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package pl.com.tt.guice;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Set;
+import org.reflections.util.Utils;
+
+/**
+ * Class loader loading new versions of module classes (and their nested
+ * classes) by itself. All other classes are loaded by parent, so reloaded modules
+ * use the same classes as rest of application. Modules reloaded together see
+ * each other's new versions, so module installing changed one gets it's new bindings.
+ *
+ * @author Marek Piechut <m.piechut@tt.com.pl>
+ */
+class ModuleReloadingClassLoader extends ClassLoader {
+
+    private final Set<String> moduleNames;
+
+    ModuleReloadingClassLoader(Set<String> moduleNames, ClassLoader parent) {
+        super(parent);
+        this.moduleNames = moduleNames;
+    }
+
+    @Override
+    protected synchronized Class<?> loadClass(String name, boolean resolve)
+            throws ClassNotFoundException {
+        if (!isModuleClass(moduleNames, name)) {
+            return super.loadClass(name, resolve);
+        }
+
+        Class<?> cls = findLoadedClass(name);
+        if (cls == null) {
+            byte[] bytes = readClass(name);
+            cls = defineClass(name, bytes, 0, bytes.length);
+        }
+        if (resolve) {
+            resolveClass(cls);
+        }
+        return cls;
+    }
+
+    /**
+     * Check if class is one of modules or nested in one of them.
+     */
+    static boolean isModuleClass(Set<String> moduleNames, String name) {
+        for (int i = name.indexOf('$'); i > 0; i = name.indexOf('$', i + 1)) {
+            if (moduleNames.contains(name.substring(0, i))) {
+                return true;
+            }
+        }
+        return moduleNames.contains(name);
+    }
+
+    private byte[] readClass(String name)
+            throws ClassNotFoundException {
+        InputStream in = getParent().getResourceAsStream(name.replace('.', '/') + ".class");
+        if (in == null) {
+            throw new ClassNotFoundException(name);
+        }
+        try {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            byte[] buffer = new byte[4096];
+            for (int read = in.read(buffer); read >= 0; read = in.read(buffer)) {
+                out.write(buffer, 0, read);
+            }
+            return out.toByteArray();
+        } catch (IOException ex) {
+            throw new ClassNotFoundException(name, ex);
+        } finally {
+            Utils.close(in);
+        }
+    }
+}
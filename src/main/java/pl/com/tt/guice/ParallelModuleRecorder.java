@@ -0,0 +1,127 @@
+/*
+ * Copyright (c) 2012 Transition Technologies S.A.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package pl.com.tt.guice;
+
+import com.google.inject.Module;
+import com.google.inject.spi.Element;
+import com.google.inject.spi.Elements;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Instantiates modules and records their elements on bounded thread pool,
+ * so slow module constructors and <code>configure()</code> methods
+ * (loading properties, reading schemas etc.) overlap.
+ * <p/>
+ * Returned modules only replay recorded elements, so Guice does not call
+ * <code>configure()</code> of original modules again. Modules are recorded
+ * separately, so submodule installed by more than one module is recorded
+ * more than once, duplicates are removed by {@link ModuleDeduplicator}.
+ *
+ * @author Marek Piechut <m.piechut@tt.com.pl>
+ */
+class ParallelModuleRecorder {
+
+    private final int threads;
+
+    ParallelModuleRecorder(int threads) {
+        this.threads = threads;
+    }
+
+    /**
+     * Instantiate and record modules.
+     *
+     * @param moduleClasses modules to instantiate
+     * @return recorded modules in the same order as passed in classes
+     * @throws InstantiationException if could not create instance of module
+     * @throws IllegalAccessException if could not create instance of module
+     */
+    List<Module> record(List<Class<? extends Module>> moduleClasses)
+            throws InstantiationException, IllegalAccessException {
+        List<Module> modules = new ArrayList<Module>(moduleClasses.size());
+        if (moduleClasses.isEmpty()) {
+            return modules;
+        }
+
+        ExecutorService executor = Executors.newFixedThreadPool(Math.min(threads, moduleClasses.size()),
+                new ThreadFactory() {
+
+                    private int count;
+
+                    public synchronized Thread newThread(Runnable runnable) {
+                        Thread thread = new Thread(runnable, "GuiceUnit module recorder " + ++count);
+                        thread.setDaemon(true);
+                        return thread;
+                    }
+                });
+        try {
+            List<Future<List<Element>>> futures = new ArrayList<Future<List<Element>>>(moduleClasses.size());
+            for (Class<? extends Module> moduleClass : moduleClasses) {
+                futures.add(executor.submit(new RecordModule(moduleClass)));
+            }
+
+            for (Future<List<Element>> future : futures) {
+                modules.add(Elements.getModule(get(future)));
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+        return modules;
+    }
+
+    private static List<Element> get(Future<List<Element>> future)
+            throws InstantiationException, IllegalAccessException {
+        try {
+            return future.get();
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while recording modules", ex);
+        } catch (ExecutionException ex) {
+            Throwable cause = ex.getCause();
+            if (cause instanceof InstantiationException) {
+                throw (InstantiationException) cause;
+            } else if (cause instanceof IllegalAccessException) {
+                throw (IllegalAccessException) cause;
+            } else if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            } else if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw new IllegalStateException("Could not record module", cause);
+        }
+    }
+
+    private static class RecordModule implements Callable<List<Element>> {
+
+        private final Class<? extends Module> moduleClass;
+
+        RecordModule(Class<? extends Module> moduleClass) {
+            this.moduleClass = moduleClass;
+        }
+
+        public List<Element> call()
+                throws Exception {
+            return Elements.getElements(InjectorFactory.instantiate(moduleClass));
+        }
+    }
+}
@@ -0,0 +1,472 @@
+/*
+ * Copyright (c) 2012 Transition Technologies S.A.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package pl.com.tt.guice.daemon;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.MalformedURLException;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import lombok.extern.slf4j.Slf4j;
+import pl.com.tt.guice.InjectorFactory;
+import pl.com.tt.guice.reflections.ScanIndex;
+
+/**
+ * Local daemon keeping classpath scan results between test runs.
+ * <p/>
+ * Every <code>mvn test</code> or IDE test run starts new JVM that scans classpath
+ * for modules and static injections again. Daemon keeps scan results in memory, by
+ * scanned classpath members, and answers test JVMs connected with {@link ScanDaemonClient}
+ * over localhost socket. Every request carries stamp of classpath members (paths,
+ * sizes and modification times of their files, see {@link #stamp(Iterable)}) and
+ * results scanned with other stamp are scanned again, so they are never stale.
+ * Scanned directories are also watched for changes and results are scanned again
+ * in background when they change, so usually they are ready before next request.
+ * Only {@link #MAX_ENTRIES} most recently requested results are kept.
+ * <p/>
+ * Start it in project directory with:
+ * <pre>
+ * java -cp guiceunit.jar:reflections.jar:... pl.com.tt.guice.daemon.ScanDaemon [port]
+ * </pre>
+ * It listens only on loopback interface, on port from {@link ScanDaemonClient#PORT_PROPERTY}
+ * ({@link ScanDaemonClient#DEFAULT_PORT} by default).
+ *
+ * @author Marek Piechut <m.piechut@tt.com.pl>
+ */
+@Slf4j
+public class ScanDaemon implements Closeable {
+
+    /**
+     * Version of protocol, changed when request or response format changes.
+     */
+    static final int VERSION = 2;
+    /**
+     * Number of scan results kept, least recently requested are dropped with their watched directories.
+     */
+    static final int MAX_ENTRIES = 16;
+    private final ServerSocket server;
+    private final WatchService watchService;
+    private final ExecutorService executor;
+    private final Map<Request, Entry> entries = new LinkedHashMap<Request, Entry>(16, 0.75f, true) {
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Request, Entry> eldest) {
+            if (size() <= MAX_ENTRIES) {
+                return false;
+            }
+            unwatch(eldest.getValue());
+            return true;
+        }
+    };
+    private final Map<WatchKey, Path> watchedDirs = new HashMap<WatchKey, Path>();
+    private final Set<Path> watchedRoots = new HashSet<Path>();
+
+    private ScanDaemon(int port)
+            throws IOException {
+        server = new ServerSocket(port, 50, InetAddress.getByName(null));
+        watchService = FileSystems.getDefault().newWatchService();
+        executor = Executors.newCachedThreadPool(new ThreadFactory() {
+
+            private int count;
+
+            public synchronized Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "GuiceUnit scan daemon " + ++count);
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+    }
+
+    /**
+     * Start daemon listening on localhost.
+     *
+     * @param port port to listen on, 0 for any free port
+     * @return started daemon
+     * @throws IOException if could not listen on port
+     */
+    public static ScanDaemon start(int port)
+            throws IOException {
+        final ScanDaemon daemon = new ScanDaemon(port);
+        daemon.executor.execute(new Runnable() {
+
+            public void run() {
+                daemon.accept();
+            }
+        });
+        daemon.executor.execute(new Runnable() {
+
+            public void run() {
+                daemon.watch();
+            }
+        });
+        log.info("GuiceUnit scan daemon listening on port " + daemon.getPort());
+        return daemon;
+    }
+
+    public static void main(String[] args)
+            throws IOException, InterruptedException {
+        int port = args.length > 0 ? Integer.parseInt(args[0])
+                : Integer.getInteger(ScanDaemonClient.PORT_PROPERTY, ScanDaemonClient.DEFAULT_PORT);
+        start(port);
+        Thread.currentThread().join();
+    }
+
+    /**
+     * Get port daemon listens on.
+     *
+     * @return local port
+     */
+    public int getPort() {
+        return server.getLocalPort();
+    }
+
+    /**
+     * Stop daemon.
+     */
+    public void close()
+            throws IOException {
+        server.close();
+        watchService.close();
+        executor.shutdownNow();
+    }
+
+    private void accept() {
+        try {
+            while (!server.isClosed()) {
+                final Socket socket = server.accept();
+                executor.execute(new Runnable() {
+
+                    public void run() {
+                        serve(socket);
+                    }
+                });
+            }
+        } catch (SocketException ex) {
+            //Closed
+        } catch (IOException ex) {
+            log.error("Scan daemon stopped accepting connections", ex);
+        }
+    }
+
+    private void serve(Socket socket) {
+        try {
+            try {
+                DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+                DataOutputStream out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+                if (in.readInt() != VERSION) {
+                    out.writeBoolean(false);
+                } else {
+                    boolean staticInjects = in.readBoolean();
+                    Set<String> urls = new TreeSet<String>();
+                    for (int i = in.readInt(); i > 0; i--) {
+                        urls.add(in.readUTF());
+                    }
+                    long stamp = in.readLong();
+                    ScanIndex index = getIndex(new Request(urls, staticInjects), stamp);
+                    out.writeBoolean(true);
+                    index.write(out);
+                }
+                out.flush();
+            } finally {
+                socket.close();
+            }
+        } catch (IOException ex) {
+            log.warn("Could not answer scan request", ex);
+        } catch (RuntimeException ex) {
+            log.error("Could not scan classpath", ex);
+        }
+    }
+
+    /**
+     * Compute stamp of classpath members: paths, sizes and modification times of
+     * jars and files in directories. Stamp changes when any of them is added,
+     * removed or modified.
+     *
+     * @param urls classpath members
+     * @return stamp of current classpath members content
+     */
+    static long stamp(Iterable<String> urls) {
+        final long[] stamp = new long[1];
+        for (String url : urls) {
+            File file = toFile(url);
+            if (file == null) {
+                continue;
+            }
+            try {
+                Files.walkFileTree(file.toPath(), new SimpleFileVisitor<Path>() {
+
+                    @Override
+                    public FileVisitResult visitFile(Path path, BasicFileAttributes attrs) {
+                        //Sum doesn't depend on order of visited files
+                        stamp[0] += (path.hashCode() * 31L + attrs.lastModifiedTime().toMillis()) * 31L + attrs.size();
+                        return FileVisitResult.CONTINUE;
+                    }
+
+                    @Override
+                    public FileVisitResult visitFileFailed(Path path, IOException ex) {
+                        //Missing member, nothing to scan
+                        return FileVisitResult.CONTINUE;
+                    }
+                });
+            } catch (IOException ex) {
+                log.warn("Could not compute stamp of: " + file, ex);
+            }
+        }
+        return stamp[0];
+    }
+
+    /**
+     * Number of watched directories.
+     */
+    synchronized int getWatchedDirs() {
+        return watchedDirs.size();
+    }
+
+    private synchronized ScanIndex getIndex(Request request, long stamp) {
+        Entry entry = entries.get(request);
+        if (entry == null) {
+            entry = new Entry(request);
+            entries.put(request, entry);
+            for (Path root : entry.roots) {
+                if (watchedRoots.add(root)) {
+                    register(root);
+                }
+            }
+        }
+        if (entry.index == null || entry.stamp != stamp) {
+            entry.scan(stamp);
+        }
+        return entry.index;
+    }
+
+    private void watch() {
+        try {
+            while (true) {
+                WatchKey key = watchService.take();
+                synchronized (this) {
+                    processEvents(key);
+                    //Keep results fresh for next request
+                    for (Entry entry : entries.values()) {
+                        if (entry.index == null) {
+                            entry.scan(stamp(entry.request.urls));
+                        }
+                    }
+                }
+            }
+        } catch (InterruptedException ex) {
+            //Closed
+        } catch (ClosedWatchServiceException ex) {
+            //Closed
+        }
+    }
+
+    private void processEvents(WatchKey key) {
+        Path dir = watchedDirs.get(key);
+        if (dir == null) {
+            //Unwatched after key was signalled
+            key.cancel();
+            return;
+        }
+        for (WatchEvent<?> event : key.pollEvents()) {
+            if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+                for (Entry entry : entries.values()) {
+                    entry.index = null;
+                }
+                continue;
+            }
+            Path path = dir.resolve((Path) event.context());
+            if (event.kind() == StandardWatchEventKinds.ENTRY_CREATE && Files.isDirectory(path)) {
+                register(path);
+            }
+        }
+        if (!key.reset()) {
+            watchedDirs.remove(key);
+        }
+
+        Path root = getRoot(dir);
+        for (Entry entry : entries.values()) {
+            if (entry.roots.contains(root)) {
+                entry.index = null;
+            }
+        }
+    }
+
+    private Path getRoot(Path dir) {
+        for (Path root : watchedRoots) {
+            if (dir.startsWith(root)) {
+                return root;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Stop watching directories of dropped entry that no other entry uses.
+     */
+    private void unwatch(Entry dropped) {
+        for (Path root : dropped.roots) {
+            boolean used = false;
+            for (Entry entry : entries.values()) {
+                used |= entry != dropped && entry.roots.contains(root);
+            }
+            if (used || !watchedRoots.remove(root)) {
+                continue;
+            }
+            for (Iterator<Map.Entry<WatchKey, Path>> it = watchedDirs.entrySet().iterator(); it.hasNext();) {
+                Map.Entry<WatchKey, Path> watched = it.next();
+                if (watched.getValue().startsWith(root)) {
+                    watched.getKey().cancel();
+                    it.remove();
+                }
+            }
+        }
+    }
+
+    /**
+     * Watch directory and all it's subdirectories.
+     */
+    private void register(Path dir) {
+        try {
+            Files.walkFileTree(dir, new SimpleFileVisitor<Path>() {
+
+                @Override
+                public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs)
+                        throws IOException {
+                    WatchKey key = dir.register(watchService, StandardWatchEventKinds.ENTRY_CREATE,
+                            StandardWatchEventKinds.ENTRY_MODIFY, StandardWatchEventKinds.ENTRY_DELETE);
+                    watchedDirs.put(key, dir);
+                    return FileVisitResult.CONTINUE;
+                }
+            });
+        } catch (IOException ex) {
+            log.error("Could not watch directory: " + dir, ex);
+        }
+    }
+
+    private static File toFile(String url) {
+        try {
+            URL parsed = new URL(url);
+            return "file".equals(parsed.getProtocol()) ? new File(parsed.toURI()) : null;
+        } catch (MalformedURLException ex) {
+            return null;
+        } catch (URISyntaxException ex) {
+            return null;
+        }
+    }
+
+    /**
+     * Scanned classpath members and scan type.
+     */
+    private static class Request {
+
+        private final Set<String> urls;
+        private final boolean staticInjects;
+
+        Request(Set<String> urls, boolean staticInjects) {
+            this.urls = urls;
+            this.staticInjects = staticInjects;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (!(obj instanceof Request)) {
+                return false;
+            }
+            Request other = (Request) obj;
+            return staticInjects == other.staticInjects && urls.equals(other.urls);
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * urls.hashCode() + (staticInjects ? 1 : 0);
+        }
+    }
+
+    /**
+     * Scan result with watched directories and stamp of classpath members it was scanned from.
+     * Index is null when it has to be scanned again.
+     */
+    private static class Entry {
+
+        private final Request request;
+        private final List<Path> roots = new ArrayList<Path>();
+        private long stamp;
+        private ScanIndex index;
+
+        Entry(Request request) {
+            this.request = request;
+            for (String url : request.urls) {
+                File file = toFile(url);
+                if (file != null && file.isDirectory()) {
+                    roots.add(file.toPath().toAbsolutePath());
+                }
+            }
+        }
+
+        /**
+         * Scan classpath members, stamp is taken before scan, so changes done during scan
+         * are scanned again on next request.
+         */
+        void scan(long stamp) {
+            this.stamp = stamp;
+            Set<URL> urls = new LinkedHashSet<URL>();
+            for (String url : request.urls) {
+                try {
+                    urls.add(new URL(url));
+                } catch (MalformedURLException ex) {
+                    log.warn("Skipping invalid classpath member: " + url);
+                }
+            }
+            long start = System.currentTimeMillis();
+            index = InjectorFactory.indexClasspath(urls, request.staticInjects);
+            log.info("Scanned " + urls.size() + " classpath members in " + (System.currentTimeMillis() - start) + " ms");
+        }
+    }
+}
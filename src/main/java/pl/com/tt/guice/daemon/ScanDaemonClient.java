@@ -0,0 +1,121 @@
+/*
+ * Copyright (c) 2012 Transition Technologies S.A.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package pl.com.tt.guice.daemon;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import lombok.extern.slf4j.Slf4j;
+import pl.com.tt.guice.reflections.ScanIndex;
+
+/**
+ * Gets classpath scan results from {@link ScanDaemon}.
+ * <p/>
+ * Enabled with {@link #PROPERTY} system property. If daemon can't be reached,
+ * caller should scan classpath itself.
+ *
+ * @author Marek Piechut <m.piechut@tt.com.pl>
+ */
+@Slf4j
+public class ScanDaemonClient {
+
+    /**
+     * System property enabling asking daemon for scan results.
+     */
+    public static final String PROPERTY = "guiceunit.daemon";
+    /**
+     * System property with port of daemon.
+     */
+    public static final String PORT_PROPERTY = "guiceunit.daemon.port";
+    public static final int DEFAULT_PORT = 7460;
+    /**
+     * Time to wait for connection, daemon is local so it's either there or not.
+     */
+    private static final int CONNECT_TIMEOUT_MILLIS = 200;
+    /**
+     * Time to wait for answer, daemon may be scanning classpath.
+     */
+    private static final int READ_TIMEOUT_MILLIS = 120000;
+
+    private ScanDaemonClient() {
+    }
+
+    /**
+     * Check if daemon should be asked for scan results.
+     *
+     * @return true if {@link #PROPERTY} is set to true
+     */
+    public static boolean isEnabled() {
+        return Boolean.getBoolean(PROPERTY);
+    }
+
+    /**
+     * Get scan results of classpath members from daemon.
+     *
+     * @param classPathMembers classpath members to scan
+     * @param staticInjects if classes with static injections should be found
+     * @return scan results or null if daemon can't be reached
+     */
+    public static ScanIndex fetch(Set<URL> classPathMembers, boolean staticInjects) {
+        return fetch(Integer.getInteger(PORT_PROPERTY, DEFAULT_PORT), classPathMembers, staticInjects);
+    }
+
+    static ScanIndex fetch(int port, Set<URL> classPathMembers, boolean staticInjects) {
+        Socket socket = new Socket();
+        try {
+            try {
+                socket.connect(new InetSocketAddress(InetAddress.getByName(null), port), CONNECT_TIMEOUT_MILLIS);
+                socket.setSoTimeout(READ_TIMEOUT_MILLIS);
+                DataOutputStream out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+                out.writeInt(ScanDaemon.VERSION);
+                out.writeBoolean(staticInjects);
+                List<String> urls = new ArrayList<String>();
+                for (URL url : classPathMembers) {
+                    urls.add(url.toExternalForm());
+                }
+                out.writeInt(urls.size());
+                for (String url : urls) {
+                    out.writeUTF(url);
+                }
+                //Daemon scans again if classpath changed since it's results were scanned
+                out.writeLong(ScanDaemon.stamp(urls));
+                out.flush();
+
+                DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+                if (!in.readBoolean()) {
+                    log.warn("GuiceUnit scan daemon on port " + port + " uses other protocol version, restart it");
+                    return null;
+                }
+                return ScanIndex.read(in);
+            } finally {
+                socket.close();
+            }
+        } catch (IOException ex) {
+            log.info("GuiceUnit scan daemon not available on port " + port + ", will scan classpath: " + ex);
+            return null;
+        }
+    }
+}
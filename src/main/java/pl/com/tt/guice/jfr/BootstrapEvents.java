@@ -0,0 +1,135 @@
+/*
+ * Copyright (c) 2012 Transition Technologies S.A.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package pl.com.tt.guice.jfr;
+
+import com.google.inject.Module;
+import com.google.inject.util.Modules;
+import java.util.Arrays;
+import java.util.Collection;
+
+/**
+ * Java Flight Recorder events for GuiceUnit bootstrap operations.
+ * <p/>
+ * Events are emitted only if JVM supports Flight Recorder
+ * (<code>jdk.jfr</code> package is available) and recording of
+ * <code>pl.com.tt.guice.*</code> events is enabled. Otherwise returned spans
+ * and modules do nothing more than required.
+ *
+ * @author Marek Piechut <m.piechut@tt.com.pl>
+ */
+public class BootstrapEvents {
+
+    private static final boolean available = isAvailable();
+    private static final ScanSpan NOOP = new ScanSpan() {
+
+        public void end() {
+        }
+
+        public void end(int classesExamined, int classesFound) {
+        }
+    };
+
+    private BootstrapEvents() {
+    }
+
+    /**
+     * Start recording of classpath scan.
+     *
+     * @param scan what is searched for
+     * @param urlCount number of classpath URLs to scan
+     * @return started span
+     */
+    public static ScanSpan classpathScan(String scan, int urlCount) {
+        return available ? JfrSpans.classpathScan(scan, urlCount) : NOOP;
+    }
+
+    /**
+     * Start recording of module instance creation.
+     *
+     * @param moduleClass module class
+     * @return started span
+     */
+    public static Span moduleInstantiation(Class<?> moduleClass) {
+        return available ? JfrSpans.moduleInstantiation(moduleClass) : NOOP;
+    }
+
+    /**
+     * Start recording of injector creation.
+     *
+     * @param description what injector is created for
+     * @param child if it's child injector
+     * @return started span
+     */
+    public static Span injectorCreation(String description, boolean child) {
+        return available ? JfrSpans.injectorCreation(description, child) : NOOP;
+    }
+
+    /**
+     * Start recording of test instance creation.
+     *
+     * @param testClass test class
+     * @return started span
+     */
+    public static Span createTest(Class<?> testClass) {
+        return available ? JfrSpans.createTest(testClass) : NOOP;
+    }
+
+    /**
+     * Create module overriding bindings from base module, which records
+     * override composition when it's configured.
+     *
+     * @param base module with bindings to override
+     * @param overrides overriding modules
+     * @return override module
+     */
+    public static Module override(Module base, Module... overrides) {
+        return override(base, Arrays.asList(overrides));
+    }
+
+    /**
+     * Create module overriding bindings from base module, which records
+     * override composition when it's configured.
+     *
+     * @param base module with bindings to override
+     * @param overrides overriding modules
+     * @return override module
+     */
+    public static Module override(Module base, Collection<? extends Module> overrides) {
+        Module module = Modules.override(base).with(overrides);
+        return available ? new RecordedModule(module, overrides.size()) : module;
+    }
+
+    /**
+     * Create module requesting static injection of passed in classes,
+     * which records static injection done by injector.
+     *
+     * @param classes classes to inject static members to
+     * @return static injection module
+     */
+    public static Module staticInjection(Class<?>... classes) {
+        return new StaticInjectionModule(available, classes);
+    }
+
+    private static boolean isAvailable() {
+        try {
+            Class.forName("jdk.jfr.Event");
+            return true;
+        } catch (Throwable ex) {
+            return false;
+        }
+    }
+}
@@ -0,0 +1,108 @@
+/*
+ * Copyright (c) 2012 Transition Technologies S.A.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package pl.com.tt.guice.jfr;
+
+import jdk.jfr.Event;
+
+/**
+ * Spans backed by Flight Recorder events.
+ * <p/>
+ * Only loaded if <code>jdk.jfr</code> package is available. Events
+ * that are not enabled in any recording are not started.
+ *
+ * @author Marek Piechut <m.piechut@tt.com.pl>
+ */
+class JfrSpans {
+
+    private static final ScanSpan NOOP = new ScanSpan() {
+
+        public void end() {
+        }
+
+        public void end(int classesExamined, int classesFound) {
+        }
+    };
+
+    private JfrSpans() {
+    }
+
+    static ScanSpan classpathScan(String scan, int urlCount) {
+        final ClasspathScanEvent event = new ClasspathScanEvent();
+        if (!event.isEnabled()) {
+            return NOOP;
+        }
+        event.scan = scan;
+        event.urlCount = urlCount;
+        event.begin();
+        return new ScanSpan() {
+
+            public void end() {
+                event.commit();
+            }
+
+            public void end(int classesExamined, int classesFound) {
+                event.classesExamined = classesExamined;
+                event.classesFound = classesFound;
+                event.commit();
+            }
+        };
+    }
+
+    static Span moduleInstantiation(Class<?> moduleClass) {
+        ModuleInstantiationEvent event = new ModuleInstantiationEvent();
+        event.moduleClass = moduleClass;
+        return begin(event);
+    }
+
+    static Span moduleOverride(int overridingCount) {
+        ModuleOverrideEvent event = new ModuleOverrideEvent();
+        event.overridingCount = overridingCount;
+        return begin(event);
+    }
+
+    static Span injectorCreation(String description, boolean child) {
+        InjectorCreationEvent event = new InjectorCreationEvent();
+        event.description = description;
+        event.child = child;
+        return begin(event);
+    }
+
+    static Span staticInjection(int classCount) {
+        StaticInjectionEvent event = new StaticInjectionEvent();
+        event.classCount = classCount;
+        return begin(event);
+    }
+
+    static Span createTest(Class<?> testClass) {
+        CreateTestEvent event = new CreateTestEvent();
+        event.testClass = testClass;
+        return begin(event);
+    }
+
+    private static Span begin(final Event event) {
+        if (!event.isEnabled()) {
+            return NOOP;
+        }
+        event.begin();
+        return new Span() {
+
+            public void end() {
+                event.commit();
+            }
+        };
+    }
+}
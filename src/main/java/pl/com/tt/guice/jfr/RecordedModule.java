@@ -0,0 +1,47 @@
+/*
+ * Copyright (c) 2012 Transition Technologies S.A.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package pl.com.tt.guice.jfr;
+
+import com.google.inject.Binder;
+import com.google.inject.Module;
+
+/**
+ * Module recording override composition when installed.
+ * Override module configures all overridden and overriding modules
+ * during installation, so that's where the work is done.
+ *
+ * @author Marek Piechut <m.piechut@tt.com.pl>
+ */
+class RecordedModule implements Module {
+
+    private final Module module;
+    private final int overridingCount;
+
+    RecordedModule(Module module, int overridingCount) {
+        this.module = module;
+        this.overridingCount = overridingCount;
+    }
+
+    public void configure(Binder binder) {
+        Span span = JfrSpans.moduleOverride(overridingCount);
+        try {
+            binder.install(module);
+        } finally {
+            span.end();
+        }
+    }
+}
@@ -0,0 +1,31 @@
+/*
+ * Copyright (c) 2012 Transition Technologies S.A.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package pl.com.tt.guice.jfr;
+
+/**
+ * Recorded bootstrap operation. Has to be ended when operation is finished.
+ *
+ * @see BootstrapEvents
+ * @author Marek Piechut <m.piechut@tt.com.pl>
+ */
+public interface Span {
+
+    /**
+     * Finish recording of operation.
+     */
+    void end();
+}
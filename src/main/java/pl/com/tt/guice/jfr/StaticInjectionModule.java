@@ -0,0 +1,82 @@
+/*
+ * Copyright (c) 2012 Transition Technologies S.A.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package pl.com.tt.guice.jfr;
+
+import com.google.inject.Binder;
+import com.google.inject.Inject;
+import com.google.inject.Module;
+
+/**
+ * Module requesting static injection for classes.
+ * <p/>
+ * If recording is possible it requests static injection for marker class
+ * first and member injection of marker instance at the end. Guice does
+ * static injections in order they were requested and member injections
+ * after all static ones, so markers are called just before and right
+ * after static injection of passed in classes.
+ *
+ * @author Marek Piechut <m.piechut@tt.com.pl>
+ */
+class StaticInjectionModule implements Module {
+
+    /**
+     * Number of classes requested for static injection by injector being
+     * configured by current thread.
+     */
+    private static final ThreadLocal<Integer> requested = new ThreadLocal<Integer>();
+    private static final ThreadLocal<Span> current = new ThreadLocal<Span>();
+    private final boolean recorded;
+    private final Class<?>[] classes;
+
+    StaticInjectionModule(boolean recorded, Class<?>... classes) {
+        this.recorded = recorded;
+        this.classes = classes;
+    }
+
+    public void configure(Binder binder) {
+        if (recorded) {
+            requested.set(classes.length);
+            binder.requestStaticInjection(StaticInjectionStart.class);
+            binder.requestStaticInjection(classes);
+            binder.requestInjection(new StaticInjectionEnd());
+        } else {
+            binder.requestStaticInjection(classes);
+        }
+    }
+
+    static class StaticInjectionStart {
+
+        @Inject
+        static void start() {
+            Integer classCount = requested.get();
+            requested.remove();
+            current.set(JfrSpans.staticInjection(classCount != null ? classCount : 0));
+        }
+    }
+
+    static class StaticInjectionEnd {
+
+        @Inject
+        void end() {
+            Span span = current.get();
+            current.remove();
+            if (span != null) {
+                span.end();
+            }
+        }
+    }
+}
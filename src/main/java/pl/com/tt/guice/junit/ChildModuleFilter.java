@@ -0,0 +1,148 @@
+/*
+ * Copyright (c) 2012 Transition Technologies S.A.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package pl.com.tt.guice.junit;
+
+import com.google.inject.Binding;
+import com.google.inject.Injector;
+import com.google.inject.Key;
+import com.google.inject.Module;
+import com.google.inject.spi.DefaultElementVisitor;
+import com.google.inject.spi.Element;
+import com.google.inject.spi.Elements;
+import com.google.inject.spi.InterceptorBinding;
+import com.google.inject.spi.PrivateElements;
+import com.google.inject.spi.ScopeBinding;
+import com.google.inject.spi.TypeListenerBinding;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Checks if module can be installed in child injector of already
+ * created parent injector.
+ * <p/>
+ * It's possible only if module does not override anything from parent:
+ * it does not bind keys that parent already has (explicit or just in time)
+ * and does not bind scopes that parent already has. Interceptors and type listeners
+ * of child injector would not apply to bindings of parent, so modules with them
+ * are treated as overriding too.
+ * Bindings that are exactly the same as in parent (declared in the same place,
+ * usually because module was found in classpath and is also in parent)
+ * are skipped.
+ *
+ * @author Marek Piechut <m.piechut@tt.com.pl>
+ */
+class ChildModuleFilter {
+
+    private final Injector parent;
+
+    ChildModuleFilter(Injector parent) {
+        this.parent = parent;
+    }
+
+    /**
+     * Get module with elements of passed in module that should be installed
+     * in child injector.
+     *
+     * @param module module to check
+     * @return module for child injector or null if module overrides parent bindings
+     */
+    Module filter(Module module) {
+        DecisionVisitor visitor = new DecisionVisitor(parent.getAllBindings());
+        List<Element> childElements = new ArrayList<Element>();
+        for (Element element : Elements.getElements(module)) {
+            Decision decision = element.acceptVisitor(visitor);
+            if (decision == Decision.OVERRIDE) {
+                return null;
+            } else if (decision == Decision.ADD) {
+                childElements.add(element);
+            }
+        }
+        return Elements.getModule(childElements);
+    }
+
+    private enum Decision {
+
+        /**
+         * Element is new, install it in child
+         */
+        ADD,
+        /**
+         * Element is already in parent
+         */
+        SKIP,
+        /**
+         * Element overrides something from parent
+         */
+        OVERRIDE
+    }
+
+    private class DecisionVisitor extends DefaultElementVisitor<Decision> {
+
+        private final Map<Key<?>, Binding<?>> parentBindings;
+
+        DecisionVisitor(Map<Key<?>, Binding<?>> parentBindings) {
+            this.parentBindings = parentBindings;
+        }
+
+        @Override
+        protected Decision visitOther(Element element) {
+            return Decision.ADD;
+        }
+
+        @Override
+        public <T> Decision visit(Binding<T> binding) {
+            Binding<?> parentBinding = parentBindings.get(binding.getKey());
+            if (parentBinding == null) {
+                return Decision.ADD;
+            } else if (parentBinding.getSource().equals(binding.getSource())) {
+                return Decision.SKIP;
+            }
+            return Decision.OVERRIDE;
+        }
+
+        @Override
+        public Decision visit(ScopeBinding scopeBinding) {
+            if (parent.getScopeBindings().containsKey(scopeBinding.getAnnotationType())) {
+                return Decision.OVERRIDE;
+            }
+            return Decision.ADD;
+        }
+
+        @Override
+        public Decision visit(InterceptorBinding interceptorBinding) {
+            //Would not intercept classes bound by parent
+            return Decision.OVERRIDE;
+        }
+
+        @Override
+        public Decision visit(TypeListenerBinding typeListenerBinding) {
+            //Would not hear about types bound by parent
+            return Decision.OVERRIDE;
+        }
+
+        @Override
+        public Decision visit(PrivateElements privateElements) {
+            for (Key<?> key : privateElements.getExposedKeys()) {
+                if (parentBindings.containsKey(key)) {
+                    return Decision.OVERRIDE;
+                }
+            }
+            return Decision.ADD;
+        }
+    }
+}
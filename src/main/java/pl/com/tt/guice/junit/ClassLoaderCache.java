@@ -0,0 +1,73 @@
+/*
+ * Copyright (c) 2012 Transition Technologies S.A.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package pl.com.tt.guice.junit;
+
+import java.lang.ref.WeakReference;
+import java.util.Map;
+import java.util.WeakHashMap;
+
+/**
+ * Cache of values that reference classes of class loader they are cached for.
+ * <p/>
+ * Value of class loader used most recently is strongly referenced, values
+ * of other class loaders only weakly. Class loaders of finished test runs
+ * (IDE re-runs, isolated test workers) are released as soon as tests from
+ * other class loader use cache, without waiting for heap pressure. Soft references
+ * would keep them until heap is full, while their classes fill metaspace.
+ *
+ * @author Marek Piechut <m.piechut@tt.com.pl>
+ */
+class ClassLoaderCache<V> {
+
+    private final Map<ClassLoader, WeakReference<V>> values = new WeakHashMap<ClassLoader, WeakReference<V>>();
+    private ClassLoader currentClassLoader;
+    private V current;
+
+    /**
+     * Get value cached for class loader.
+     *
+     * @param classLoader class loader
+     * @return cached value or null if none or it was collected
+     */
+    synchronized V get(ClassLoader classLoader) {
+        if (current != null && currentClassLoader == classLoader) {
+            return current;
+        }
+        WeakReference<V> reference = values.get(classLoader);
+        V value = reference == null ? null : reference.get();
+        if (value != null) {
+            setCurrent(classLoader, value);
+        }
+        return value;
+    }
+
+    /**
+     * Cache value for class loader.
+     *
+     * @param classLoader class loader
+     * @param value value to cache
+     */
+    synchronized void put(ClassLoader classLoader, V value) {
+        values.put(classLoader, new WeakReference<V>(value));
+        setCurrent(classLoader, value);
+    }
+
+    private void setCurrent(ClassLoader classLoader, V value) {
+        currentClassLoader = classLoader;
+        current = value;
+    }
+}
@@ -0,0 +1,234 @@
+/*
+ * Copyright (c) 2012 Transition Technologies S.A.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package pl.com.tt.guice.junit;
+
+import com.google.inject.Injector;
+import com.google.inject.Key;
+import com.google.inject.Module;
+import java.lang.annotation.Annotation;
+import java.lang.reflect.Modifier;
+import java.lang.reflect.Parameter;
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.Function;
+import lombok.extern.slf4j.Slf4j;
+import org.junit.jupiter.api.extension.AfterAllCallback;
+import org.junit.jupiter.api.extension.BeforeAllCallback;
+import org.junit.jupiter.api.extension.ExtensionConfigurationException;
+import org.junit.jupiter.api.extension.ExtensionContext;
+import org.junit.jupiter.api.extension.ExtensionContext.Namespace;
+import org.junit.jupiter.api.extension.ExtensionContext.Store;
+import org.junit.jupiter.api.extension.ParameterContext;
+import org.junit.jupiter.api.extension.ParameterResolutionException;
+import org.junit.jupiter.api.extension.ParameterResolver;
+import org.junit.jupiter.api.extension.TestInstancePostProcessor;
+import pl.com.tt.guice.profiling.InjectorStatistics;
+import pl.com.tt.guice.profiling.ProvisionProfiler;
+
+/**
+ * JUnit Jupiter extension that supports Google Guice injections.
+ * <p/>
+ * It's JUnit 5 counterpart of {@link GUnitTestRunner}:
+ * <pre>
+ * &#64;ExtendWith(GUnitExtension.class)
+ * &#64;WithModule(MyModule.class)
+ * public class MyTest {
+ * }
+ * </pre>
+ * Injectors are configured the same way as by test runner, including {@link WithModule}
+ * semantics, and kept in root store of engine run, by configuration (test modules and
+ * override flag). All test classes with the same configuration share one injector
+ * (so also it's singletons), it's created only once per engine run. In minimal mode
+ * test classes without {@link WithModule} get their own injectors. Resettable singletons
+ * ({@link GUnitInjectorFactory#RESETTABLE_SINGLETONS_PROPERTY}) are not used, as test classes
+ * sharing injector may run in parallel.
+ * Each test class gets child injector of it that does static injections for this class.
+ * Static fields are restored after all tests of the class are executed.
+ * <p/>
+ * Test instances get their members injected. Constructor and method parameters
+ * are resolved from injector if it has explicit binding for them.
+ * <p/>
+ * Extension can be used with parallel execution: shared injectors are created
+ * once, other classes with the same configuration wait for them. Test classes
+ * that inject the same static fields should not be executed concurrently.
+ *
+ * @see GUnitTestRunner
+ * @author Marek Piechut <m.piechut@tt.com.pl>
+ */
+@Slf4j
+public class GUnitExtension implements BeforeAllCallback, AfterAllCallback, TestInstancePostProcessor, ParameterResolver {
+
+    private static final Namespace NAMESPACE = Namespace.create(GUnitExtension.class);
+    private static final String INJECTOR = "injector";
+    private static final String STATICS_BEFORE = "staticsBefore";
+
+    public void beforeAll(ExtensionContext context)
+            throws Exception {
+        final Class<?> test = context.getRequiredTestClass();
+        final Class<?> configured = getConfiguredClass(test);
+        final boolean override = GUnitInjectorFactory.isOverride(configured);
+        final Class<? extends Module>[] modules = GUnitInjectorFactory.getTestModules(configured);
+
+        String previousContext = ProvisionProfiler.setContext(test.getName());
+        try {
+            Store root = context.getRoot().getStore(NAMESPACE);
+            //Injector created in minimal mode depends on test class
+            Class<?> minimalTest = GUnitInjectorFactory.isMinimal(modules) ? test : null;
+            SharedInjector shared = root.getOrComputeIfAbsent(new Configuration(override, modules, minimalTest),
+                    new Function<Configuration, SharedInjector>() {
+
+                        public SharedInjector apply(Configuration configuration) {
+                            try {
+                                log.debug("Creating shared injector for: " + configuration);
+                                return new SharedInjector(configuration, GUnitInjectorFactory.prepareInjector(test, override, false, modules));
+                            } catch (Exception ex) {
+                                throw new ExtensionConfigurationException("Could not create injector for " + test.getName(), ex);
+                            }
+                        }
+                    }, SharedInjector.class);
+
+            StaticInjectFields staticFields = StaticInjectFields.of(GUnitInjectorFactory.getStaticInjects(test, override, modules));
+            Store store = context.getStore(NAMESPACE);
+            store.put(STATICS_BEFORE, staticFields.snapshot());
+            store.put(INJECTOR, GUnitInjectorFactory.injectStatics(shared.getInjector(), test, override, modules));
+        } finally {
+            ProvisionProfiler.setContext(previousContext);
+        }
+    }
+
+    public void afterAll(ExtensionContext context) {
+        StaticInjectFields.Snapshot staticsBefore = context.getStore(NAMESPACE)
+                .remove(STATICS_BEFORE, StaticInjectFields.Snapshot.class);
+        if (staticsBefore != null) {
+            staticsBefore.restore();
+        }
+    }
+
+    public void postProcessTestInstance(Object testInstance, ExtensionContext context) {
+        String previousContext = ProvisionProfiler.setContext(context.getRequiredTestClass().getName());
+        try {
+            getInjector(context).injectMembers(testInstance);
+        } finally {
+            ProvisionProfiler.setContext(previousContext);
+        }
+    }
+
+    public boolean supportsParameter(ParameterContext parameterContext, ExtensionContext extensionContext) {
+        Injector injector = extensionContext.getStore(NAMESPACE).get(INJECTOR, Injector.class);
+        return injector != null && injector.getExistingBinding(getKey(parameterContext.getParameter())) != null;
+    }
+
+    public Object resolveParameter(ParameterContext parameterContext, ExtensionContext extensionContext) {
+        return getInjector(extensionContext).getInstance(getKey(parameterContext.getParameter()));
+    }
+
+    private static Injector getInjector(ExtensionContext context) {
+        Injector injector = context.getStore(NAMESPACE).get(INJECTOR, Injector.class);
+        if (injector == null) {
+            throw new ParameterResolutionException("No injector for " + context.getUniqueId());
+        }
+        return injector;
+    }
+
+    private static Key<?> getKey(Parameter parameter) {
+        for (Annotation annotation : parameter.getAnnotations()) {
+            if (annotation.annotationType().isAnnotationPresent(com.google.inject.BindingAnnotation.class)
+                    || annotation.annotationType().isAnnotationPresent(javax.inject.Qualifier.class)) {
+                return Key.get(parameter.getParameterizedType(), annotation);
+            }
+        }
+        return Key.get(parameter.getParameterizedType());
+    }
+
+    /**
+     * Get class with {@link WithModule} configuration for test class.
+     * Nested test classes use configuration of enclosing class if they
+     * don't declare it.
+     */
+    private static Class<?> getConfiguredClass(Class<?> test) {
+        Class<?> current = test;
+        while (!current.isAnnotationPresent(WithModule.class) && current.getEnclosingClass() != null
+                && !Modifier.isStatic(current.getModifiers())) {
+            current = current.getEnclosingClass();
+        }
+        return current.isAnnotationPresent(WithModule.class) ? current : test;
+    }
+
+    /**
+     * Injector configuration, key of shared injectors.
+     */
+    private static class Configuration {
+
+        private final boolean override;
+        private final List<Class<? extends Module>> modules;
+        /**
+         * Test class in minimal mode, null if injector does not depend on test class.
+         */
+        private final Class<?> test;
+
+        Configuration(boolean override, Class<? extends Module>[] modules, Class<?> test) {
+            this.override = override;
+            this.modules = Arrays.asList(modules);
+            this.test = test;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (!(obj instanceof Configuration)) {
+                return false;
+            }
+            Configuration other = (Configuration) obj;
+            return override == other.override && modules.equals(other.modules) && test == other.test;
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * (31 * modules.hashCode() + (override ? 1 : 0)) + (test == null ? 0 : test.hashCode());
+        }
+
+        @Override
+        public String toString() {
+            return "modules: " + (modules.isEmpty() ? (test == null ? "all" : "minimal for " + test.getName()) : modules)
+                    + ", override: " + override;
+        }
+    }
+
+    /**
+     * Injector shared by test classes, released when engine run ends.
+     * Statistics of injector are recorded when it's released, so they include
+     * just in time bindings created by all test classes using it.
+     */
+    private static class SharedInjector implements Store.CloseableResource {
+
+        private final Configuration configuration;
+        private Injector injector;
+
+        SharedInjector(Configuration configuration, Injector injector) {
+            this.configuration = configuration;
+            this.injector = injector;
+        }
+
+        synchronized Injector getInjector() {
+            return injector;
+        }
+
+        public synchronized void close() {
+            InjectorStatistics.record("GUnitExtension " + configuration, injector);
+            injector = null;
+        }
+    }
+}
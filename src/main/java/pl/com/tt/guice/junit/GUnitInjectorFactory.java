@@ -24,14 +24,31 @@ import com.google.inject.Injector;
 import com.google.inject.Module;
 import com.google.inject.util.Modules;
 import java.io.File;
+import java.io.IOException;
 import java.net.MalformedURLException;
 import java.net.URL;
+import java.net.URLClassLoader;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.WeakHashMap;
 import lombok.extern.slf4j.Slf4j;
+import org.reflections.ReflectionUtils;
 import pl.com.tt.guice.InjectorFactory.MODE;
+import pl.com.tt.guice.daemon.ScanDaemonClient;
+import pl.com.tt.guice.jfr.BootstrapEvents;
+import pl.com.tt.guice.jfr.Span;
+import pl.com.tt.guice.profiling.InjectorStatistics;
+import pl.com.tt.guice.profiling.ProvisionProfiler;
+import pl.com.tt.guice.reflections.ClassReferences;
+import pl.com.tt.guice.reflections.ScanIndex;
 
 /**
  *
@@ -41,18 +58,236 @@ import pl.com.tt.guice.InjectorFactory.MODE;
 public class GUnitInjectorFactory {
 
     /**
-     * Cached injector.
-     * We cache it in case we done some extensive classpath scanning
-     * for modules and tests. It will not change between tests
-     * if we done all this automatically anyway.
+     * System property enabling layered mode.
+     * <p/>
+     * In this mode injector created from all modules found in classpath
+     * is shared by all test classes. Each test class gets child injector of it
+     * with bindings from {@link WithModule} module. If module overrides
+     * any of parent bindings full injector is created as usual.
+     * <p/>
+     * <strong>Note: </strong> singletons from parent injector are shared
+     * between test classes in this mode.
+     */
+    public static final String LAYERED_PROPERTY = "guiceunit.layered";
+
+    /**
+     * System property enabling minimal mode.
+     * <p/>
+     * In this mode test classes without {@link WithModule} get injector only
+     * from modules that bind keys needed by test class and classes it statically
+     * injects (and keys that those bindings need, transitively).
+     * Ignored in layered mode.
+     * <p/>
+     * <strong>Note: </strong> eager singletons and other side effects of modules
+     * that are not needed are skipped in this mode.
+     */
+    public static final String MINIMAL_PROPERTY = "guiceunit.minimal";
+
+    /**
+     * System property enabling resettable singletons.
+     * <p/>
+     * In this mode singletons bound by modules are moved to scope that is reset
+     * when test class starts, instead of real singleton scope. Injectors are cached
+     * and shared by test classes with the same {@link WithModule} configuration,
+     * so following test classes get new singletons without creating new injector.
+     * Ignored in minimal mode and by {@link GUnitExtension}.
+     * <p/>
+     * <strong>Note: </strong> eager singletons, bound instances and just in time
+     * bindings of classes annotated with singleton that are not referenced by modules
+     * are still shared between test classes in this mode. Test classes can't be
+     * executed in parallel.
      */
-    private static Collection<Class<? extends Module>> allModules;
+    public static final String RESETTABLE_SINGLETONS_PROPERTY = "guiceunit.singletons.resettable";
+
+    /**
+     * Cached classpath scan results (modules and classes with static injections),
+     * by class loader of test classes.
+     * We cache them in case we done some extensive classpath scanning
+     * for modules and tests. They will not change between tests
+     * if we done all this automatically anyway. Both test runner and injector
+     * need them, and we don't want to scan classpath twice for every test class.
+     * <p/>
+     * All caches are keyed by class loader with weak references, so class loaders
+     * of finished test runs (IDE re-runs, isolated test workers) can be unloaded.
+     * Scan index keeps only class names, as classes would keep their class
+     * loaders from being collected. Classes are resolved by class loader
+     * of test class, so classes out of {@link StaticInjectScope} are not loaded.
+     * <p/>
+     * If enabled, scan results are taken from {@link pl.com.tt.guice.daemon.ScanDaemon}
+     * shared by all test runs.
+     */
+    private static final Map<ClassLoader, ScanIndex> scanIndexes = new WeakHashMap<ClassLoader, ScanIndex>();
+    /**
+     * Parent injectors shared by all test classes in layered mode.
+     * Injectors reference classes from class loader, see {@link ClassLoaderCache}.
+     */
+    private static final ClassLoaderCache<Injector> parentInjectors = new ClassLoaderCache<Injector>();
+    /**
+     * Keys bound and required by modules found in classpath, for minimal mode.
+     * Keys reference classes from class loader, see {@link ClassLoaderCache}.
+     */
+    private static final ClassLoaderCache<ModuleKeyIndex> moduleKeyIndexes = new ClassLoaderCache<ModuleKeyIndex>();
+    /**
+     * Injectors without static injections shared by test classes with the same
+     * configuration (override flag and test modules) when singletons are resettable.
+     * Injectors reference classes from class loader, see {@link ClassLoaderCache}.
+     */
+    private static final ClassLoaderCache<ResettableInjectors> resettableInjectors =
+            new ClassLoaderCache<ResettableInjectors>();
+    /**
+     * Scope of singletons of shared parent injector in layered mode, when singletons are resettable.
+     * Parent injector references it, so it's kept as long as parent injector.
+     */
+    private static final ClassLoaderCache<ResettableSingletonScope> parentScopes =
+            new ClassLoaderCache<ResettableSingletonScope>();
 
     @SuppressWarnings("unchecked")
     static Injector getInjector(Class<?> test, boolean override, Class<? extends Module>... module)
             throws InstantiationException, IllegalAccessException {
         Collection<Class<? extends Module>> modules = Arrays.asList(module);
-        return createInjector(test, modules, override);
+        return createInjector(test, modules, override, true, null);
+    }
+
+    /**
+     * Create injector for test configuration without doing any static injections.
+     * Can be safely called in background, while other tests are running.
+     * Use {@link #injectStatics(Injector, Class, boolean, Class[])} to finish it.
+     *
+     * @param test test class
+     * @param override if test modules override other modules
+     * @param module test modules
+     * @return injector without static injections
+     */
+    @SuppressWarnings("unchecked")
+    static Injector prepareInjector(Class<?> test, boolean override, Class<? extends Module>... module)
+            throws InstantiationException, IllegalAccessException {
+        return prepareInjector(test, override, isResettable(), module);
+    }
+
+    /**
+     * Create injector for test configuration without doing any static injections.
+     * Can be safely called in background, while other tests are running.
+     * Use {@link #injectStatics(Injector, Class, boolean, Class[])} to finish it.
+     *
+     * @param test test class
+     * @param override if test modules override other modules
+     * @param resettable if injector should be shared by test classes with the same
+     * configuration, with singletons reset by {@link #resetSingletons(Class, Injector)}
+     * @param module test modules
+     * @return injector without static injections
+     */
+    @SuppressWarnings("unchecked")
+    static Injector prepareInjector(Class<?> test, boolean override, boolean resettable, Class<? extends Module>... module)
+            throws InstantiationException, IllegalAccessException {
+        Collection<Class<? extends Module>> modules = Arrays.asList(module);
+        if (resettable) {
+            return getResettableInjector(test, modules, override);
+        }
+        return createInjector(test, modules, override, false, null);
+    }
+
+    /**
+     * Check if injector for test configuration is created in minimal mode,
+     * so it depends on test class and can't be shared with other test classes.
+     *
+     * @param module test modules
+     * @return true if minimal mode is enabled and applies to test modules
+     * @see #MINIMAL_PROPERTY
+     */
+    static boolean isMinimal(Class<? extends Module>... module) {
+        return module.length == 0 && Boolean.getBoolean(MINIMAL_PROPERTY);
+    }
+
+    /**
+     * Check if singletons are resettable.
+     *
+     * @return true if {@link #RESETTABLE_SINGLETONS_PROPERTY} is set and minimal mode is not enabled
+     * @see #RESETTABLE_SINGLETONS_PROPERTY
+     */
+    static boolean isResettable() {
+        return Boolean.getBoolean(RESETTABLE_SINGLETONS_PROPERTY) && !Boolean.getBoolean(MINIMAL_PROPERTY);
+    }
+
+    /**
+     * Drop singletons created by injector prepared in resettable mode (and by it's
+     * shared parent in layered mode), so next test class using it gets new ones.
+     * Singletons of other injectors are kept.
+     *
+     * @param test test class
+     * @param prepared injector prepared for test class
+     */
+    static synchronized void resetSingletons(Class<?> test, Injector prepared) {
+        ClassLoader classLoader = test.getClassLoader();
+        ResettableInjectors injectors = resettableInjectors.get(classLoader);
+        ResettableSingletonScope scope = injectors == null ? null : injectors.scopes.get(prepared);
+        if (scope != null) {
+            scope.reset();
+        }
+        if (prepared.getParent() != null && prepared.getParent() == parentInjectors.get(classLoader)) {
+            ResettableSingletonScope parentScope = parentScopes.get(classLoader);
+            if (parentScope != null) {
+                parentScope.reset();
+            }
+        }
+    }
+
+    /**
+     * Do static injections for test configuration using injector created with
+     * {@link #prepareInjector(Class, boolean, Class[])}.
+     *
+     * @param prepared injector without static injections
+     * @param test test class
+     * @param override if test modules override other modules
+     * @param module test modules
+     * @return child injector of prepared one, that did static injections
+     */
+    @SuppressWarnings("unchecked")
+    static Injector injectStatics(Injector prepared, Class<?> test, boolean override, Class<? extends Module>... module) {
+        Set<Class<?>> staticInjects = getStaticInjects(test, override, module);
+        return newInjector(prepared, new WrapperModule(Modules.EMPTY_MODULE,
+                staticInjects.toArray(new Class[staticInjects.size()])), "static injections for " + test.getName());
+    }
+
+    /**
+     * Get modules declared for test class with {@link WithModule}.
+     *
+     * @param test test class
+     * @return declared modules or empty array if none
+     */
+    @SuppressWarnings("unchecked")
+    static Class<? extends Module>[] getTestModules(Class<?> test) {
+        WithModule withModule = test.getAnnotation(WithModule.class);
+        if (withModule != null) {
+            return new Class[]{withModule.value()};
+        }
+        return new Class[0];
+    }
+
+    /**
+     * Check if modules declared for test class with {@link WithModule}
+     * should override other modules.
+     *
+     * @param test test class
+     * @return true if in override mode
+     */
+    static boolean isOverride(Class<?> test) {
+        WithModule withModule = test.getAnnotation(WithModule.class);
+        return withModule != null && withModule.override();
+    }
+
+    /**
+     * Get classes that will have static members injected by injector
+     * created for passed in test configuration.
+     *
+     * @param test test class
+     * @param override if test modules override other modules
+     * @param module test modules
+     * @return classes with static members to inject
+     */
+    @SuppressWarnings("unchecked")
+    static Set<Class<?>> getStaticInjects(Class<?> test, boolean override, Class<? extends Module>... module) {
+        Collection<Class<? extends Module>> modules = Arrays.asList(module);
+        return findStaticInjects(test, modules, override);
     }
 
     /**
@@ -62,24 +297,92 @@ public class GUnitInjectorFactory {
      * <code>com.google</code> package (to exclude internal Guice
      * modules)
      *
+     * @param classLoader class loader to load modules with
      * @return all classes that are Guice modules
      */
-    static Collection<Class<? extends Module>> findAllModules() {
-        Set<URL> classPathMembers = getClasspathMembers();
+    @SuppressWarnings("unchecked")
+    static Collection<Class<? extends Module>> findAllModules(ClassLoader classLoader) {
+        List<Class<?>> moduleClasses = getScanIndex(classLoader).getClasses(ScanIndex.MODULE, classLoader);
+        Set<Class<? extends Module>> modules = new HashSet<Class<? extends Module>>(moduleClasses.size());
+        for (Class<?> moduleClass : moduleClasses) {
+            modules.add((Class<? extends Module>) moduleClass);
+        }
+
+        return modules;
+    }
+
+    /**
+     * Scan current Java classpath for classes that have static fields annotated
+     * with {@link javax.inject.Inject}.
+     *
+     * @param classLoader class loader to load classes with
+     * @return all classes with static injections
+     */
+    static Collection<Class<?>> findAllStaticInjects(ClassLoader classLoader) {
+        return new HashSet<Class<?>>(getScanIndex(classLoader).getClasses(ScanIndex.STATIC_INJECT, classLoader));
+    }
+
+    /**
+     * Scan current Java classpath for names of classes that have static fields
+     * annotated with {@link javax.inject.Inject}.
+     *
+     * @param classLoader class loader that classes will be loaded with
+     * @return names of all classes with static injections
+     */
+    static Collection<String> findAllStaticInjectNames(ClassLoader classLoader) {
+        return getScanIndex(classLoader).getNames(ScanIndex.STATIC_INJECT);
+    }
 
-        if (allModules == null) {
-            allModules = InjectorFactory.findAllModules(classPathMembers);
+    private static synchronized ScanIndex getScanIndex(ClassLoader classLoader) {
+        ScanIndex index = scanIndexes.get(classLoader);
+        if (index == null) {
+            Set<URL> classPathMembers = getClasspathMembers(classLoader);
+            if (ScanDaemonClient.isEnabled()) {
+                index = ScanDaemonClient.fetch(classPathMembers, true);
+            }
+            if (index == null) {
+                index = InjectorFactory.indexClasspath(classPathMembers, true);
+            }
+            scanIndexes.put(classLoader, index);
         }
 
-        return allModules;
+        return index;
     }
 
     /**
-     * Get classpath elements to scan for classes.
+     * Get classpath elements of class loader to scan for classes.
      * This method will return only elements that are not zip or jar files
      * this should contain application sources and not it's dependencies.
      * <p/>
-     * Will fallback to full classpath if failed.
+     * Elements are taken from URLs of class loader and it's parents
+     * (for {@link URLClassLoader}s) and from <code>java.class.path</code>
+     * if system class loader is one of them, so isolated class loaders
+     * (build tool workers, application servers) get their own classes.
+     *
+     * @param classLoader class loader of test classes
+     * @return
+     */
+    static Set<URL> getClasspathMembers(ClassLoader classLoader) {
+        Set<URL> classPathMembers = new HashSet<URL>();
+        ClassLoader system = ClassLoader.getSystemClassLoader();
+        for (ClassLoader loader = classLoader; loader != null; loader = loader.getParent()) {
+            if (loader == system) {
+                classPathMembers.addAll(getClasspathMembers());
+                break;
+            } else if (loader instanceof URLClassLoader) {
+                for (URL url : ((URLClassLoader) loader).getURLs()) {
+                    if (!isArchive(url.getPath())) {
+                        classPathMembers.add(url);
+                    }
+                }
+            }
+        }
+        return classPathMembers;
+    }
+
+    /**
+     * Get elements of <code>java.class.path</code> to scan for classes,
+     * without zip and jar files.
      *
      * @return
      */
@@ -90,7 +393,7 @@ public class GUnitInjectorFactory {
 
         for (String elem : classPathElems) {
             try {
-                if (!elem.endsWith(".jar") && !elem.endsWith(".zip")) {
+                if (!isArchive(elem)) {
                     classPathMembers.add(new File(elem).toURI().toURL());
                 }
             } catch (MalformedURLException ex) {
@@ -100,45 +403,237 @@ public class GUnitInjectorFactory {
         return classPathMembers;
     }
 
+    private static boolean isArchive(String path) {
+        return path.endsWith(".jar") || path.endsWith(".zip");
+    }
+
+    /**
+     * Create injector for test configuration.
+     *
+     * @param scope scope for singletons of injector, null if they are not resettable
+     */
     @SuppressWarnings("unchecked")
-    private static Injector createInjector(Class<?> test, Collection<Class<? extends Module>> testModules, boolean override)
+    private static Injector createInjector(Class<?> test, Collection<Class<? extends Module>> testModules, boolean override,
+            boolean staticInjection, ResettableSingletonScope scope)
             throws InstantiationException, IllegalAccessException {
 
+        boolean allModules = testModules == null || testModules.isEmpty();
+        if (Boolean.getBoolean(LAYERED_PROPERTY) && (override || allModules)) {
+            Injector injector = createChildInjector(test, testModules, override, staticInjection, scope);
+            if (injector != null) {
+                return injector;
+            }
+            log.info("Modules " + testModules + " override bindings from parent injector. Will create full injector.");
+        }
+
         Collection<Class<? extends Module>> modules = testModules;
-        if (modules == null || modules.isEmpty()) {
+        if (allModules && Boolean.getBoolean(MINIMAL_PROPERTY)) {
+            ModuleKeyIndex index = getModuleKeyIndex(test.getClassLoader());
+            modules = index.select(ModuleKeyIndex.requiredKeys(test, findStaticInjects(test, testModules, override)));
+            log.info("Minimal mode. Using " + modules.size() + " of " + index.size() + " modules for " + test.getName());
+        } else if (allModules) {
             log.debug("No module passed in. Will use all modules found in classpath.");
-            modules = findAllModules();
+            modules = findAllModules(test.getClassLoader());
         } else if (override) {
             log.debug("Passed modules in override mode.");
-            modules = findAllModules();
+            modules = new ArrayList<Class<? extends Module>>(findAllModules(test.getClassLoader()));
             modules.removeAll(testModules);
         }
 
         log.info("Creating injector with modules: " + modules.toString());
-        Module combinedModule = InjectorFactory.setupModule(modules, MODE.TEST);
+        ScanIndex index = getScanIndex(test.getClassLoader());
+        Module combinedModule = InjectorFactory.setupModule(modules, MODE.TEST, index);
 
         if (override && testModules != null && !testModules.isEmpty()) {
-            Module overrideModule = InjectorFactory.setupModule(testModules, MODE.TEST);
+            Module overrideModule = InjectorFactory.setupModule(testModules, MODE.TEST, index);
             log.debug("Overriding modules with: " + testModules.toString());
-            combinedModule = Modules.override(combinedModule).with(overrideModule);
+            combinedModule = BootstrapEvents.override(combinedModule, overrideModule);
+        }
+        //Profiled before rescoping, so internal bindings of profiler are rescoped too
+        combinedModule = ProvisionProfiler.wrap(combinedModule);
+        if (scope != null) {
+            combinedModule = new ResettableScopingModule(combinedModule, scope, true);
         }
 
-        HashSet<Class<?>> staticInjects = new HashSet<Class<?>>();
+        Set<Class<?>> staticInjects = staticInjection
+                ? findStaticInjects(test, testModules, override) : Collections.<Class<?>>emptySet();
+        Module module = new WrapperModule(combinedModule, staticInjects.toArray(new Class[staticInjects.size()]));
+
+        log.info("Created injector with: " + modules.size() + " module(s).");
+        Injector injector = newInjector(null, module, test.getName());
+        return injector;
+    }
 
-        if (override || testModules == null || testModules.isEmpty()) {
-            Set<URL> classpathMembers = getClasspathMembers();
-            staticInjects.addAll(InjectorFactory.findAllStaticInjects(classpathMembers));
+    /**
+     * Create child injector of shared parent injector that only adds
+     * test modules bindings and does static injection.
+     *
+     * @return child injector or null if test modules override parent bindings
+     */
+    private static Injector createChildInjector(Class<?> test, Collection<Class<? extends Module>> testModules, boolean override,
+            boolean staticInjection, ResettableSingletonScope scope)
+            throws InstantiationException, IllegalAccessException {
+        Injector parent = getParentInjector(test.getClassLoader());
+
+        Module childModule = Modules.EMPTY_MODULE;
+        if (testModules != null && !testModules.isEmpty()) {
+            ScanIndex index = getScanIndex(test.getClassLoader());
+            Module testModule = InjectorFactory.setupModule(testModules, MODE.TEST, index);
+            childModule = new ChildModuleFilter(parent).filter(testModule);
+            if (childModule == null) {
+                return null;
+            }
+            childModule = ProvisionProfiler.wrap(childModule);
+            if (scope != null) {
+                //Parent could bind singleton link targets, leave them to it
+                childModule = new ResettableScopingModule(childModule, scope, false);
+            }
+        }
+
+        Set<Class<?>> staticInjects = staticInjection
+                ? findStaticInjects(test, testModules, override) : Collections.<Class<?>>emptySet();
+        log.info("Creating child injector with modules: " + testModules);
+        return newInjector(parent, new WrapperModule(childModule, staticInjects.toArray(new Class[staticInjects.size()])),
+                test.getName());
+    }
+
+    /**
+     * Get parent injector shared by all test classes from class loader in layered mode.
+     * It's created from all modules found in classpath, without any
+     * static injections.
+     */
+    private static synchronized Injector getParentInjector(ClassLoader classLoader)
+            throws InstantiationException, IllegalAccessException {
+        Injector parentInjector = parentInjectors.get(classLoader);
+        if (parentInjector == null) {
+            Collection<Class<? extends Module>> modules = findAllModules(classLoader);
+            log.info("Creating shared parent injector with modules: " + modules.toString());
+            Module module = ProvisionProfiler.wrap(InjectorFactory.setupModule(modules, MODE.TEST, getScanIndex(classLoader)));
+            if (isResettable()) {
+                ResettableSingletonScope scope = new ResettableSingletonScope();
+                module = new ResettableScopingModule(module, scope, true);
+                parentScopes.put(classLoader, scope);
+            }
+            parentInjector = newInjector(null, module, "shared parent");
+            InjectorStatistics.record("shared parent", parentInjector);
+            parentInjectors.put(classLoader, parentInjector);
+        }
+        return parentInjector;
+    }
+
+    /**
+     * Get injector without static injections for test configuration in resettable mode,
+     * creating it if this configuration is used for the first time.
+     */
+    private static synchronized Injector getResettableInjector(Class<?> test, Collection<Class<? extends Module>> modules,
+            boolean override)
+            throws InstantiationException, IllegalAccessException {
+        ResettableInjectors injectors = resettableInjectors.get(test.getClassLoader());
+        if (injectors == null) {
+            injectors = new ResettableInjectors();
+            resettableInjectors.put(test.getClassLoader(), injectors);
+        }
+
+        //Cache is per class loader already, names don't keep classes in key
+        List<String> names = new ArrayList<String>();
+        for (Class<? extends Module> module : modules) {
+            names.add(module.getName());
+        }
+        List<?> configuration = Arrays.asList(override, names);
+        Injector injector = injectors.injectors.get(configuration);
+        if (injector == null) {
+            ResettableSingletonScope scope = new ResettableSingletonScope();
+            injector = createInjector(test, modules, override, false, scope);
+            injectors.injectors.put(configuration, injector);
+            injectors.scopes.put(injector, scope);
+        } else {
+            log.debug("Reusing injector with resettable singletons for " + test.getName());
+        }
+        return injector;
+    }
+
+    private static synchronized ModuleKeyIndex getModuleKeyIndex(ClassLoader classLoader)
+            throws InstantiationException, IllegalAccessException {
+        ModuleKeyIndex index = moduleKeyIndexes.get(classLoader);
+        if (index == null) {
+            index = new ModuleKeyIndex(findAllModules(classLoader));
+            moduleKeyIndexes.put(classLoader, index);
+        }
+        return index;
+    }
+
+    /**
+     * Create injector, or child injector if parent is passed in,
+     * recording it's creation.
+     */
+    private static Injector newInjector(Injector parent, Module module, String description) {
+        Span span = BootstrapEvents.injectorCreation("GuiceUnit " + description, parent != null);
+        try {
+            return parent == null ? Guice.createInjector(module) : parent.createChildInjector(module);
+        } finally {
+            span.end();
+        }
+    }
+
+    private static Set<Class<?>> findStaticInjects(Class<?> test, Collection<Class<? extends Module>> testModules, boolean override) {
+        Set<Class<?>> staticInjects = new HashSet<Class<?>>();
+        StaticInjectScope scope = test.getAnnotation(StaticInjectScope.class);
+
+        if (scope != null) {
+            staticInjects.addAll(findScopedStaticInjects(test, scope));
+        } else if (override || testModules == null || testModules.isEmpty()) {
+            staticInjects.addAll(findAllStaticInjects(test.getClassLoader()));
         } else {
             log.info("Using JUnit and @WithModule without override. Will not inject static members to classes other than current test.");
         }
 
         staticInjects.add(test);
+        return staticInjects;
+    }
 
-        Module module = new WrapperModule(combinedModule, staticInjects.toArray(new Class[staticInjects.size()]));
+    /**
+     * Get classes declared in test {@link StaticInjectScope}.
+     * Only classes in scope are loaded.
+     */
+    private static Set<Class<?>> findScopedStaticInjects(Class<?> test, StaticInjectScope scope) {
+        Set<Class<?>> staticInjects = new HashSet<Class<?>>(Arrays.asList(scope.classes()));
 
-        log.info("Created injector with: " + modules.size() + " module(s).");
-        Injector injector = Guice.createInjector(module);
-        return injector;
+        Set<String> referenced = Collections.emptySet();
+        if (scope.referenced()) {
+            try {
+                referenced = ClassReferences.getReferencedClassNames(test);
+            } catch (IOException ex) {
+                log.error("Could not read classes referenced from test class: " + test.getName(), ex);
+            }
+        }
+
+        for (String className : findAllStaticInjectNames(test.getClassLoader())) {
+            if (referenced.contains(className) || isInPackages(className, scope.packages())) {
+                staticInjects.add(ReflectionUtils.forName(className, test.getClassLoader()));
+            }
+        }
+
+        log.debug("Static injection limited by @StaticInjectScope to: " + staticInjects);
+        return staticInjects;
+    }
+
+    private static boolean isInPackages(String className, String[] packages) {
+        for (String pkg : packages) {
+            if (className.startsWith(pkg + ".")) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Injectors shared by test classes in resettable mode, by configuration,
+     * and scopes of their singletons.
+     */
+    private static class ResettableInjectors {
+
+        private final Map<List<?>, Injector> injectors = new HashMap<List<?>, Injector>();
+        private final Map<Injector, ResettableSingletonScope> scopes = new IdentityHashMap<Injector, ResettableSingletonScope>();
     }
 
     /**
@@ -162,7 +657,7 @@ public class GUnitInjectorFactory {
             binder.install(base);
             log.debug("Injected values for static variables in " + staticInjectClasses
                     + " classes: " + Arrays.toString(staticInjectClasses));
-            binder.requestStaticInjection(staticInjectClasses);
+            binder.install(BootstrapEvents.staticInjection(staticInjectClasses));
         }
     }
 }
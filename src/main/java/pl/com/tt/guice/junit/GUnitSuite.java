@@ -0,0 +1,96 @@
+/*
+ * Copyright (c) 2012 Transition Technologies S.A.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package pl.com.tt.guice.junit;
+
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.runner.RunWith;
+import org.junit.runner.notification.RunNotifier;
+import org.junit.runners.Suite;
+import org.junit.runners.model.InitializationError;
+import org.junit.runners.model.RunnerBuilder;
+
+/**
+ * JUnit 4 suite runner that creates injectors for upcoming test classes
+ * in background while current test class is running.
+ * <p/>
+ * Use it like standard {@link Suite}:
+ * <pre>
+ * &#64;RunWith(GUnitSuite.class)
+ * &#64;SuiteClasses({FirstTest.class, SecondTest.class})
+ * public class AllTests {
+ * }
+ * </pre>
+ * Only test classes executed with {@link GUnitTestRunner} are prepared in background.
+ * Injectors are created the same way as without suite, only static injections
+ * are done when test class starts.
+ *
+ * @see InjectorPrewarmer
+ * @author Marek Piechut <m.piechut@tt.com.pl>
+ */
+public class GUnitSuite extends Suite {
+
+    private final List<Class<?>> prewarmed;
+
+    public GUnitSuite(Class<?> klass, RunnerBuilder builder)
+            throws InitializationError {
+        super(builder, klass, schedule(getSuiteClasses(klass)));
+        prewarmed = getPrewarmed(getSuiteClasses(klass));
+    }
+
+    /**
+     * Run suite and drop injectors prepared for test classes that did not take them
+     * (filtered out or failed), so they don't stay in memory.
+     */
+    @Override
+    public void run(RunNotifier notifier) {
+        try {
+            super.run(notifier);
+        } finally {
+            InjectorPrewarmer.cancel(prewarmed);
+        }
+    }
+
+    private static Class<?>[] getSuiteClasses(Class<?> klass)
+            throws InitializationError {
+        SuiteClasses annotation = klass.getAnnotation(SuiteClasses.class);
+        if (annotation == null) {
+            throw new InitializationError(String.format("class '%s' must have a SuiteClasses annotation", klass.getName()));
+        }
+        return annotation.value();
+    }
+
+    /**
+     * Schedule background injector creation for classes executed with {@link GUnitTestRunner}.
+     * It has to be done before runners are created.
+     */
+    private static Class<?>[] schedule(Class<?>[] classes) {
+        InjectorPrewarmer.schedule(getPrewarmed(classes));
+        return classes;
+    }
+
+    private static List<Class<?>> getPrewarmed(Class<?>[] classes) {
+        List<Class<?>> tests = new ArrayList<Class<?>>();
+        for (Class<?> cls : classes) {
+            RunWith runWith = cls.getAnnotation(RunWith.class);
+            if (runWith != null && GUnitTestRunner.class.isAssignableFrom(runWith.value())) {
+                tests.add(cls);
+            }
+        }
+        return tests;
+    }
+}
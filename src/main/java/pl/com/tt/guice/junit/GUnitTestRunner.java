@@ -17,9 +17,15 @@
 package pl.com.tt.guice.junit;
 
 import com.google.inject.Injector;
-import com.google.inject.Module;
+import com.google.inject.Provider;
+import org.junit.runner.notification.RunNotifier;
+import pl.com.tt.guice.jfr.BootstrapEvents;
+import pl.com.tt.guice.jfr.Span;
+import pl.com.tt.guice.profiling.InjectorStatistics;
+import pl.com.tt.guice.profiling.ProvisionProfiler;
 import org.junit.runners.BlockJUnit4ClassRunner;
 import org.junit.runners.model.InitializationError;
+import org.junit.runners.model.Statement;
 
 import java.util.logging.Level;
 import java.util.logging.Logger;
@@ -41,31 +47,127 @@ import java.util.logging.Logger;
  */
 public class GUnitTestRunner extends BlockJUnit4ClassRunner {
 
-    private final Injector injector;
+    private Injector injector;
+    /**
+     * Injector without static injections, shared one when singletons are resettable
+     * or prepared in background by suite.
+     */
+    private Injector prepared;
+    /**
+     * Provider of test instances. Resolved once, so creating instance for each test
+     * method does not look up binding and injection points of test class again.
+     */
+    private Provider<?> testProvider;
+    private final StaticInjectFields staticFields;
+    /**
+     * Values of static fields before injector for this class was created.
+     * Restored after all tests from this class are executed.
+     */
+    private StaticInjectFields.Snapshot staticsBefore;
+    /**
+     * Values of static fields written by injector for this class.
+     * Applied again before tests from this class are executed, as other
+     * test classes could change them in the meantime.
+     */
+    private StaticInjectFields.Snapshot staticsInjected;
 
-    @SuppressWarnings("unchecked")
     public GUnitTestRunner(Class<?> testClass)
             throws InitializationError {
         super(testClass);
+        String previousContext = ProvisionProfiler.setContext(testClass.getName());
         try {
-            WithModule withModule = testClass.getAnnotation(WithModule.class);
-            if (withModule != null) {
-                Class<? extends Module> module = withModule.value();
-                boolean override = withModule.override();
-                injector = GUnitInjectorFactory.getInjector(testClass, override, module);
-            } else {
-                injector = GUnitInjectorFactory.getInjector(testClass, false);
+            staticFields = StaticInjectFields.of(GUnitInjectorFactory.getStaticInjects(testClass,
+                    GUnitInjectorFactory.isOverride(testClass), GUnitInjectorFactory.getTestModules(testClass)));
+            //Injector is being prepared in background, we'll get it when tests start
+            if (GUnitInjectorFactory.isResettable() && !InjectorPrewarmer.isScheduled(testClass)) {
+                //Injector is shared, singletons are reset and statics injected when tests start
+                InjectorStartup.Timer timer = InjectorStartup.start();
+                prepared = GUnitInjectorFactory.prepareInjector(testClass, GUnitInjectorFactory.isOverride(testClass),
+                        GUnitInjectorFactory.getTestModules(testClass));
+                timer.record(testClass);
+                //Fail here instead of in first test if test class can't be injected
+                prepared.getProvider(testClass);
+            } else if (!InjectorPrewarmer.isScheduled(testClass)) {
+                staticsBefore = staticFields.snapshot();
+                InjectorStartup.Timer timer = InjectorStartup.start();
+                injector = GUnitInjectorFactory.getInjector(testClass, GUnitInjectorFactory.isOverride(testClass),
+                        GUnitInjectorFactory.getTestModules(testClass));
+                timer.record(testClass);
+                staticsInjected = staticFields.snapshot();
+                //Fail here instead of in first test if test class can't be injected
+                testProvider = injector.getProvider(testClass);
+                //Runners of many classes can be created before any of them is executed
+                //(e.g. by JUnit Platform), don't leak static injections to them
+                staticsBefore.restore();
             }
         } catch (Exception ex) {
             throw new InitializationError(ex);
+        } finally {
+            ProvisionProfiler.setContext(previousContext);
         }
     }
 
+    @Override
+    protected Statement classBlock(RunNotifier notifier) {
+        final Statement statement = super.classBlock(notifier);
+        return new Statement() {
+
+            @Override
+            public void evaluate()
+                    throws Throwable {
+                String previousContext = ProvisionProfiler.setContext(getTestClass().getName());
+                try {
+                    if (injector == null) {
+                        if (prepared == null) {
+                            prepared = InjectorPrewarmer.take(getTestClass().getJavaClass());
+                        }
+                        injectStatics(prepared);
+                    } else {
+                        staticsInjected.restore();
+                    }
+                    try {
+                        statement.evaluate();
+                    } finally {
+                        staticsBefore.restore();
+                        //After tests, to count just in time bindings they created. Child of prepared
+                        //injector only does static injections, bindings are in prepared one
+                        InjectorStatistics.record(getTestClass().getName(), prepared == null ? injector : prepared);
+                    }
+                } finally {
+                    ProvisionProfiler.setContext(previousContext);
+                }
+            }
+        };
+    }
+
+    /**
+     * Finish injector prepared in background or shared one.
+     */
+    private void injectStatics(Injector prepared)
+            throws Exception {
+        Class<?> testClass = getTestClass().getJavaClass();
+        if (GUnitInjectorFactory.isResettable()) {
+            //Singletons could be created by previous test class using the same injector
+            GUnitInjectorFactory.resetSingletons(testClass, prepared);
+        }
+        staticsBefore = staticFields.snapshot();
+        InjectorStartup.Timer timer = InjectorStartup.start();
+        injector = GUnitInjectorFactory.injectStatics(prepared, testClass, GUnitInjectorFactory.isOverride(testClass),
+                GUnitInjectorFactory.getTestModules(testClass));
+        //Adds to time of preparing injector in background
+        timer.add(testClass);
+        staticsInjected = staticFields.snapshot();
+        testProvider = injector.getProvider(testClass);
+    }
+
     @Override
     protected Object createTest()
             throws Exception {
-        Class<?> javaClass = getTestClass().getJavaClass();
-        Object instance = injector.getInstance(javaClass);
-        return instance;
+        Span span = BootstrapEvents.createTest(getTestClass().getJavaClass());
+        try {
+            return testProvider.get();
+        } finally {
+            span.end();
+        }
     }
 }
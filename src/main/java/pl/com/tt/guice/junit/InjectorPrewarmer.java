@@ -0,0 +1,196 @@
+/*
+ * Copyright (c) 2012 Transition Technologies S.A.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package pl.com.tt.guice.junit;
+
+import com.google.inject.Injector;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import lombok.extern.slf4j.Slf4j;
+import pl.com.tt.guice.profiling.ProvisionProfiler;
+
+/**
+ * Creates injectors for upcoming test classes in background thread,
+ * while other tests are running.
+ * <p/>
+ * Injectors are created with {@link GUnitInjectorFactory#prepareInjector(Class, boolean, Class[])}
+ * so no static fields are touched in background. Only limited number
+ * of injectors is kept ready ahead of currently running test class
+ * (configured with {@link #AHEAD_PROPERTY} system property).
+ *
+ * @see GUnitSuite
+ * @author Marek Piechut <m.piechut@tt.com.pl>
+ */
+@Slf4j
+class InjectorPrewarmer {
+
+    /**
+     * System property with number of injectors to prepare ahead of
+     * currently running test class. Defaults to 2.
+     */
+    public static final String AHEAD_PROPERTY = "guiceunit.prewarm.ahead";
+    private static final ExecutorService executor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+
+        public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable, "GuiceUnit injector prewarm");
+            thread.setDaemon(true);
+            return thread;
+        }
+    });
+    /**
+     * Injectors being created or ready, not yet taken by test runners.
+     * Same test class can be scheduled more than once.
+     */
+    private static final Map<Class<?>, LinkedList<Future<Injector>>> scheduled =
+            new HashMap<Class<?>, LinkedList<Future<Injector>>>();
+    private static int scheduledCount;
+    /**
+     * Test classes waiting for free slot.
+     */
+    private static final LinkedList<Class<?>> waiting = new LinkedList<Class<?>>();
+
+    private InjectorPrewarmer() {
+    }
+
+    /**
+     * Schedule injector creation for test classes in order they will be executed.
+     *
+     * @param tests test classes
+     */
+    static synchronized void schedule(Collection<Class<?>> tests) {
+        waiting.addAll(tests);
+        submitWaiting();
+    }
+
+    /**
+     * Remove injectors scheduled for test classes and not taken, e.g. because test
+     * classes were filtered out or their runners failed. Their slots are freed for other
+     * test classes. Test class scheduled again later is prepared when taken.
+     *
+     * @param tests test classes
+     */
+    static synchronized void cancel(Collection<Class<?>> tests) {
+        for (Class<?> test : tests) {
+            while (waiting.remove(test)) {
+                //Remove all occurrences
+            }
+            LinkedList<Future<Injector>> futures = scheduled.remove(test);
+            if (futures != null) {
+                log.debug("Cancelling " + futures.size() + " injectors prepared for: " + test.getName());
+                for (Future<Injector> future : futures) {
+                    future.cancel(false);
+                    scheduledCount--;
+                }
+            }
+        }
+        submitWaiting();
+    }
+
+    /**
+     * Check if injector for test class will be created by prewarmer.
+     *
+     * @param test test class
+     * @return true if test class was scheduled and not taken yet
+     */
+    static synchronized boolean isScheduled(Class<?> test) {
+        return scheduled.containsKey(test) || waiting.contains(test);
+    }
+
+    /**
+     * Get injector prepared for test class. Waits for it if it's still being created.
+     * If it's not scheduled (any more), it's created in current thread.
+     *
+     * @param test test class
+     * @return injector without static injections
+     * @throws Exception if injector creation failed
+     */
+    static Injector take(Class<?> test)
+            throws Exception {
+        Future<Injector> future;
+        synchronized (InjectorPrewarmer.class) {
+            LinkedList<Future<Injector>> futures = scheduled.get(test);
+            future = futures != null ? futures.poll() : null;
+            if (future != null) {
+                scheduledCount--;
+                if (futures.isEmpty()) {
+                    scheduled.remove(test);
+                }
+            } else if (waiting.remove(test)) {
+                future = executor.submit(new PrepareInjector(test));
+            }
+            submitWaiting();
+        }
+
+        if (future == null) {
+            return new PrepareInjector(test).call();
+        }
+        try {
+            return future.get();
+        } catch (ExecutionException ex) {
+            Throwable cause = ex.getCause();
+            if (cause instanceof Exception) {
+                throw (Exception) cause;
+            }
+            throw ex;
+        }
+    }
+
+    private static void submitWaiting() {
+        int ahead = Integer.getInteger(AHEAD_PROPERTY, 2);
+        while (scheduledCount < ahead && !waiting.isEmpty()) {
+            Class<?> test = waiting.removeFirst();
+            log.debug("Preparing injector in background for: " + test.getName());
+            LinkedList<Future<Injector>> futures = scheduled.get(test);
+            if (futures == null) {
+                futures = new LinkedList<Future<Injector>>();
+                scheduled.put(test, futures);
+            }
+            futures.add(executor.submit(new PrepareInjector(test)));
+            scheduledCount++;
+        }
+    }
+
+    private static class PrepareInjector implements Callable<Injector> {
+
+        private final Class<?> test;
+
+        PrepareInjector(Class<?> test) {
+            this.test = test;
+        }
+
+        public Injector call()
+                throws Exception {
+            String previousContext = ProvisionProfiler.setContext(test.getName());
+            try {
+                InjectorStartup.Timer timer = InjectorStartup.start();
+                Injector injector = GUnitInjectorFactory.prepareInjector(test, GUnitInjectorFactory.isOverride(test),
+                        GUnitInjectorFactory.getTestModules(test));
+                timer.record(test);
+                return injector;
+            } finally {
+                ProvisionProfiler.setContext(previousContext);
+            }
+        }
+    }
+}
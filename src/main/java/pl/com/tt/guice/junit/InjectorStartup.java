@@ -0,0 +1,163 @@
+/*
+ * Copyright (c) 2012 Transition Technologies S.A.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package pl.com.tt.guice.junit;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.WeakHashMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import pl.com.tt.guice.profiling.ProvisionProfiler;
+
+/**
+ * Time and allocations of injector creation for test classes
+ * executed by {@link GUnitTestRunner}.
+ * <p/>
+ * Measured is everything done to get injector for test class: classpath scan
+ * (only for first test class in JVM, results are cached), modules instantiation,
+ * injector creation with eager singletons and static injection. For injectors
+ * prepared in background by {@link GUnitSuite} it's measured in background thread.
+ *
+ * @see StartupBudget
+ * @author Marek Piechut <m.piechut@tt.com.pl>
+ */
+public class InjectorStartup {
+
+    /**
+     * Measurements by class loader of test classes, so test classes re-run in the same
+     * JVM with new class loader don't add to measurements of previous run.
+     */
+    private static final Map<ClassLoader, ConcurrentMap<String, Measurement>> measurements =
+            new WeakHashMap<ClassLoader, ConcurrentMap<String, Measurement>>();
+
+    private InjectorStartup() {
+    }
+
+    /**
+     * Get measurement of injector creation for test class.
+     *
+     * @param test test class
+     * @return measurement or null if injector for this class was not created
+     */
+    public static Measurement get(Class<?> test) {
+        return getMeasurements(test).get(test.getName());
+    }
+
+    /**
+     * Get all measurements done so far, for test classes from all class loaders
+     * that were not collected yet.
+     *
+     * @return measurements by test class name, sorted by name
+     */
+    public static Map<String, Measurement> getAll() {
+        Map<String, Measurement> all = new TreeMap<String, Measurement>();
+        synchronized (measurements) {
+            for (Map<String, Measurement> classLoaderMeasurements : measurements.values()) {
+                all.putAll(classLoaderMeasurements);
+            }
+        }
+        return Collections.unmodifiableMap(all);
+    }
+
+    private static ConcurrentMap<String, Measurement> getMeasurements(Class<?> test) {
+        synchronized (measurements) {
+            ConcurrentMap<String, Measurement> classLoaderMeasurements = measurements.get(test.getClassLoader());
+            if (classLoaderMeasurements == null) {
+                classLoaderMeasurements = new ConcurrentHashMap<String, Measurement>();
+                measurements.put(test.getClassLoader(), classLoaderMeasurements);
+            }
+            return classLoaderMeasurements;
+        }
+    }
+
+    static Timer start() {
+        return new Timer();
+    }
+
+    /**
+     * Time and allocated bytes of injector creation.
+     */
+    public static class Measurement {
+
+        private final long nanos;
+        private final long allocatedBytes;
+
+        public Measurement(long nanos, long allocatedBytes) {
+            this.nanos = nanos;
+            this.allocatedBytes = allocatedBytes;
+        }
+
+        public long getNanos() {
+            return nanos;
+        }
+
+        public long getMillis() {
+            return nanos / 1000000;
+        }
+
+        /**
+         * Bytes allocated by thread creating injector.
+         * @return allocated bytes or -1 if not measured
+         */
+        public long getAllocatedBytes() {
+            return allocatedBytes;
+        }
+
+        Measurement add(Measurement other) {
+            long allocated = allocatedBytes < 0 || other.allocatedBytes < 0 ? -1 : allocatedBytes + other.allocatedBytes;
+            return new Measurement(nanos + other.nanos, allocated);
+        }
+
+        @Override
+        public String toString() {
+            return getMillis() + " ms, " + (allocatedBytes < 0 ? "?" : String.valueOf(allocatedBytes)) + " bytes";
+        }
+    }
+
+    /**
+     * Measures injector creation done by current thread.
+     */
+    static class Timer {
+
+        private final long start = System.nanoTime();
+        private final long allocatedStart = ProvisionProfiler.allocatedBytes();
+
+        Measurement stop() {
+            long time = System.nanoTime() - start;
+            long allocated = allocatedStart < 0 ? -1 : ProvisionProfiler.allocatedBytes() - allocatedStart;
+            return new Measurement(time, allocated);
+        }
+
+        /**
+         * Record measurement for test class, replacing previous one.
+         */
+        void record(Class<?> test) {
+            getMeasurements(test).put(test.getName(), stop());
+        }
+
+        /**
+         * Add measurement to already recorded one for test class.
+         */
+        void add(Class<?> test) {
+            Measurement measurement = stop();
+            ConcurrentMap<String, Measurement> classLoaderMeasurements = getMeasurements(test);
+            Measurement previous = classLoaderMeasurements.get(test.getName());
+            classLoaderMeasurements.put(test.getName(), previous == null ? measurement : previous.add(measurement));
+        }
+    }
+}
@@ -0,0 +1,346 @@
+/*
+ * Copyright (c) 2012 Transition Technologies S.A.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package pl.com.tt.guice.junit;
+
+import com.google.inject.Binding;
+import com.google.inject.ConfigurationException;
+import com.google.inject.ImplementedBy;
+import com.google.inject.Key;
+import com.google.inject.Module;
+import com.google.inject.ProvidedBy;
+import com.google.inject.Provider;
+import com.google.inject.TypeLiteral;
+import com.google.inject.spi.DefaultBindingTargetVisitor;
+import com.google.inject.spi.DefaultElementVisitor;
+import com.google.inject.spi.Dependency;
+import com.google.inject.spi.Element;
+import com.google.inject.spi.Elements;
+import com.google.inject.spi.HasDependencies;
+import com.google.inject.spi.InjectionPoint;
+import com.google.inject.spi.InjectionRequest;
+import com.google.inject.spi.LinkedKeyBinding;
+import com.google.inject.spi.MembersInjectorLookup;
+import com.google.inject.spi.PrivateElements;
+import com.google.inject.spi.ProviderKeyBinding;
+import com.google.inject.spi.ProviderLookup;
+import com.google.inject.spi.StaticInjectionRequest;
+import com.google.inject.spi.UntargettedBinding;
+import java.lang.reflect.Modifier;
+import java.lang.reflect.ParameterizedType;
+import java.lang.reflect.Type;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import pl.com.tt.guice.DevelopmentModule;
+
+/**
+ * Keys provided and required by modules, used to select only modules
+ * needed by test in minimal mode.
+ * <p/>
+ * Modules are recorded once and for each of them keys it binds (or exposes from private
+ * modules) and keys that it's bindings, injection requests and lookups depend on are
+ * remembered. Modules needed for set of keys are found by transitive closure: module
+ * binding required key is selected and it's required keys are required too. Keys that
+ * no module binds are followed like Guice would create just in time binding
+ * for them (constructor and members of class, {@link ImplementedBy}, {@link ProvidedBy}).
+ * <p/>
+ * Modules that bind scopes, type listeners, interceptors or type converters affect
+ * bindings from other modules, so they are always selected.
+ *
+ * @author Marek Piechut <m.piechut@tt.com.pl>
+ */
+class ModuleKeyIndex {
+
+    private final Map<Key<?>, List<Class<? extends Module>>> providers = new HashMap<Key<?>, List<Class<? extends Module>>>();
+    private final Map<Class<? extends Module>, Set<Key<?>>> required = new HashMap<Class<? extends Module>, Set<Key<?>>>();
+    private final Set<Class<? extends Module>> global = new LinkedHashSet<Class<? extends Module>>();
+    private final int size;
+
+    /**
+     * Record modules and index their keys. Development modules are never
+     * used by tests, so they are skipped.
+     *
+     * @param modules modules to index
+     */
+    ModuleKeyIndex(Collection<Class<? extends Module>> modules)
+            throws InstantiationException, IllegalAccessException {
+        int indexed = 0;
+        for (Class<? extends Module> moduleClass : modules) {
+            int modifiers = moduleClass.getModifiers();
+            if (Modifier.isAbstract(modifiers) || Modifier.isInterface(modifiers) || !Modifier.isPublic(modifiers)
+                    || moduleClass.isAnnotationPresent(DevelopmentModule.class)) {
+                continue;
+            }
+
+            KeyCollector collector = new KeyCollector();
+            for (Element element : Elements.getElements(moduleClass.newInstance())) {
+                element.acceptVisitor(collector);
+            }
+            for (Key<?> key : collector.provided) {
+                List<Class<? extends Module>> keyProviders = providers.get(key);
+                if (keyProviders == null) {
+                    keyProviders = new ArrayList<Class<? extends Module>>(1);
+                    providers.put(key, keyProviders);
+                }
+                keyProviders.add(moduleClass);
+            }
+            required.put(moduleClass, collector.required);
+            if (collector.global) {
+                global.add(moduleClass);
+            }
+            indexed++;
+        }
+        size = indexed;
+    }
+
+    /**
+     * Number of indexed modules.
+     */
+    int size() {
+        return size;
+    }
+
+    /**
+     * Get modules needed to provide keys.
+     *
+     * @param keys required keys
+     * @return modules binding required keys and their dependencies
+     */
+    Set<Class<? extends Module>> select(Set<Key<?>> keys) {
+        Set<Class<? extends Module>> selected = new LinkedHashSet<Class<? extends Module>>();
+        LinkedList<Key<?>> queue = new LinkedList<Key<?>>(keys);
+        for (Class<? extends Module> moduleClass : global) {
+            selected.add(moduleClass);
+            queue.addAll(required.get(moduleClass));
+        }
+
+        Set<Key<?>> visited = new HashSet<Key<?>>();
+        while (!queue.isEmpty()) {
+            Key<?> key = providedKey(queue.removeFirst());
+            if (!visited.add(key)) {
+                continue;
+            }
+            List<Class<? extends Module>> keyProviders = providers.get(key);
+            if (keyProviders == null) {
+                queue.addAll(justInTimeDependencies(key));
+                continue;
+            }
+            for (Class<? extends Module> moduleClass : keyProviders) {
+                if (selected.add(moduleClass)) {
+                    queue.addAll(required.get(moduleClass));
+                }
+            }
+        }
+        return selected;
+    }
+
+    /**
+     * Get keys that injection of classes depends on: their constructors,
+     * instance members and static members.
+     *
+     * @param instanceClass class that is created by injector
+     * @param staticInjects classes with static members injected
+     * @return required keys
+     */
+    static Set<Key<?>> requiredKeys(Class<?> instanceClass, Collection<Class<?>> staticInjects) {
+        Set<Key<?>> keys = new HashSet<Key<?>>();
+        keys.add(Key.get(instanceClass));
+        for (Class<?> staticInject : staticInjects) {
+            try {
+                addDependencies(keys, InjectionPoint.forStaticMethodsAndFields(staticInject));
+            } catch (ConfigurationException ex) {
+                //Guice will report it when injector is created
+            }
+        }
+        return keys;
+    }
+
+    /**
+     * Keys that Guice needs to create just in time binding for key.
+     */
+    private static Set<Key<?>> justInTimeDependencies(Key<?> key) {
+        Set<Key<?>> keys = new HashSet<Key<?>>();
+        if (key.getAnnotationType() != null) {
+            return keys;
+        }
+        TypeLiteral<?> type = key.getTypeLiteral();
+        Class<?> rawType = type.getRawType();
+        try {
+            ImplementedBy implementedBy = rawType.getAnnotation(ImplementedBy.class);
+            ProvidedBy providedBy = rawType.getAnnotation(ProvidedBy.class);
+            if (implementedBy != null) {
+                keys.add(Key.get(implementedBy.value()));
+            } else if (providedBy != null) {
+                keys.add(Key.get(providedBy.value()));
+            } else if (!rawType.isInterface() && !Modifier.isAbstract(rawType.getModifiers())) {
+                addDependencies(keys, InjectionPoint.forConstructorOf(type).getDependencies());
+                addDependencies(keys, InjectionPoint.forInstanceMethodsAndFields(type));
+            }
+        } catch (ConfigurationException ex) {
+            //Not injectable, Guice will report it if it's really needed
+        }
+        return keys;
+    }
+
+    /**
+     * Key bound for provider key (<code>Provider&lt;T&gt;</code> is provided by binding of <code>T</code>).
+     */
+    private static Key<?> providedKey(Key<?> key) {
+        Type type = key.getTypeLiteral().getType();
+        Class<?> rawType = key.getTypeLiteral().getRawType();
+        if ((rawType != Provider.class && rawType != javax.inject.Provider.class) || !(type instanceof ParameterizedType)) {
+            return key;
+        }
+        Type provided = ((ParameterizedType) type).getActualTypeArguments()[0];
+        if (key.getAnnotation() != null) {
+            return Key.get(provided, key.getAnnotation());
+        } else if (key.getAnnotationType() != null) {
+            return Key.get(provided, key.getAnnotationType());
+        }
+        return Key.get(provided);
+    }
+
+    private static void addDependencies(Set<Key<?>> keys, Set<InjectionPoint> injectionPoints) {
+        for (InjectionPoint injectionPoint : injectionPoints) {
+            addDependencies(keys, injectionPoint.getDependencies());
+        }
+    }
+
+    private static void addDependencies(Set<Key<?>> keys, Collection<Dependency<?>> dependencies) {
+        for (Dependency<?> dependency : dependencies) {
+            keys.add(dependency.getKey());
+        }
+    }
+
+    /**
+     * Collects keys provided and required by elements of module.
+     */
+    private static class KeyCollector extends DefaultElementVisitor<Void> {
+
+        private final Set<Key<?>> provided = new HashSet<Key<?>>();
+        private final Set<Key<?>> required = new HashSet<Key<?>>();
+        private boolean global;
+
+        /**
+         * Scope, interceptor, type listener and converter bindings, messages
+         * and elements unknown to this Guice version.
+         */
+        @Override
+        protected Void visitOther(Element element) {
+            global = true;
+            return null;
+        }
+
+        @Override
+        public <T> Void visit(Binding<T> binding) {
+            provided.add(binding.getKey());
+            binding.acceptTargetVisitor(new TargetCollector<T>());
+            return null;
+        }
+
+        @Override
+        public Void visit(InjectionRequest<?> request) {
+            addInjectionPoints(request.getInstance().getClass());
+            return null;
+        }
+
+        @Override
+        public Void visit(StaticInjectionRequest request) {
+            try {
+                addDependencies(required, request.getInjectionPoints());
+            } catch (ConfigurationException ex) {
+                //Guice will report it
+            }
+            return null;
+        }
+
+        @Override
+        public <T> Void visit(ProviderLookup<T> lookup) {
+            required.add(lookup.getKey());
+            return null;
+        }
+
+        @Override
+        public <T> Void visit(MembersInjectorLookup<T> lookup) {
+            addInjectionPoints(lookup.getType().getRawType());
+            return null;
+        }
+
+        @Override
+        public Void visit(PrivateElements privateElements) {
+            KeyCollector inner = new KeyCollector();
+            for (Element element : privateElements.getElements()) {
+                element.acceptVisitor(inner);
+            }
+            inner.required.removeAll(inner.provided);
+            provided.addAll(privateElements.getExposedKeys());
+            required.addAll(inner.required);
+            global |= inner.global;
+            return null;
+        }
+
+        private void addInjectionPoints(Class<?> type) {
+            try {
+                addDependencies(required, InjectionPoint.forInstanceMethodsAndFields(type));
+            } catch (ConfigurationException ex) {
+                //Guice will report it
+            }
+        }
+
+        /**
+         * Collects keys that binding target depends on.
+         */
+        private class TargetCollector<T> extends DefaultBindingTargetVisitor<T, Void> {
+
+            @Override
+            protected Void visitOther(Binding<? extends T> binding) {
+                if (binding instanceof HasDependencies) {
+                    try {
+                        addDependencies(required, ((HasDependencies) binding).getDependencies());
+                    } catch (ConfigurationException ex) {
+                        //Guice will report it
+                    }
+                }
+                return null;
+            }
+
+            @Override
+            public Void visit(LinkedKeyBinding<? extends T> binding) {
+                required.add(binding.getLinkedKey());
+                return null;
+            }
+
+            @Override
+            public Void visit(ProviderKeyBinding<? extends T> binding) {
+                required.add(binding.getProviderKey());
+                return null;
+            }
+
+            @Override
+            public Void visit(UntargettedBinding<? extends T> binding) {
+                required.addAll(justInTimeDependencies(Key.get(binding.getKey().getTypeLiteral())));
+                return null;
+            }
+        }
+    }
+}
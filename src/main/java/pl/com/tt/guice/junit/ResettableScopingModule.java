@@ -0,0 +1,202 @@
+/*
+ * Copyright (c) 2012 Transition Technologies S.A.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package pl.com.tt.guice.junit;
+
+import com.google.inject.Binder;
+import com.google.inject.Binding;
+import com.google.inject.Key;
+import com.google.inject.Module;
+import com.google.inject.Scope;
+import com.google.inject.Scopes;
+import com.google.inject.Singleton;
+import com.google.inject.TypeLiteral;
+import com.google.inject.binder.ScopedBindingBuilder;
+import com.google.inject.spi.ConstructorBinding;
+import com.google.inject.spi.DefaultBindingScopingVisitor;
+import com.google.inject.spi.DefaultBindingTargetVisitor;
+import com.google.inject.spi.DefaultElementVisitor;
+import com.google.inject.spi.Element;
+import com.google.inject.spi.Elements;
+import com.google.inject.spi.LinkedKeyBinding;
+import com.google.inject.spi.ProviderInstanceBinding;
+import com.google.inject.spi.ProviderKeyBinding;
+import com.google.inject.spi.UntargettedBinding;
+import java.lang.annotation.Annotation;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Modifier;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Module that installs elements of wrapped module with singletons
+ * moved to {@link ResettableSingletonScope}.
+ * <p/>
+ * Bindings in singleton scope (by {@link Singleton} annotation on binding or class,
+ * or {@link Scopes#SINGLETON}) are bound again in resettable scope. Classes annotated
+ * with {@link Singleton} that are only targets of linked bindings get explicit bindings
+ * in resettable scope too, if requested. Eager singletons, instance bindings, bindings
+ * from private modules and just in time bindings of other classes stay singletons.
+ *
+ * @author Marek Piechut <m.piechut@tt.com.pl>
+ */
+class ResettableScopingModule implements Module {
+
+    private final Module base;
+    private final ResettableSingletonScope scope;
+    private final boolean bindLinkTargets;
+
+    /**
+     * @param base module to wrap
+     * @param scope scope for singletons
+     * @param bindLinkTargets if singleton targets of linked bindings should be bound,
+     * must be false for child injectors, as parent could bind them
+     */
+    ResettableScopingModule(Module base, ResettableSingletonScope scope, boolean bindLinkTargets) {
+        this.base = base;
+        this.scope = scope;
+        this.bindLinkTargets = bindLinkTargets;
+    }
+
+    public void configure(final Binder binder) {
+        final Set<Key<?>> bound = new HashSet<Key<?>>();
+        final List<Key<?>> linkTargets = new ArrayList<Key<?>>();
+        for (Element element : Elements.getElements(base)) {
+            element.acceptVisitor(new DefaultElementVisitor<Void>() {
+
+                @Override
+                protected Void visitOther(Element element) {
+                    element.applyTo(binder);
+                    return null;
+                }
+
+                @Override
+                public <T> Void visit(Binding<T> binding) {
+                    bound.add(binding.getKey());
+                    if (binding instanceof LinkedKeyBinding) {
+                        linkTargets.add(((LinkedKeyBinding<?>) binding).getLinkedKey());
+                    }
+                    rescope(binder.withSource(binding.getSource()), binding);
+                    return null;
+                }
+            });
+        }
+
+        if (bindLinkTargets) {
+            for (Key<?> target : linkTargets) {
+                Class<?> type = target.getTypeLiteral().getRawType();
+                if (!bound.contains(target) && target.getAnnotationType() == null && isSingletonClass(type)
+                        && !type.isInterface() && !Modifier.isAbstract(type.getModifiers()) && bound.add(target)) {
+                    binder.bind(target).in(scope);
+                }
+            }
+        }
+    }
+
+    private <T> void rescope(Binder binder, Binding<T> binding) {
+        boolean singleton = binding.acceptScopingVisitor(new DefaultBindingScopingVisitor<Boolean>() {
+
+            @Override
+            protected Boolean visitOther() {
+                return false;
+            }
+
+            @Override
+            public Boolean visitScope(Scope scope) {
+                return scope == Scopes.SINGLETON;
+            }
+
+            @Override
+            public Boolean visitScopeAnnotation(Class<? extends Annotation> scopeAnnotation) {
+                return isSingleton(scopeAnnotation);
+            }
+
+            @Override
+            public Boolean visitNoScoping() {
+                //Scope from class annotation is applied only to bindings without scope
+                return (binding instanceof UntargettedBinding || binding instanceof ConstructorBinding)
+                        && isSingletonClass(binding.getKey().getTypeLiteral().getRawType());
+            }
+        });
+
+        ScopedBindingBuilder builder = singleton ? binding.acceptTargetVisitor(new Rebind<T>(binder)) : null;
+        if (builder == null) {
+            binding.applyTo(binder);
+        } else {
+            builder.in(scope);
+        }
+    }
+
+    private static boolean isSingleton(Class<? extends Annotation> scopeAnnotation) {
+        return scopeAnnotation == Singleton.class || scopeAnnotation == javax.inject.Singleton.class;
+    }
+
+    private static boolean isSingletonClass(Class<?> type) {
+        return type.isAnnotationPresent(Singleton.class) || type.isAnnotationPresent(javax.inject.Singleton.class);
+    }
+
+    /**
+     * Binds key to target of original binding.
+     * Returns null if binding can't be bound again.
+     */
+    private static class Rebind<T> extends DefaultBindingTargetVisitor<T, ScopedBindingBuilder> {
+
+        private final Binder binder;
+
+        Rebind(Binder binder) {
+            this.binder = binder;
+        }
+
+        @Override
+        protected ScopedBindingBuilder visitOther(Binding<? extends T> binding) {
+            return null;
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        public ScopedBindingBuilder visit(LinkedKeyBinding<? extends T> binding) {
+            return binder.bind((Key<T>) binding.getKey()).to(binding.getLinkedKey());
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        public ScopedBindingBuilder visit(ProviderInstanceBinding<? extends T> binding) {
+            return binder.bind((Key<T>) binding.getKey()).toProvider(binding.getProviderInstance());
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        public ScopedBindingBuilder visit(ProviderKeyBinding<? extends T> binding) {
+            return binder.bind((Key<T>) binding.getKey()).toProvider(binding.getProviderKey());
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        public ScopedBindingBuilder visit(UntargettedBinding<? extends T> binding) {
+            return binder.bind((Key<T>) binding.getKey());
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        public ScopedBindingBuilder visit(ConstructorBinding<? extends T> binding) {
+            return binder.bind((Key<T>) binding.getKey()).toConstructor(
+                    (Constructor<T>) binding.getConstructor().getMember(),
+                    (TypeLiteral<T>) binding.getConstructor().getDeclaringType());
+        }
+    }
+}
@@ -0,0 +1,97 @@
+/*
+ * Copyright (c) 2012 Transition Technologies S.A.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package pl.com.tt.guice.junit;
+
+import com.google.inject.Key;
+import com.google.inject.Provider;
+import com.google.inject.Scope;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Singleton scope that can forget it's instances.
+ * <p/>
+ * Works like {@link com.google.inject.Scopes#SINGLETON}, but remembers which
+ * scoped providers created instances since last {@link #reset()}. Reset drops
+ * those instances, so next provision creates new ones, while injector with all
+ * it's bindings stays as it is.
+ *
+ * @author Marek Piechut <m.piechut@tt.com.pl>
+ */
+class ResettableSingletonScope implements Scope {
+
+    /**
+     * Marks provided null, so it's not created again.
+     */
+    private static final Object NULL = new Object();
+    private final List<ScopedProvider<?>> created = new ArrayList<ScopedProvider<?>>();
+
+    public <T> Provider<T> scope(Key<T> key, Provider<T> unscoped) {
+        return new ScopedProvider<T>(key, unscoped);
+    }
+
+    /**
+     * Drop all instances created so far.
+     */
+    synchronized void reset() {
+        for (ScopedProvider<?> provider : created) {
+            provider.instance = null;
+        }
+        created.clear();
+    }
+
+    @Override
+    public String toString() {
+        return "GuiceUnit.RESETTABLE_SINGLETON";
+    }
+
+    private class ScopedProvider<T> implements Provider<T> {
+
+        private final Key<T> key;
+        private final Provider<T> unscoped;
+        private volatile Object instance;
+
+        ScopedProvider(Key<T> key, Provider<T> unscoped) {
+            this.key = key;
+            this.unscoped = unscoped;
+        }
+
+        @SuppressWarnings("unchecked")
+        public T get() {
+            Object current = instance;
+            if (current == null) {
+                //Like Guice singleton scope, one lock for all, so singletons depending
+                //on each other can't deadlock
+                synchronized (ResettableSingletonScope.this) {
+                    current = instance;
+                    if (current == null) {
+                        T provided = unscoped.get();
+                        current = provided == null ? NULL : provided;
+                        instance = current;
+                        created.add(this);
+                    }
+                }
+            }
+            return current == NULL ? null : (T) current;
+        }
+
+        @Override
+        public String toString() {
+            return key + "[" + ResettableSingletonScope.this + "]";
+        }
+    }
+}
@@ -0,0 +1,257 @@
+/*
+ * Copyright (c) 2012 Transition Technologies S.A.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package pl.com.tt.guice.junit;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import lombok.extern.slf4j.Slf4j;
+import pl.com.tt.guice.junit.InjectorStartup.Measurement;
+
+/**
+ * Budget for injector startup of test classes.
+ * <p/>
+ * Test class is over budget when it's injector creation took more than
+ * {@link #MILLIS_PROPERTY} milliseconds or allocated more than
+ * {@link #ALLOCATED_PROPERTY} bytes. It regressed when it took more time or
+ * allocated more bytes than recorded in baseline file by more than
+ * {@link #REGRESSION_PROPERTY} percent. Differences smaller than
+ * {@link #TOLERANCE_PROPERTY} milliseconds and {@link #TOLERANCE_BYTES_PROPERTY}
+ * bytes are ignored, so fast injectors don't fail because of noise.
+ * <p/>
+ * Baseline is a properties file with <code>&lt;test class&gt;.millis</code>
+ * and <code>&lt;test class&gt;.allocated</code> entries, read from
+ * {@link #BASELINE_PROPERTY} file or from <code>guiceunit-startup.properties</code>
+ * classpath resource. {@link StartupBudgetListener} writes file in this format
+ * with measurements of current run, so baseline can be updated by copying it.
+ *
+ * @see StartupBudgetRule
+ * @see StartupBudgetListener
+ * @author Marek Piechut <m.piechut@tt.com.pl>
+ */
+@Slf4j
+public class StartupBudget {
+
+    /**
+     * System property with baseline file. Defaults to <code>guiceunit-startup.properties</code>
+     * classpath resource.
+     */
+    public static final String BASELINE_PROPERTY = "guiceunit.budget.baseline";
+    /**
+     * Classpath resource with baseline used if {@link #BASELINE_PROPERTY} is not set.
+     */
+    public static final String BASELINE_RESOURCE = "guiceunit-startup.properties";
+    /**
+     * System property with maximum injector startup time in milliseconds. Not checked by default.
+     */
+    public static final String MILLIS_PROPERTY = "guiceunit.budget.millis";
+    /**
+     * System property with maximum bytes allocated by injector startup. Not checked by default.
+     */
+    public static final String ALLOCATED_PROPERTY = "guiceunit.budget.allocated";
+    /**
+     * System property with allowed regression from baseline in percent. Defaults to 50.
+     */
+    public static final String REGRESSION_PROPERTY = "guiceunit.budget.regression";
+    /**
+     * System property with time regression in milliseconds that is always allowed. Defaults to 100.
+     */
+    public static final String TOLERANCE_PROPERTY = "guiceunit.budget.tolerance";
+    /**
+     * System property with allocation regression in bytes that is always allowed. Defaults to 10 MB.
+     */
+    public static final String TOLERANCE_BYTES_PROPERTY = "guiceunit.budget.tolerance.bytes";
+    /**
+     * System property, if set to true violations are only logged as warnings.
+     */
+    public static final String WARN_PROPERTY = "guiceunit.budget.warn";
+    private static final String MILLIS_SUFFIX = ".millis";
+    private static final String ALLOCATED_SUFFIX = ".allocated";
+    private Properties baseline = new Properties();
+    private long maxMillis = -1;
+    private long maxAllocated = -1;
+    private int regressionPercent = 50;
+    private long toleranceMillis = 100;
+    private long toleranceBytes = 10 * 1024 * 1024;
+    private boolean warnOnly;
+
+    /**
+     * Create budget configured by system properties.
+     *
+     * @return budget
+     */
+    public static StartupBudget fromSystemProperties() {
+        StartupBudget budget = new StartupBudget();
+        budget.setBaseline(loadBaseline());
+        budget.setMaxMillis(Long.getLong(MILLIS_PROPERTY, -1));
+        budget.setMaxAllocated(Long.getLong(ALLOCATED_PROPERTY, -1));
+        budget.setRegressionPercent(Integer.getInteger(REGRESSION_PROPERTY, 50));
+        budget.setToleranceMillis(Long.getLong(TOLERANCE_PROPERTY, 100));
+        budget.setToleranceBytes(Long.getLong(TOLERANCE_BYTES_PROPERTY, 10 * 1024 * 1024));
+        budget.setWarnOnly(Boolean.getBoolean(WARN_PROPERTY));
+        return budget;
+    }
+
+    public void setBaseline(Properties baseline) {
+        this.baseline = baseline;
+    }
+
+    /**
+     * @param maxMillis maximum startup time, -1 to not check it
+     */
+    public void setMaxMillis(long maxMillis) {
+        this.maxMillis = maxMillis;
+    }
+
+    /**
+     * @param maxAllocated maximum bytes allocated by startup, -1 to not check it
+     */
+    public void setMaxAllocated(long maxAllocated) {
+        this.maxAllocated = maxAllocated;
+    }
+
+    public void setRegressionPercent(int regressionPercent) {
+        this.regressionPercent = regressionPercent;
+    }
+
+    public void setToleranceMillis(long toleranceMillis) {
+        this.toleranceMillis = toleranceMillis;
+    }
+
+    public void setToleranceBytes(long toleranceBytes) {
+        this.toleranceBytes = toleranceBytes;
+    }
+
+    public void setWarnOnly(boolean warnOnly) {
+        this.warnOnly = warnOnly;
+    }
+
+    public boolean isWarnOnly() {
+        return warnOnly;
+    }
+
+    /**
+     * Check injector startup measurement of test class.
+     *
+     * @param test test class name
+     * @param measurement measured startup
+     * @return violations of budget, empty if startup is within budget
+     */
+    public List<String> check(String test, Measurement measurement) {
+        List<String> violations = new ArrayList<String>();
+        long millis = measurement.getMillis();
+        long allocated = measurement.getAllocatedBytes();
+        if (maxMillis >= 0 && millis > maxMillis) {
+            violations.add(String.format("Injector startup of %s took %d ms, budget is %d ms", test, millis, maxMillis));
+        }
+        if (maxAllocated >= 0 && allocated > maxAllocated) {
+            violations.add(String.format("Injector startup of %s allocated %d bytes, budget is %d bytes",
+                    test, allocated, maxAllocated));
+        }
+
+        long baselineMillis = getBaseline(test + MILLIS_SUFFIX);
+        if (isRegression(millis, baselineMillis, toleranceMillis)) {
+            violations.add(String.format("Injector startup of %s took %d ms, baseline is %d ms (+%d%% allowed)",
+                    test, millis, baselineMillis, regressionPercent));
+        }
+        long baselineAllocated = getBaseline(test + ALLOCATED_SUFFIX);
+        if (allocated >= 0 && isRegression(allocated, baselineAllocated, toleranceBytes)) {
+            violations.add(String.format("Injector startup of %s allocated %d bytes, baseline is %d bytes (+%d%% allowed)",
+                    test, allocated, baselineAllocated, regressionPercent));
+        }
+        return violations;
+    }
+
+    /**
+     * Write measurements in baseline format.
+     *
+     * @param measurements measurements by test class name
+     * @param file file to write
+     * @throws IOException if file could not be written
+     */
+    public static void writeBaseline(Map<String, Measurement> measurements, File file)
+            throws IOException {
+        File dir = file.getAbsoluteFile().getParentFile();
+        if (!dir.isDirectory() && !dir.mkdirs()) {
+            throw new IOException("Could not create directory: " + dir);
+        }
+        PrintWriter out = new PrintWriter(new OutputStreamWriter(new FileOutputStream(file), "ISO-8859-1"));
+        try {
+            out.println("# GuiceUnit injector startup, copy to " + BASELINE_RESOURCE + " to use as baseline");
+            for (Map.Entry<String, Measurement> entry : measurements.entrySet()) {
+                out.println(entry.getKey() + MILLIS_SUFFIX + "=" + entry.getValue().getMillis());
+                if (entry.getValue().getAllocatedBytes() >= 0) {
+                    out.println(entry.getKey() + ALLOCATED_SUFFIX + "=" + entry.getValue().getAllocatedBytes());
+                }
+            }
+        } finally {
+            out.close();
+        }
+    }
+
+    private boolean isRegression(long value, long baselineValue, long tolerance) {
+        if (baselineValue < 0 || value - baselineValue <= tolerance) {
+            return false;
+        }
+        return value * 100 > baselineValue * (100 + regressionPercent);
+    }
+
+    private long getBaseline(String key) {
+        String value = baseline.getProperty(key);
+        if (value == null) {
+            return -1;
+        }
+        try {
+            return Long.parseLong(value.trim());
+        } catch (NumberFormatException ex) {
+            log.warn("Invalid startup baseline value of " + key + ": " + value);
+            return -1;
+        }
+    }
+
+    private static Properties loadBaseline() {
+        Properties properties = new Properties();
+        String file = System.getProperty(BASELINE_PROPERTY);
+        try {
+            InputStream in;
+            if (file != null) {
+                in = new FileInputStream(file);
+            } else {
+                in = StartupBudget.class.getClassLoader().getResourceAsStream(BASELINE_RESOURCE);
+                if (in == null) {
+                    return properties;
+                }
+            }
+            try {
+                properties.load(in);
+            } finally {
+                in.close();
+            }
+        } catch (IOException ex) {
+            log.warn("Could not read injector startup baseline: " + (file != null ? file : BASELINE_RESOURCE), ex);
+        }
+        return properties;
+    }
+}
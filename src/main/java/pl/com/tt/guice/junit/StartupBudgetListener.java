@@ -0,0 +1,76 @@
+/*
+ * Copyright (c) 2012 Transition Technologies S.A.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package pl.com.tt.guice.junit;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Map;
+import lombok.extern.slf4j.Slf4j;
+import org.junit.runner.Result;
+import org.junit.runner.notification.RunListener;
+import pl.com.tt.guice.junit.InjectorStartup.Measurement;
+
+/**
+ * Run listener reporting injector startup of all test classes.
+ * <p/>
+ * When test run finishes it logs warning for every test class over {@link StartupBudget}
+ * and writes measurements in baseline format to {@link #REPORT_PROPERTY} file
+ * (<code>target/guiceunit-startup.properties</code> by default).
+ * Register it as JUnit listener in your build tool, e.g. <code>listener</code>
+ * property of Maven Surefire plugin.
+ *
+ * @see StartupBudgetRule
+ * @author Marek Piechut <m.piechut@tt.com.pl>
+ */
+@Slf4j
+public class StartupBudgetListener extends RunListener {
+
+    /**
+     * System property with file to write measurements to.
+     */
+    public static final String REPORT_PROPERTY = "guiceunit.budget.report";
+    private final StartupBudget budget;
+
+    /**
+     * Create listener with budget configured by system properties.
+     */
+    public StartupBudgetListener() {
+        this(StartupBudget.fromSystemProperties());
+    }
+
+    public StartupBudgetListener(StartupBudget budget) {
+        this.budget = budget;
+    }
+
+    @Override
+    public void testRunFinished(Result result)
+            throws Exception {
+        Map<String, Measurement> measurements = InjectorStartup.getAll();
+        for (Map.Entry<String, Measurement> entry : measurements.entrySet()) {
+            for (String violation : budget.check(entry.getKey(), entry.getValue())) {
+                log.warn(violation);
+            }
+        }
+
+        File report = new File(System.getProperty(REPORT_PROPERTY, "target/guiceunit-startup.properties"));
+        try {
+            StartupBudget.writeBaseline(measurements, report);
+        } catch (IOException ex) {
+            log.error("Could not write injector startup report to: " + report, ex);
+        }
+    }
+}
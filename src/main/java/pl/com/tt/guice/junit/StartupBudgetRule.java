@@ -0,0 +1,89 @@
+/*
+ * Copyright (c) 2012 Transition Technologies S.A.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package pl.com.tt.guice.junit;
+
+import java.util.List;
+import lombok.extern.slf4j.Slf4j;
+import org.junit.rules.TestRule;
+import org.junit.runner.Description;
+import org.junit.runners.model.Statement;
+import pl.com.tt.guice.junit.InjectorStartup.Measurement;
+
+/**
+ * Rule failing test class if it's injector startup is over {@link StartupBudget}.
+ * <p/>
+ * Use it as <code>@ClassRule</code> in test class (or base class of test classes)
+ * executed by {@link GUnitTestRunner}:
+ * <pre>
+ * &#64;ClassRule
+ * public static StartupBudgetRule budget = new StartupBudgetRule();
+ * </pre>
+ * If budget is in warn only mode violations are logged and tests are executed.
+ *
+ * @author Marek Piechut <m.piechut@tt.com.pl>
+ */
+@Slf4j
+public class StartupBudgetRule implements TestRule {
+
+    private final StartupBudget budget;
+
+    /**
+     * Create rule with budget configured by system properties.
+     */
+    public StartupBudgetRule() {
+        this(StartupBudget.fromSystemProperties());
+    }
+
+    public StartupBudgetRule(StartupBudget budget) {
+        this.budget = budget;
+    }
+
+    public Statement apply(final Statement base, final Description description) {
+        return new Statement() {
+
+            @Override
+            public void evaluate()
+                    throws Throwable {
+                check(description.getTestClass());
+                base.evaluate();
+            }
+        };
+    }
+
+    private void check(Class<?> test) {
+        Measurement measurement = test == null ? null : InjectorStartup.get(test);
+        if (measurement == null) {
+            //Not executed by GUnitTestRunner
+            return;
+        }
+        List<String> violations = budget.check(test.getName(), measurement);
+        if (violations.isEmpty()) {
+            return;
+        }
+        if (budget.isWarnOnly()) {
+            for (String violation : violations) {
+                log.warn(violation);
+            }
+        } else {
+            StringBuilder message = new StringBuilder();
+            for (String violation : violations) {
+                message.append(message.length() == 0 ? "" : "\n").append(violation);
+            }
+            throw new AssertionError(message.toString());
+        }
+    }
+}
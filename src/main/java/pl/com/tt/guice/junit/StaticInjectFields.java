@@ -0,0 +1,185 @@
+/*
+ * Copyright (c) 2012 Transition Technologies S.A.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package pl.com.tt.guice.junit;
+
+import com.google.inject.ConfigurationException;
+import com.google.inject.spi.InjectionPoint;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.reflect.Field;
+import java.lang.reflect.Member;
+import java.lang.reflect.Modifier;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Static fields that Guice will write when static injection is requested
+ * for a set of classes.
+ * <p/>
+ * Allows to take a snapshot of current values of these fields and
+ * restore it later, so static injection done for one test class does
+ * not leak into other ones.
+ * <p/>
+ * Fields are resolved with the same rules Guice uses
+ * ({@link InjectionPoint#forStaticMethodsAndFields(Class)}) and accessors
+ * are cached per class, so creating snapshots is cheap.
+ * Static injection done through methods is not tracked.
+ *
+ * @author Marek Piechut <m.piechut@tt.com.pl>
+ */
+@Slf4j
+class StaticInjectFields {
+
+    /**
+     * Accessors are kept with class itself, so cache does not keep
+     * classes (and their class loaders) from being unloaded.
+     */
+    private static final ClassValue<List<FieldAccessor>> accessorsCache = new ClassValue<List<FieldAccessor>>() {
+
+        @Override
+        protected List<FieldAccessor> computeValue(Class<?> cls) {
+            return createAccessors(cls);
+        }
+    };
+    private final List<FieldAccessor> accessors;
+
+    private StaticInjectFields(List<FieldAccessor> accessors) {
+        this.accessors = accessors;
+    }
+
+    /**
+     * Get static injection fields of passed in classes.
+     *
+     * @param classes classes that will have static injection requested
+     * @return fields that will be written by static injection
+     */
+    static StaticInjectFields of(Collection<Class<?>> classes) {
+        List<FieldAccessor> accessors = new ArrayList<FieldAccessor>();
+        for (Class<?> cls : classes) {
+            accessors.addAll(getAccessors(cls));
+        }
+        return new StaticInjectFields(accessors);
+    }
+
+    /**
+     * Remember current values of all fields.
+     *
+     * @return snapshot that can be restored later
+     */
+    Snapshot snapshot() {
+        Object[] values = new Object[accessors.size()];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = accessors.get(i).get();
+        }
+        return new Snapshot(values);
+    }
+
+    /**
+     * Number of tracked fields.
+     *
+     * @return number of fields
+     */
+    int size() {
+        return accessors.size();
+    }
+
+    private static List<FieldAccessor> getAccessors(Class<?> cls) {
+        return accessorsCache.get(cls);
+    }
+
+    @SuppressWarnings("unchecked")
+    private static List<FieldAccessor> createAccessors(Class<?> cls) {
+        Set<InjectionPoint> injectionPoints;
+        try {
+            injectionPoints = InjectionPoint.forStaticMethodsAndFields(cls);
+        } catch (ConfigurationException ex) {
+            //Guice will report it when creating injector, track what we can
+            injectionPoints = ex.getPartialValue();
+        }
+
+        List<FieldAccessor> accessors = new ArrayList<FieldAccessor>();
+        MethodHandles.Lookup lookup = MethodHandles.lookup();
+        for (InjectionPoint injectionPoint : injectionPoints) {
+            Member member = injectionPoint.getMember();
+            if (member instanceof Field && !Modifier.isFinal(member.getModifiers())) {
+                Field field = (Field) member;
+                try {
+                    field.setAccessible(true);
+                    accessors.add(new FieldAccessor(lookup.unreflectGetter(field), lookup.unreflectSetter(field)));
+                } catch (Exception ex) {
+                    log.warn("Could not access static field " + field + ". It's value will not be restored.", ex);
+                }
+            }
+        }
+        return Collections.unmodifiableList(accessors);
+    }
+
+    /**
+     * Values of static injection fields remembered at some point of time.
+     */
+    class Snapshot {
+
+        private final Object[] values;
+
+        private Snapshot(Object[] values) {
+            this.values = values;
+        }
+
+        /**
+         * Write remembered values back to static fields.
+         */
+        void restore() {
+            for (int i = 0; i < values.length; i++) {
+                accessors.get(i).set(values[i]);
+            }
+        }
+    }
+
+    /**
+     * Cached getter and setter of single static field.
+     */
+    private static class FieldAccessor {
+
+        private final MethodHandle getter;
+        private final MethodHandle setter;
+
+        FieldAccessor(MethodHandle getter, MethodHandle setter) {
+            this.getter = getter;
+            this.setter = setter;
+        }
+
+        Object get() {
+            try {
+                return getter.invoke();
+            } catch (Throwable ex) {
+                throw new IllegalStateException("Could not read static field value", ex);
+            }
+        }
+
+        void set(Object value) {
+            try {
+                setter.invoke(value);
+            } catch (Throwable ex) {
+                throw new IllegalStateException("Could not write static field value", ex);
+            }
+        }
+    }
+}
@@ -0,0 +1,62 @@
+/*
+ * Copyright (c) 2012 Transition Technologies S.A.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package pl.com.tt.guice.junit;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Annotate your JUnit tests with this annotation to limit static injection
+ * to declared classes instead of all classes found in classpath.
+ * <p/>
+ * Test class itself always gets it's static members injected.
+ * Other classes are injected only if they are declared explicitly,
+ * are in one of declared packages or are referenced from test class
+ * (if {@link #referenced()} is set).
+ * <p/>
+ * Classes that are out of scope are not loaded nor initialized,
+ * so it can save a lot of work when classpath is big.
+ *
+ * @author Marek Piechut <m.piechut@tt.com.pl>
+ */
+@Retention(RetentionPolicy.RUNTIME)
+@Target(ElementType.TYPE)
+public @interface StaticInjectScope {
+
+    /**
+     * Classes that should have static members injected.
+     * @return
+     */
+    public Class<?>[] classes() default {};
+
+    /**
+     * Packages (including subpackages) with classes that should have static
+     * members injected.
+     * @return
+     */
+    public String[] packages() default {};
+
+    /**
+     * If static members should be injected to classes referenced from
+     * test class (and it's superclasses) constant pool.
+     * These are classes directly used in test code.
+     * @return
+     */
+    public boolean referenced() default false;
+}
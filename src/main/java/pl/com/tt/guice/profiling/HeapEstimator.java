@@ -0,0 +1,155 @@
+/*
+ * Copyright (c) 2012 Transition Technologies S.A.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package pl.com.tt.guice.profiling;
+
+import com.google.inject.Injector;
+import java.lang.reflect.Array;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Estimates heap retained by objects: size of all objects reachable from them.
+ * <p/>
+ * Sizes are estimated for 64 bit JVM with compressed references (12 bytes header,
+ * 4 bytes reference, 8 bytes alignment). Classes, class loaders, threads and
+ * injectors are not followed, as they are shared with everything else. Fields that
+ * can't be read (e.g. of JDK classes on newer JVMs) are not followed either.
+ *
+ * @author Marek Piechut <m.piechut@tt.com.pl>
+ */
+class HeapEstimator {
+
+    private static final int HEADER = 12;
+    private static final int ARRAY_HEADER = 16;
+    private static final int REFERENCE = 4;
+    private static final int MAX_OBJECTS = 1000000;
+    private final Map<Class<?>, Layout> layouts = new HashMap<Class<?>, Layout>();
+
+    /**
+     * Estimate size of objects reachable from roots. Objects reachable from many
+     * roots are counted once.
+     *
+     * @param roots objects to measure
+     * @return estimated bytes
+     */
+    long estimate(Collection<?> roots) {
+        Map<Object, Boolean> visited = new IdentityHashMap<Object, Boolean>();
+        LinkedList<Object> queue = new LinkedList<Object>(roots);
+        long size = 0;
+        while (!queue.isEmpty() && visited.size() < MAX_OBJECTS) {
+            Object object = queue.removeFirst();
+            if (object == null || visited.put(object, Boolean.TRUE) != null || isShared(object)) {
+                continue;
+            }
+
+            Class<?> type = object.getClass();
+            if (type.isArray()) {
+                int length = Array.getLength(object);
+                Class<?> component = type.getComponentType();
+                size += align(ARRAY_HEADER + (long) length * sizeOf(component));
+                if (!component.isPrimitive()) {
+                    for (int i = 0; i < length; i++) {
+                        queue.add(Array.get(object, i));
+                    }
+                }
+                continue;
+            }
+
+            Layout layout = getLayout(type);
+            for (Field field : layout.references) {
+                try {
+                    queue.add(field.get(object));
+                } catch (IllegalAccessException ex) {
+                    //Not followed
+                }
+            }
+            size += layout.size;
+        }
+        return size;
+    }
+
+    private Layout getLayout(Class<?> type) {
+        Layout layout = layouts.get(type);
+        if (layout == null) {
+            long objectSize = HEADER;
+            List<Field> references = new ArrayList<Field>();
+            for (Class<?> current = type; current != null; current = current.getSuperclass()) {
+                for (Field field : current.getDeclaredFields()) {
+                    if (Modifier.isStatic(field.getModifiers())) {
+                        continue;
+                    }
+                    objectSize += sizeOf(field.getType());
+                    if (field.getType().isPrimitive()) {
+                        continue;
+                    }
+                    try {
+                        field.setAccessible(true);
+                        references.add(field);
+                    } catch (RuntimeException ex) {
+                        //Inaccessible module on newer JVMs, only size is counted
+                    }
+                }
+            }
+            layout = new Layout(align(objectSize), references);
+            layouts.put(type, layout);
+        }
+        return layout;
+    }
+
+    private static boolean isShared(Object object) {
+        return object instanceof Class || object instanceof ClassLoader || object instanceof Thread
+                || object instanceof Injector;
+    }
+
+    private static int sizeOf(Class<?> type) {
+        if (type == long.class || type == double.class) {
+            return 8;
+        } else if (type == int.class || type == float.class) {
+            return 4;
+        } else if (type == short.class || type == char.class) {
+            return 2;
+        } else if (type == byte.class || type == boolean.class) {
+            return 1;
+        }
+        return REFERENCE;
+    }
+
+    private static long align(long size) {
+        return (size + 7) / 8 * 8;
+    }
+
+    /**
+     * Size of class instances and reference fields that can be followed.
+     */
+    private static class Layout {
+
+        private final long size;
+        private final List<Field> references;
+
+        Layout(long size, List<Field> references) {
+            this.size = size;
+            this.references = references;
+        }
+    }
+}
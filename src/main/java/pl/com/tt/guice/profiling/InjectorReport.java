@@ -0,0 +1,141 @@
+/*
+ * Copyright (c) 2012 Transition Technologies S.A.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package pl.com.tt.guice.profiling;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Writes injector statistics as JSON (<code>injectors.json</code>)
+ * and HTML (<code>injectors.html</code>) files.
+ * <p/>
+ * Both contain statistics of each injector (sorted by name) and summary for
+ * whole run, with biggest retained heap of single injector.
+ *
+ * @author Marek Piechut <m.piechut@tt.com.pl>
+ */
+class InjectorReport {
+
+    static final String RUN_CONTEXT = "<run>";
+    private static final String[] COLUMNS = {"injectors", "bindings", "jitBindings", "instanceBindings",
+        "providerBindings", "linkedBindings", "constructorBindings", "untargettedBindings", "otherBindings",
+        "singletons", "eagerSingletons", "retainedBytes"};
+    private final Map<String, InjectorStats> injectors = new TreeMap<String, InjectorStats>();
+    private long maxRetainedBytes;
+
+    InjectorReport(Map<String, InjectorStats> stats) {
+        InjectorStats run = InjectorStats.summary();
+        for (Map.Entry<String, InjectorStats> entry : stats.entrySet()) {
+            injectors.put(entry.getKey(), entry.getValue());
+            run.add(entry.getValue());
+            maxRetainedBytes = Math.max(maxRetainedBytes, entry.getValue().getRetainedBytes());
+        }
+        injectors.put(RUN_CONTEXT, run);
+    }
+
+    void write(File dir)
+            throws IOException {
+        if (!dir.isDirectory() && !dir.mkdirs()) {
+            throw new IOException("Could not create directory: " + dir);
+        }
+        PrintWriter json = open(new File(dir, "injectors.json"));
+        try {
+            writeJson(json);
+        } finally {
+            json.close();
+        }
+        PrintWriter html = open(new File(dir, "injectors.html"));
+        try {
+            writeHtml(html);
+        } finally {
+            html.close();
+        }
+    }
+
+    void writeJson(PrintWriter out) {
+        out.println("{");
+        int index = 0;
+        for (Map.Entry<String, InjectorStats> entry : injectors.entrySet()) {
+            out.print("  \"" + escapeJson(entry.getKey()) + "\": {");
+            long[] values = values(entry.getValue());
+            for (int i = 0; i < COLUMNS.length; i++) {
+                out.print((i == 0 ? "" : ", ") + "\"" + COLUMNS[i] + "\": " + values[i]);
+            }
+            if (RUN_CONTEXT.equals(entry.getKey())) {
+                out.print(", \"maxRetainedBytes\": " + maxRetainedBytes);
+            }
+            out.print("}");
+            out.println(++index < injectors.size() ? "," : "");
+        }
+        out.println("}");
+    }
+
+    void writeHtml(PrintWriter out) {
+        out.println("<!DOCTYPE html>");
+        out.println("<html><head><meta charset=\"UTF-8\"><title>GuiceUnit injectors</title></head><body>");
+        out.println("<table border=\"1\"><tr><th>Injector</th>");
+        for (String column : COLUMNS) {
+            out.print("<th>" + column + "</th>");
+        }
+        out.println("</tr>");
+        for (Map.Entry<String, InjectorStats> entry : injectors.entrySet()) {
+            out.print("<tr><td>" + escapeHtml(entry.getKey()) + "</td>");
+            for (long value : values(entry.getValue())) {
+                out.print("<td>" + value + "</td>");
+            }
+            out.println("</tr>");
+        }
+        out.println("</table>");
+        out.println("<p>Max retained heap of single injector: " + maxRetainedBytes + " bytes</p>");
+        out.println("</body></html>");
+    }
+
+    private static long[] values(InjectorStats stats) {
+        return new long[]{stats.getInjectors(), stats.getBindings(), stats.getJitBindings(), stats.getInstanceBindings(),
+            stats.getProviderBindings(), stats.getLinkedBindings(), stats.getConstructorBindings(),
+            stats.getUntargettedBindings(), stats.getOtherBindings(), stats.getSingletons(), stats.getEagerSingletons(),
+            stats.getRetainedBytes()};
+    }
+
+    private static PrintWriter open(File file)
+            throws IOException {
+        return new PrintWriter(new OutputStreamWriter(new FileOutputStream(file), "UTF-8"));
+    }
+
+    private static String escapeJson(String value) {
+        StringBuilder escaped = new StringBuilder(value.length());
+        for (char c : value.toCharArray()) {
+            if (c == '"' || c == '\\') {
+                escaped.append('\\').append(c);
+            } else if (c < ' ') {
+                escaped.append(String.format("\\u%04x", (int) c));
+            } else {
+                escaped.append(c);
+            }
+        }
+        return escaped.toString();
+    }
+
+    private static String escapeHtml(String value) {
+        return value.replace("&", "&amp;").replace("<", "&lt;").replace(">", "&gt;");
+    }
+}
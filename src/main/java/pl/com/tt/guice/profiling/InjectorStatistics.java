@@ -0,0 +1,361 @@
+/*
+ * Copyright (c) 2012 Transition Technologies S.A.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package pl.com.tt.guice.profiling;
+
+import com.google.inject.Binding;
+import com.google.inject.Injector;
+import com.google.inject.Key;
+import com.google.inject.Scope;
+import com.google.inject.Scopes;
+import com.google.inject.Singleton;
+import com.google.inject.Stage;
+import com.google.inject.spi.BindingScopingVisitor;
+import com.google.inject.spi.ConstructorBinding;
+import com.google.inject.spi.DefaultBindingScopingVisitor;
+import com.google.inject.spi.DefaultBindingTargetVisitor;
+import com.google.inject.spi.InstanceBinding;
+import com.google.inject.spi.LinkedKeyBinding;
+import com.google.inject.spi.ProviderInstanceBinding;
+import com.google.inject.spi.ProviderKeyBinding;
+import com.google.inject.spi.UntargettedBinding;
+import java.io.File;
+import java.io.IOException;
+import java.lang.annotation.Annotation;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.logging.Logger;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Binding statistics and footprint of injectors created by GuiceUnit
+ * and {@link pl.com.tt.guice.InjectorFactory}.
+ * <p/>
+ * Enabled with {@link #PROPERTY} system property. When enabled, every created
+ * injector is analyzed: number of bindings by type, singletons, eager singletons,
+ * just in time bindings and estimated heap retained by bound instances and singletons
+ * created so far. Injectors of test classes are analyzed again when all tests from class
+ * are executed, so just in time bindings created by tests are counted.
+ * <p/>
+ * Statistics of every injector (by test class name) and summary for whole run
+ * are written as JSON and HTML to directory from {@link #DIR_PROPERTY} system
+ * property when JVM exits.
+ *
+ * @author Marek Piechut <m.piechut@tt.com.pl>
+ */
+@Slf4j
+public class InjectorStatistics {
+
+    /**
+     * System property enabling injector statistics.
+     */
+    public static final String PROPERTY = "guiceunit.injectors";
+    /**
+     * System property with directory for reports.
+     * Defaults to <code>target/guiceunit-injectors</code>.
+     */
+    public static final String DIR_PROPERTY = "guiceunit.injectors.dir";
+    /**
+     * Bindings that every injector has.
+     */
+    private static final Set<Key<?>> BUILT_IN = new HashSet<Key<?>>(Arrays.<Key<?>>asList(
+            Key.get(Injector.class), Key.get(Stage.class), Key.get(Logger.class)));
+    /**
+     * Number of references from binding to provider created by it's scope.
+     */
+    private static final int SCOPED_PROVIDER_DEPTH = 4;
+    private static final String GUICE_PACKAGE = "com.google.inject.";
+    private static final ConcurrentMap<String, InjectorStats> stats = new ConcurrentHashMap<String, InjectorStats>();
+    private static boolean reportScheduled;
+
+    private InjectorStatistics() {
+    }
+
+    /**
+     * Check if statistics are enabled.
+     *
+     * @return true if {@link #PROPERTY} is set to true
+     */
+    public static boolean isEnabled() {
+        return Boolean.getBoolean(PROPERTY);
+    }
+
+    /**
+     * Analyze injector and remember it's statistics, replacing ones
+     * recorded before with the same name. Does nothing if not enabled.
+     *
+     * @param name name of injector, test class name for GuiceUnit injectors
+     * @param injector injector to analyze
+     */
+    public static void record(String name, Injector injector) {
+        if (!isEnabled() || injector == null) {
+            return;
+        }
+        scheduleReport();
+        stats.put(name, analyze(injector));
+    }
+
+    /**
+     * Get statistics recorded so far.
+     *
+     * @return statistics by injector name
+     */
+    public static Map<String, InjectorStats> getStats() {
+        return stats;
+    }
+
+    /**
+     * Analyze bindings of injector. Only bindings of passed in injector
+     * are analyzed, without bindings of it's parent and built in bindings
+     * ({@link Injector}, {@link Stage} and {@link Logger}).
+     * <p/>
+     * Bindings profiled by {@link ProvisionProfiler} are counted by their original
+     * target, moved to internal key, so statistics are the same with profiler enabled.
+     *
+     * @param injector injector to analyze
+     * @return statistics of injector
+     */
+    public static InjectorStats analyze(Injector injector) {
+        InjectorStats injectorStats = new InjectorStats();
+        Map<Key<?>, Binding<?>> explicit = injector.getBindings();
+        List<Object> instances = new ArrayList<Object>();
+        for (Binding<?> binding : injector.getAllBindings().values()) {
+            if (BUILT_IN.contains(binding.getKey()) || ProfilingModule.isInternal(binding.getKey())) {
+                continue;
+            }
+            boolean isExplicit = explicit.containsKey(binding.getKey());
+            if (isExplicit) {
+                injectorStats.bindings++;
+            } else {
+                injectorStats.jitBindings++;
+            }
+            //Target of profiled binding is moved to internal key
+            Binding<?> target = explicit.get(ProfilingModule.getInternalKey(binding.getKey()));
+            if (target == null) {
+                target = binding;
+            }
+            Object instance = target.acceptTargetVisitor(new TypeCounter(injectorStats, binding.getKey(), isExplicit));
+            if (instance != null) {
+                //Instance bindings are reported as eager singletons, don't count them twice
+                instances.add(instance);
+            } else if (binding.acceptScopingVisitor(new SingletonCounter(injectorStats))) {
+                //Eager singletons are already created, getting them has no side effects
+                instances.add(binding.getProvider().get());
+            } else {
+                //Lazy singletons only if tests created them already
+                Object created = getScopedInstance(binding);
+                if (created != null) {
+                    instances.add(created);
+                }
+            }
+        }
+        injectorStats.retainedBytes = new HeapEstimator().estimate(instances);
+        return injectorStats;
+    }
+
+    /**
+     * Get instance that scope of binding already keeps, without creating it.
+     * Guice has no API for it, so provider created by scope is looked up in internal
+     * factory of binding and it's <code>instance</code> field is read. Works for
+     * {@link Scopes#SINGLETON} and scopes with providers written the same way.
+     *
+     * @return kept instance or null if none or it can't be read
+     */
+    private static Object getScopedInstance(Binding<?> binding) {
+        Scope scope = binding.acceptScopingVisitor(new DefaultBindingScopingVisitor<Scope>() {
+
+            @Override
+            public Scope visitScope(Scope scope) {
+                return scope;
+            }
+        });
+        if (scope == null || scope == Scopes.NO_SCOPE) {
+            return null;
+        }
+
+        //Scoped provider is few Guice internal objects away from binding: factory, initializable, provider.
+        //Breadth first, as unscoped provider leads to scoped providers of dependencies
+        List<Object> level = Collections.<Object>singletonList(binding);
+        Set<Object> visited = Collections.newSetFromMap(new IdentityHashMap<Object, Boolean>());
+        for (int depth = 0; depth < SCOPED_PROVIDER_DEPTH && !level.isEmpty(); depth++) {
+            List<Object> next = new ArrayList<Object>();
+            for (Object object : level) {
+                if (object == null || object instanceof Injector || !visited.add(object)) {
+                    continue;
+                }
+                Class<?> type = object.getClass();
+                if (type.getEnclosingClass() == scope.getClass()) {
+                    return readField(object, type, "instance");
+                }
+                if (!type.getName().startsWith(GUICE_PACKAGE)) {
+                    continue;
+                }
+                for (Class<?> current = type; current != Object.class; current = current.getSuperclass()) {
+                    for (Field field : current.getDeclaredFields()) {
+                        if (!Modifier.isStatic(field.getModifiers()) && !field.getType().isPrimitive()) {
+                            next.add(readField(object, current, field.getName()));
+                        }
+                    }
+                }
+            }
+            level = next;
+        }
+        return null;
+    }
+
+    private static Object readField(Object object, Class<?> type, String name) {
+        try {
+            Field field = type.getDeclaredField(name);
+            field.setAccessible(true);
+            return field.get(object);
+        } catch (NoSuchFieldException ex) {
+            return null;
+        } catch (IllegalAccessException ex) {
+            return null;
+        } catch (RuntimeException ex) {
+            //Inaccessible module on newer JVMs
+            return null;
+        }
+    }
+
+    private static synchronized void scheduleReport() {
+        if (reportScheduled) {
+            return;
+        }
+        reportScheduled = true;
+        Runtime.getRuntime().addShutdownHook(new Thread("GuiceUnit injector report") {
+
+            @Override
+            public void run() {
+                File dir = new File(System.getProperty(DIR_PROPERTY, "target/guiceunit-injectors"));
+                try {
+                    new InjectorReport(stats).write(dir);
+                } catch (IOException ex) {
+                    log.error("Could not write injector report to: " + dir, ex);
+                }
+            }
+        });
+    }
+
+    /**
+     * Counts binding by type. Returns bound instance of instance bindings.
+     */
+    private static class TypeCounter extends DefaultBindingTargetVisitor<Object, Object> {
+
+        private final InjectorStats stats;
+        private final Key<?> key;
+        private final boolean explicit;
+
+        TypeCounter(InjectorStats stats, Key<?> key, boolean explicit) {
+            this.stats = stats;
+            this.key = key;
+            this.explicit = explicit;
+        }
+
+        @Override
+        protected Object visitOther(Binding<?> binding) {
+            stats.otherBindings++;
+            return null;
+        }
+
+        @Override
+        public Object visit(InstanceBinding<?> binding) {
+            stats.instanceBindings++;
+            return binding.getInstance();
+        }
+
+        @Override
+        public Object visit(ProviderInstanceBinding<?> binding) {
+            stats.providerBindings++;
+            return null;
+        }
+
+        @Override
+        public Object visit(ProviderKeyBinding<?> binding) {
+            stats.providerBindings++;
+            return null;
+        }
+
+        @Override
+        public Object visit(LinkedKeyBinding<?> binding) {
+            stats.linkedBindings++;
+            return null;
+        }
+
+        @Override
+        public Object visit(UntargettedBinding<?> binding) {
+            stats.untargettedBindings++;
+            return null;
+        }
+
+        @Override
+        public Object visit(ConstructorBinding<?> binding) {
+            //Injector turns untargetted bindings into constructor bindings
+            if (explicit && key.getAnnotationType() == null
+                    && key.getTypeLiteral().getRawType() == binding.getConstructor().getMember().getDeclaringClass()) {
+                stats.untargettedBindings++;
+            } else {
+                stats.constructorBindings++;
+            }
+            return null;
+        }
+    }
+
+    /**
+     * Counts singletons. Returns true for eager singletons.
+     */
+    private static class SingletonCounter implements BindingScopingVisitor<Boolean> {
+
+        private final InjectorStats stats;
+
+        SingletonCounter(InjectorStats stats) {
+            this.stats = stats;
+        }
+
+        public Boolean visitEagerSingleton() {
+            stats.eagerSingletons++;
+            return true;
+        }
+
+        public Boolean visitScope(Scope scope) {
+            if (scope == Scopes.SINGLETON) {
+                stats.singletons++;
+            }
+            return false;
+        }
+
+        public Boolean visitScopeAnnotation(Class<? extends Annotation> scopeAnnotation) {
+            if (scopeAnnotation == Singleton.class || scopeAnnotation == javax.inject.Singleton.class) {
+                stats.singletons++;
+            }
+            return false;
+        }
+
+        public Boolean visitNoScoping() {
+            return false;
+        }
+    }
+}
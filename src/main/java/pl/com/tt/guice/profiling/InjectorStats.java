@@ -0,0 +1,162 @@
+/*
+ * Copyright (c) 2012 Transition Technologies S.A.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package pl.com.tt.guice.profiling;
+
+/**
+ * Binding statistics and footprint of injector.
+ *
+ * @author Marek Piechut <m.piechut@tt.com.pl>
+ */
+public class InjectorStats {
+
+    int injectors = 1;
+    int bindings;
+    int jitBindings;
+    int instanceBindings;
+    int providerBindings;
+    int linkedBindings;
+    int constructorBindings;
+    int untargettedBindings;
+    int otherBindings;
+    int singletons;
+    int eagerSingletons;
+    long retainedBytes;
+
+    InjectorStats() {
+    }
+
+    /**
+     * Create summary of many injectors.
+     */
+    static InjectorStats summary() {
+        InjectorStats summary = new InjectorStats();
+        summary.injectors = 0;
+        return summary;
+    }
+
+    void add(InjectorStats other) {
+        injectors += other.injectors;
+        bindings += other.bindings;
+        jitBindings += other.jitBindings;
+        instanceBindings += other.instanceBindings;
+        providerBindings += other.providerBindings;
+        linkedBindings += other.linkedBindings;
+        constructorBindings += other.constructorBindings;
+        untargettedBindings += other.untargettedBindings;
+        otherBindings += other.otherBindings;
+        singletons += other.singletons;
+        eagerSingletons += other.eagerSingletons;
+        retainedBytes += other.retainedBytes;
+    }
+
+    /**
+     * Number of injectors (1 unless it's summary).
+     * @return number of injectors
+     */
+    public int getInjectors() {
+        return injectors;
+    }
+
+    /**
+     * Number of explicit bindings (from modules).
+     * @return number of explicit bindings
+     */
+    public int getBindings() {
+        return bindings;
+    }
+
+    /**
+     * Number of just in time bindings created so far.
+     * @return number of just in time bindings
+     */
+    public int getJitBindings() {
+        return jitBindings;
+    }
+
+    /**
+     * Number of bindings to instance (including constants).
+     * @return number of instance bindings
+     */
+    public int getInstanceBindings() {
+        return instanceBindings;
+    }
+
+    /**
+     * Number of bindings to provider instance, provider class or <code>@Provides</code> method.
+     * @return number of provider bindings
+     */
+    public int getProviderBindings() {
+        return providerBindings;
+    }
+
+    /**
+     * Number of bindings linked to other key.
+     * @return number of linked bindings
+     */
+    public int getLinkedBindings() {
+        return linkedBindings;
+    }
+
+    /**
+     * Number of bindings to constructor of other class, including just in time bindings.
+     * @return number of constructor bindings
+     */
+    public int getConstructorBindings() {
+        return constructorBindings;
+    }
+
+    /**
+     * Number of explicit bindings of class to it's own constructor (<code>bind(Service.class)</code>).
+     * @return number of untargetted bindings
+     */
+    public int getUntargettedBindings() {
+        return untargettedBindings;
+    }
+
+    /**
+     * Number of other bindings (converted constants, exposed from private modules etc.).
+     * @return number of other bindings
+     */
+    public int getOtherBindings() {
+        return otherBindings;
+    }
+
+    /**
+     * Number of bindings in singleton scope, without eager singletons.
+     * @return number of lazy singletons
+     */
+    public int getSingletons() {
+        return singletons;
+    }
+
+    /**
+     * Number of eager singletons.
+     * @return number of eager singletons
+     */
+    public int getEagerSingletons() {
+        return eagerSingletons;
+    }
+
+    /**
+     * Estimated heap retained by instances bound with instance bindings,
+     * by eager singletons and by lazy singletons created so far.
+     * @return estimated bytes
+     */
+    public long getRetainedBytes() {
+        return retainedBytes;
+    }
+}
@@ -0,0 +1,223 @@
+/*
+ * Copyright (c) 2012 Transition Technologies S.A.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package pl.com.tt.guice.profiling;
+
+import com.google.inject.Binder;
+import com.google.inject.Binding;
+import com.google.inject.ConfigurationException;
+import com.google.inject.Key;
+import com.google.inject.Module;
+import com.google.inject.Provider;
+import com.google.inject.Scope;
+import com.google.inject.binder.ScopedBindingBuilder;
+import com.google.inject.name.Named;
+import com.google.inject.name.Names;
+import com.google.inject.spi.BindingScopingVisitor;
+import com.google.inject.spi.DefaultBindingTargetVisitor;
+import com.google.inject.spi.DefaultElementVisitor;
+import com.google.inject.spi.Element;
+import com.google.inject.spi.Elements;
+import com.google.inject.spi.InjectionPoint;
+import com.google.inject.spi.LinkedKeyBinding;
+import com.google.inject.spi.ProviderInstanceBinding;
+import com.google.inject.spi.ProviderKeyBinding;
+import com.google.inject.spi.UntargettedBinding;
+import java.lang.annotation.Annotation;
+import java.lang.reflect.Constructor;
+
+/**
+ * Module that installs elements of wrapped module with provisioning
+ * of bindings measured by {@link ProvisionProfiler}.
+ * <p/>
+ * Every linked, provider and untargetted binding is moved to internal key
+ * and original key is bound to provider that measures calls to it. Scope
+ * of original binding is kept on original key. Instance and constant
+ * bindings, bindings from private modules and just in time bindings are not measured.
+ *
+ * @author Marek Piechut <m.piechut@tt.com.pl>
+ */
+class ProfilingModule implements Module {
+
+    private static final String INTERNAL_KEY_PREFIX = "guiceunit.profiled:";
+    private final Module base;
+
+    ProfilingModule(Module base) {
+        this.base = base;
+    }
+
+    public void configure(final Binder binder) {
+        for (Element element : Elements.getElements(base)) {
+            element.acceptVisitor(new DefaultElementVisitor<Void>() {
+
+                @Override
+                protected Void visitOther(Element element) {
+                    element.applyTo(binder);
+                    return null;
+                }
+
+                @Override
+                public <T> Void visit(Binding<T> binding) {
+                    profile(binder.withSource(binding.getSource()), binding);
+                    return null;
+                }
+            });
+        }
+    }
+
+    /**
+     * Check if key is internal key of profiled binding.
+     */
+    static boolean isInternal(Key<?> key) {
+        Annotation annotation = key.getAnnotation();
+        return annotation instanceof Named && ((Named) annotation).value().startsWith(INTERNAL_KEY_PREFIX);
+    }
+
+    /**
+     * Get internal key that target of profiled binding is moved to.
+     */
+    static <T> Key<T> getInternalKey(Key<T> key) {
+        return Key.get(key.getTypeLiteral(), Names.named(INTERNAL_KEY_PREFIX + key));
+    }
+
+    private <T> void profile(Binder binder, Binding<T> binding) {
+        Key<T> key = binding.getKey();
+        Key<T> internalKey = getInternalKey(key);
+        boolean moved = binding.acceptTargetVisitor(new InternalBinding<T>(binder, internalKey));
+        if (!moved) {
+            binding.applyTo(binder);
+            return;
+        }
+
+        Provider<T> internal = binder.getProvider(internalKey);
+        ScopedBindingBuilder builder = binder.bind(key).toProvider(new ProfilingProvider<T>(key, internal));
+        binding.acceptScopingVisitor(new ApplyScoping(builder));
+    }
+
+    /**
+     * Binds target of original binding to internal key.
+     * Returns false if binding can't be moved.
+     */
+    private static class InternalBinding<T> extends DefaultBindingTargetVisitor<T, Boolean> {
+
+        private final Binder binder;
+        private final Key<T> internalKey;
+
+        InternalBinding(Binder binder, Key<T> internalKey) {
+            this.binder = binder;
+            this.internalKey = internalKey;
+        }
+
+        @Override
+        protected Boolean visitOther(Binding<? extends T> binding) {
+            return false;
+        }
+
+        @Override
+        public Boolean visit(LinkedKeyBinding<? extends T> binding) {
+            binder.bind(internalKey).to(binding.getLinkedKey());
+            return true;
+        }
+
+        @Override
+        public Boolean visit(ProviderInstanceBinding<? extends T> binding) {
+            binder.bind(internalKey).toProvider(binding.getProviderInstance());
+            return true;
+        }
+
+        @Override
+        public Boolean visit(ProviderKeyBinding<? extends T> binding) {
+            binder.bind(internalKey).toProvider(binding.getProviderKey());
+            return true;
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        public Boolean visit(UntargettedBinding<? extends T> binding) {
+            try {
+                InjectionPoint constructor = InjectionPoint.forConstructorOf(internalKey.getTypeLiteral());
+                binder.bind(internalKey).toConstructor((Constructor<T>) constructor.getMember());
+                return true;
+            } catch (ConfigurationException ex) {
+                //Implemented or provided by other class, leave it to Guice
+                return false;
+            }
+        }
+    }
+
+    /**
+     * Applies scope of original binding to profiled one.
+     */
+    private static class ApplyScoping implements BindingScopingVisitor<Void> {
+
+        private final ScopedBindingBuilder builder;
+
+        ApplyScoping(ScopedBindingBuilder builder) {
+            this.builder = builder;
+        }
+
+        public Void visitEagerSingleton() {
+            builder.asEagerSingleton();
+            return null;
+        }
+
+        public Void visitScope(Scope scope) {
+            builder.in(scope);
+            return null;
+        }
+
+        public Void visitScopeAnnotation(Class<? extends Annotation> scopeAnnotation) {
+            builder.in(scopeAnnotation);
+            return null;
+        }
+
+        public Void visitNoScoping() {
+            return null;
+        }
+    }
+
+    /**
+     * Provider measuring provisioning of original binding.
+     */
+    private static class ProfilingProvider<T> implements Provider<T> {
+
+        private final Key<T> key;
+        private final Provider<T> delegate;
+
+        ProfilingProvider(Key<T> key, Provider<T> delegate) {
+            this.key = key;
+            this.delegate = delegate;
+        }
+
+        public T get() {
+            long allocatedBefore = ProvisionProfiler.allocatedBytes();
+            long start = System.nanoTime();
+            try {
+                return delegate.get();
+            } finally {
+                long time = System.nanoTime() - start;
+                long allocatedAfter = ProvisionProfiler.allocatedBytes();
+                long allocated = allocatedBefore < 0 ? -1 : allocatedAfter - allocatedBefore;
+                ProvisionProfiler.record(key, time, allocated);
+            }
+        }
+
+        @Override
+        public String toString() {
+            return "ProfilingProvider[" + delegate + "]";
+        }
+    }
+}
@@ -0,0 +1,218 @@
+/*
+ * Copyright (c) 2012 Transition Technologies S.A.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package pl.com.tt.guice.profiling;
+
+import com.google.inject.Key;
+import com.google.inject.Module;
+import java.io.File;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Profiler of objects provisioning by Guice injectors.
+ * <p/>
+ * Enabled with {@link #PROPERTY} system property. When enabled, modules used
+ * by {@link pl.com.tt.guice.InjectorFactory} and GuiceUnit test runner are wrapped
+ * so every provision of bound key is measured: number of provisions, total
+ * and max time and allocated bytes (if JVM supports measuring thread allocations).
+ * Times include provisioning of dependencies.
+ * <p/>
+ * Results are grouped by context (test class name when executed by GuiceUnit)
+ * and written as JSON and HTML to directory from {@link #DIR_PROPERTY} system
+ * property when JVM exits.
+ *
+ * @author Marek Piechut <m.piechut@tt.com.pl>
+ */
+@Slf4j
+public class ProvisionProfiler {
+
+    /**
+     * System property enabling profiler.
+     */
+    public static final String PROPERTY = "guiceunit.profile";
+    /**
+     * System property with directory for reports.
+     * Defaults to <code>target/guiceunit-profile</code>.
+     */
+    public static final String DIR_PROPERTY = "guiceunit.profile.dir";
+    /**
+     * Context of provisions done outside of any test class.
+     */
+    public static final String DEFAULT_CONTEXT = "<default>";
+    private static final ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+    private static final boolean allocationsSupported = isAllocationsSupported();
+    private static final ThreadLocal<String> context = new ThreadLocal<String>();
+    /**
+     * Statistics by class loader of bound type, context name and key name. Keys are
+     * stored by name, as {@link Key} references classes that would keep class loader.
+     * Statistics of class loaders that were collected (finished test runs) are dropped.
+     */
+    private static final Map<ClassLoader, ConcurrentMap<String, ConcurrentMap<String, ProvisionStats>>> stats =
+            new WeakHashMap<ClassLoader, ConcurrentMap<String, ConcurrentMap<String, ProvisionStats>>>();
+    private static boolean reportScheduled;
+
+    private ProvisionProfiler() {
+    }
+
+    /**
+     * Check if profiler is enabled.
+     *
+     * @return true if {@link #PROPERTY} is set to true
+     */
+    public static boolean isEnabled() {
+        return Boolean.getBoolean(PROPERTY);
+    }
+
+    /**
+     * Wrap module so provisions of it's bindings are measured.
+     * Returns passed in module if profiler is not enabled.
+     *
+     * @param module module to wrap
+     * @return profiled module
+     */
+    public static Module wrap(Module module) {
+        if (!isEnabled()) {
+            return module;
+        }
+        scheduleReport();
+        return new ProfilingModule(module);
+    }
+
+    /**
+     * Set context of provisions done by current thread.
+     *
+     * @param name context name, null for default one
+     * @return previous context name
+     */
+    public static String setContext(String name) {
+        String previous = context.get();
+        if (name == null) {
+            context.remove();
+        } else {
+            context.set(name);
+        }
+        return previous;
+    }
+
+    /**
+     * Get statistics recorded so far, for keys from all class loaders
+     * that were not collected yet.
+     *
+     * @return statistics by context name and key name
+     */
+    public static Map<String, ? extends Map<String, ProvisionStats>> getStats() {
+        Map<String, Map<String, ProvisionStats>> all = new HashMap<String, Map<String, ProvisionStats>>();
+        synchronized (stats) {
+            for (Map<String, ConcurrentMap<String, ProvisionStats>> classLoaderStats : stats.values()) {
+                for (Map.Entry<String, ConcurrentMap<String, ProvisionStats>> entry : classLoaderStats.entrySet()) {
+                    Map<String, ProvisionStats> contextStats = all.get(entry.getKey());
+                    if (contextStats == null) {
+                        contextStats = new HashMap<String, ProvisionStats>();
+                        all.put(entry.getKey(), contextStats);
+                    }
+                    contextStats.putAll(entry.getValue());
+                }
+            }
+        }
+        return all;
+    }
+
+    static void record(Key<?> key, long time, long allocated) {
+        String name = context.get();
+        if (name == null) {
+            name = DEFAULT_CONTEXT;
+        }
+
+        ConcurrentMap<String, ConcurrentMap<String, ProvisionStats>> classLoaderStats;
+        ClassLoader classLoader = key.getTypeLiteral().getRawType().getClassLoader();
+        synchronized (stats) {
+            classLoaderStats = stats.get(classLoader);
+            if (classLoaderStats == null) {
+                classLoaderStats = new ConcurrentHashMap<String, ConcurrentMap<String, ProvisionStats>>();
+                stats.put(classLoader, classLoaderStats);
+            }
+        }
+
+        ConcurrentMap<String, ProvisionStats> contextStats = classLoaderStats.get(name);
+        if (contextStats == null) {
+            contextStats = new ConcurrentHashMap<String, ProvisionStats>();
+            ConcurrentMap<String, ProvisionStats> previous = classLoaderStats.putIfAbsent(name, contextStats);
+            if (previous != null) {
+                contextStats = previous;
+            }
+        }
+
+        String keyName = key.toString();
+        ProvisionStats keyStats = contextStats.get(keyName);
+        if (keyStats == null) {
+            keyStats = new ProvisionStats();
+            ProvisionStats previous = contextStats.putIfAbsent(keyName, keyStats);
+            if (previous != null) {
+                keyStats = previous;
+            }
+        }
+        keyStats.record(time, allocated);
+    }
+
+    /**
+     * Bytes allocated so far by current thread.
+     *
+     * @return allocated bytes or -1 if not supported
+     */
+    public static long allocatedBytes() {
+        if (!allocationsSupported) {
+            return -1;
+        }
+        return ((com.sun.management.ThreadMXBean) threads).getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+
+    private static boolean isAllocationsSupported() {
+        try {
+            return threads instanceof com.sun.management.ThreadMXBean
+                    && ((com.sun.management.ThreadMXBean) threads).isThreadAllocatedMemoryEnabled();
+        } catch (Throwable ex) {
+            //Not HotSpot
+            return false;
+        }
+    }
+
+    private static synchronized void scheduleReport() {
+        if (reportScheduled) {
+            return;
+        }
+        reportScheduled = true;
+        Runtime.getRuntime().addShutdownHook(new Thread("GuiceUnit provision report") {
+
+            @Override
+            public void run() {
+                File dir = new File(System.getProperty(DIR_PROPERTY, "target/guiceunit-profile"));
+                try {
+                    new ProvisionReport(getStats()).write(dir);
+                } catch (IOException ex) {
+                    log.error("Could not write provision report to: " + dir, ex);
+                }
+            }
+        });
+    }
+}
@@ -0,0 +1,155 @@
+/*
+ * Copyright (c) 2012 Transition Technologies S.A.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package pl.com.tt.guice.profiling;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Writes provisioning statistics as JSON (<code>provisions.json</code>)
+ * and HTML (<code>provisions.html</code>) files.
+ * <p/>
+ * Both contain statistics for each context (test class) and summary
+ * for whole run. Keys are sorted by total provisioning time.
+ *
+ * @author Marek Piechut <m.piechut@tt.com.pl>
+ */
+class ProvisionReport {
+
+    static final String RUN_CONTEXT = "<run>";
+    private final Map<String, Map<String, ProvisionStats>> contexts = new TreeMap<String, Map<String, ProvisionStats>>();
+
+    ProvisionReport(Map<String, ? extends Map<String, ProvisionStats>> stats) {
+        Map<String, ProvisionStats> run = new HashMap<String, ProvisionStats>();
+        for (Map.Entry<String, ? extends Map<String, ProvisionStats>> entry : stats.entrySet()) {
+            contexts.put(entry.getKey(), entry.getValue());
+            for (Map.Entry<String, ProvisionStats> keyStats : entry.getValue().entrySet()) {
+                ProvisionStats runStats = run.get(keyStats.getKey());
+                if (runStats == null) {
+                    runStats = new ProvisionStats();
+                    run.put(keyStats.getKey(), runStats);
+                }
+                runStats.add(keyStats.getValue());
+            }
+        }
+        contexts.put(RUN_CONTEXT, run);
+    }
+
+    void write(File dir)
+            throws IOException {
+        if (!dir.isDirectory() && !dir.mkdirs()) {
+            throw new IOException("Could not create directory: " + dir);
+        }
+        PrintWriter json = open(new File(dir, "provisions.json"));
+        try {
+            writeJson(json);
+        } finally {
+            json.close();
+        }
+        PrintWriter html = open(new File(dir, "provisions.html"));
+        try {
+            writeHtml(html);
+        } finally {
+            html.close();
+        }
+    }
+
+    void writeJson(PrintWriter out) {
+        out.println("{");
+        int contextIndex = 0;
+        for (Map.Entry<String, Map<String, ProvisionStats>> context : contexts.entrySet()) {
+            out.print("  \"" + escapeJson(context.getKey()) + "\": [");
+            int keyIndex = 0;
+            for (Map.Entry<String, ProvisionStats> entry : sorted(context.getValue())) {
+                ProvisionStats stats = entry.getValue();
+                out.print(keyIndex++ == 0 ? "\n" : ",\n");
+                out.print("    {\"key\": \"" + escapeJson(entry.getKey()) + "\""
+                        + ", \"count\": " + stats.getCount()
+                        + ", \"totalNanos\": " + stats.getTotalNanos()
+                        + ", \"maxNanos\": " + stats.getMaxNanos()
+                        + ", \"allocatedBytes\": " + stats.getAllocatedBytes() + "}");
+            }
+            out.print("\n  ]");
+            out.println(++contextIndex < contexts.size() ? "," : "");
+        }
+        out.println("}");
+    }
+
+    void writeHtml(PrintWriter out) {
+        out.println("<!DOCTYPE html>");
+        out.println("<html><head><meta charset=\"UTF-8\"><title>GuiceUnit provisions</title></head><body>");
+        for (Map.Entry<String, Map<String, ProvisionStats>> context : contexts.entrySet()) {
+            out.println("<h2>" + escapeHtml(context.getKey()) + "</h2>");
+            out.println("<table border=\"1\"><tr><th>Key</th><th>Count</th><th>Total [ms]</th>"
+                    + "<th>Max [ms]</th><th>Allocated [bytes]</th></tr>");
+            for (Map.Entry<String, ProvisionStats> entry : sorted(context.getValue())) {
+                ProvisionStats stats = entry.getValue();
+                out.println(String.format("<tr><td>%s</td><td>%d</td><td>%.3f</td><td>%.3f</td><td>%d</td></tr>",
+                        escapeHtml(entry.getKey()), stats.getCount(), stats.getTotalNanos() / 1e6,
+                        stats.getMaxNanos() / 1e6, stats.getAllocatedBytes()));
+            }
+            out.println("</table>");
+        }
+        out.println("</body></html>");
+    }
+
+    private static List<Map.Entry<String, ProvisionStats>> sorted(Map<String, ProvisionStats> stats) {
+        List<Map.Entry<String, ProvisionStats>> entries = new ArrayList<Map.Entry<String, ProvisionStats>>(stats.entrySet());
+        Collections.sort(entries, new Comparator<Map.Entry<String, ProvisionStats>>() {
+
+            public int compare(Map.Entry<String, ProvisionStats> o1, Map.Entry<String, ProvisionStats> o2) {
+                long t1 = o1.getValue().getTotalNanos();
+                long t2 = o2.getValue().getTotalNanos();
+                return t1 < t2 ? 1 : (t1 == t2 ? 0 : -1);
+            }
+        });
+        return entries;
+    }
+
+    private static PrintWriter open(File file)
+            throws IOException {
+        return new PrintWriter(new OutputStreamWriter(new FileOutputStream(file), "UTF-8"));
+    }
+
+    private static String escapeJson(String value) {
+        StringBuilder escaped = new StringBuilder(value.length());
+        for (char c : value.toCharArray()) {
+            if (c == '"' || c == '\\') {
+                escaped.append('\\').append(c);
+            } else if (c < ' ') {
+                escaped.append(String.format("\\u%04x", (int) c));
+            } else {
+                escaped.append(c);
+            }
+        }
+        return escaped.toString();
+    }
+
+    private static String escapeHtml(String value) {
+        return value.replace("&", "&amp;").replace("<", "&lt;").replace(">", "&gt;");
+    }
+}
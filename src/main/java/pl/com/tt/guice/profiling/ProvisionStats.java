@@ -0,0 +1,85 @@
+/*
+ * Copyright (c) 2012 Transition Technologies S.A.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package pl.com.tt.guice.profiling;
+
+/**
+ * Provisioning statistics of single key.
+ *
+ * @author Marek Piechut <m.piechut@tt.com.pl>
+ */
+public class ProvisionStats {
+
+    private long count;
+    private long totalNanos;
+    private long maxNanos;
+    private long allocatedBytes;
+    private boolean allocationsMeasured = true;
+
+    synchronized void record(long nanos, long allocated) {
+        count++;
+        totalNanos += nanos;
+        maxNanos = Math.max(maxNanos, nanos);
+        if (allocated < 0) {
+            allocationsMeasured = false;
+        } else {
+            allocatedBytes += allocated;
+        }
+    }
+
+    synchronized void add(ProvisionStats other) {
+        count += other.getCount();
+        totalNanos += other.getTotalNanos();
+        maxNanos = Math.max(maxNanos, other.getMaxNanos());
+        if (other.getAllocatedBytes() < 0) {
+            allocationsMeasured = false;
+        } else {
+            allocatedBytes += other.getAllocatedBytes();
+        }
+    }
+
+    /**
+     * Number of provisions.
+     * @return
+     */
+    public synchronized long getCount() {
+        return count;
+    }
+
+    /**
+     * Total time of all provisions in nanoseconds.
+     * @return
+     */
+    public synchronized long getTotalNanos() {
+        return totalNanos;
+    }
+
+    /**
+     * Time of longest provision in nanoseconds.
+     * @return
+     */
+    public synchronized long getMaxNanos() {
+        return maxNanos;
+    }
+
+    /**
+     * Bytes allocated by all provisions.
+     * @return allocated bytes or -1 if not measured
+     */
+    public synchronized long getAllocatedBytes() {
+        return allocationsMeasured ? allocatedBytes : -1;
+    }
+}
@@ -0,0 +1,74 @@
+/*
+ * Copyright (c) 2012 Transition Technologies S.A.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package pl.com.tt.guice.reflections;
+
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.HashSet;
+import java.util.Set;
+import javassist.bytecode.ClassFile;
+import org.reflections.util.Utils;
+
+/**
+ * Find classes referenced from class bytecode.
+ *
+ * <p/>
+ * Reads class constant pool with JavaAssist, so referenced classes
+ * don't need to be loaded.
+ *
+ * @author Marek Piechut <m.piechut@tt.com.pl>
+ */
+public class ClassReferences {
+
+    private ClassReferences() {
+    }
+
+    /**
+     * Get names of all classes referenced from constant pool of passed in
+     * class and it's superclasses.
+     *
+     * @param cls class to check
+     * @return binary names of referenced classes
+     * @throws IOException if could not read class file
+     */
+    @SuppressWarnings("unchecked")
+    public static Set<String> getReferencedClassNames(Class<?> cls)
+            throws IOException {
+        Set<String> classNames = new HashSet<String>();
+        for (Class<?> current = cls; current != null && current != Object.class; current = current.getSuperclass()) {
+            String resource = "/" + current.getName().replace('.', '/') + ".class";
+            InputStream stream = current.getResourceAsStream(resource);
+            if (stream == null) {
+                continue;
+            }
+            try {
+                ClassFile classFile = new ClassFile(new DataInputStream(stream));
+                for (String name : (Set<String>) classFile.getConstPool().getClassNames()) {
+                    //Skip array types, only their element types are interesting
+                    if (!name.startsWith("[")) {
+                        classNames.add(name.replace('/', '.'));
+                    }
+                }
+            } finally {
+                Utils.close(stream);
+            }
+        }
+
+        return classNames;
+    }
+}
@@ -0,0 +1,51 @@
+/*
+ * Copyright (c) 2012 Transition Technologies S.A.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package pl.com.tt.guice.reflections;
+
+import com.google.common.base.Predicate;
+
+/**
+ * Input filter for Reflections that counts accepted class files.
+ *
+ * @author Marek Piechut <m.piechut@tt.com.pl>
+ */
+public class CountingFilter implements Predicate<String> {
+
+    private final Predicate<String> filter;
+    private int accepted;
+
+    public CountingFilter(Predicate<String> filter) {
+        this.filter = filter;
+    }
+
+    public boolean apply(String input) {
+        boolean accept = filter.apply(input);
+        if (accept && input.endsWith(".class")) {
+            accepted++;
+        }
+        return accept;
+    }
+
+    /**
+     * Number of accepted class files.
+     *
+     * @return number of classes
+     */
+    public int getAccepted() {
+        return accepted;
+    }
+}
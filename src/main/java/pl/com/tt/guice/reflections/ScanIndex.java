@@ -0,0 +1,214 @@
+/*
+ * Copyright (c) 2012 Transition Technologies S.A.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package pl.com.tt.guice.reflections;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import org.reflections.ReflectionUtils;
+
+/**
+ * Compact result of classpath scan.
+ * <p/>
+ * Keeps only names of interesting classes (modules and classes with static
+ * injections) and table of their flags indexed by class id. Classes are not
+ * loaded by scan, they are resolved only when asked for, so index itself
+ * does not reference any class loader.
+ *
+ * @see ScanIndexScanner
+ * @author Marek Piechut <m.piechut@tt.com.pl>
+ */
+public class ScanIndex {
+
+    /**
+     * Class is a Guice module.
+     */
+    public static final int MODULE = 1;
+    /**
+     * Module is annotated with {@link pl.com.tt.guice.MasterModule}.
+     */
+    public static final int MASTER_MODULE = 1 << 1;
+    /**
+     * Module is annotated with {@link pl.com.tt.guice.TestModule}.
+     */
+    public static final int TEST_MODULE = 1 << 2;
+    /**
+     * Module is annotated with {@link pl.com.tt.guice.DevelopmentModule}.
+     */
+    public static final int DEVELOPMENT_MODULE = 1 << 3;
+    /**
+     * Class has static fields annotated with {@link javax.inject.Inject}.
+     */
+    public static final int STATIC_INJECT = 1 << 4;
+    private final String[] names;
+    private final byte[] flags;
+    /**
+     * Class ids by name, created when first needed.
+     */
+    private Map<String, Integer> ids;
+
+    ScanIndex(String[] names, byte[] flags) {
+        this.names = names;
+        this.flags = flags;
+    }
+
+    /**
+     * Number of classes in index.
+     *
+     * @return number of classes
+     */
+    public int size() {
+        return names.length;
+    }
+
+    /**
+     * Get binary name of class.
+     *
+     * @param id class id, from 0 to {@link #size()} - 1
+     * @return class name
+     */
+    public String getName(int id) {
+        return names[id];
+    }
+
+    /**
+     * Get id of class.
+     *
+     * @param name binary name of class
+     * @return class id or -1 if class is not in index
+     */
+    public synchronized int getId(String name) {
+        if (ids == null) {
+            ids = new HashMap<String, Integer>(names.length * 2);
+            for (int id = 0; id < names.length; id++) {
+                ids.put(names[id], id);
+            }
+        }
+        Integer id = ids.get(name);
+        return id == null ? -1 : id;
+    }
+
+    /**
+     * Get type of module, in order of precedence: {@link #TEST_MODULE},
+     * {@link #DEVELOPMENT_MODULE} or {@link #MASTER_MODULE}.
+     *
+     * @param id class id
+     * @return module type or 0 for production module
+     */
+    public int getModuleType(int id) {
+        return getModuleTypeOf(flags[id]);
+    }
+
+    /**
+     * Get type of module with passed in flags, see {@link #getModuleType(int)}.
+     *
+     * @param flags module flags
+     * @return module type or 0 for production module
+     */
+    public static int getModuleTypeOf(int flags) {
+        if ((flags & TEST_MODULE) != 0) {
+            return TEST_MODULE;
+        } else if ((flags & DEVELOPMENT_MODULE) != 0) {
+            return DEVELOPMENT_MODULE;
+        } else if ((flags & MASTER_MODULE) != 0) {
+            return MASTER_MODULE;
+        }
+        return 0;
+    }
+
+    /**
+     * Check if class has all passed in flags.
+     *
+     * @param id class id
+     * @param flag flags to check
+     * @return true if class has flags
+     */
+    public boolean is(int id, int flag) {
+        return (flags[id] & flag) == flag;
+    }
+
+    /**
+     * Get names of classes with passed in flags.
+     *
+     * @param flag flags to check
+     * @return class names
+     */
+    public List<String> getNames(int flag) {
+        List<String> result = new ArrayList<String>();
+        for (int id = 0; id < names.length; id++) {
+            if (is(id, flag)) {
+                result.add(names[id]);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Load classes with passed in flags.
+     *
+     * @param flag flags to check
+     * @param classLoaders class loaders to use, default ones if none passed in
+     * @return loaded classes
+     */
+    public List<Class<?>> getClasses(int flag, ClassLoader... classLoaders) {
+        List<Class<?>> result = new ArrayList<Class<?>>();
+        for (int id = 0; id < names.length; id++) {
+            if (is(id, flag)) {
+                result.add(ReflectionUtils.forName(names[id], classLoaders));
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Write index, so it can be read with {@link #read(DataInput)}.
+     *
+     * @param out output to write to
+     * @throws IOException if could not write
+     */
+    public void write(DataOutput out)
+            throws IOException {
+        out.writeInt(names.length);
+        for (int id = 0; id < names.length; id++) {
+            out.writeUTF(names[id]);
+            out.writeByte(flags[id]);
+        }
+    }
+
+    /**
+     * Read index written with {@link #write(DataOutput)}.
+     *
+     * @param in input to read from
+     * @return read index
+     * @throws IOException if could not read
+     */
+    public static ScanIndex read(DataInput in)
+            throws IOException {
+        int size = in.readInt();
+        String[] names = new String[size];
+        byte[] flags = new byte[size];
+        for (int id = 0; id < size; id++) {
+            names[id] = in.readUTF();
+            flags[id] = in.readByte();
+        }
+        return new ScanIndex(names, flags);
+    }
+}
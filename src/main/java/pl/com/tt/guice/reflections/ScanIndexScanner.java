@@ -0,0 +1,181 @@
+/*
+ * Copyright (c) 2012 Transition Technologies S.A.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package pl.com.tt.guice.reflections;
+
+import com.google.inject.AbstractModule;
+import com.google.inject.Module;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import javassist.bytecode.AccessFlag;
+import javassist.bytecode.FieldInfo;
+import javax.inject.Inject;
+import org.reflections.scanners.AbstractScanner;
+import pl.com.tt.guice.DevelopmentModule;
+import pl.com.tt.guice.MasterModule;
+import pl.com.tt.guice.TestModule;
+
+/**
+ * Scanner building {@link ScanIndex} in single pass over classpath.
+ * <p/>
+ * Nothing is put to Reflections store. Class names are kept once
+ * (as ids) while scanning, with only supertypes of module candidates
+ * remembered to find modules that extend other modules.
+ * Module candidates are only classes with <code>Module</code> in name.
+ *
+ * <p/>
+ * <strong>It assumes that Reflections uses JavaAssist.</strong>
+ *
+ * @author Marek Piechut <m.piechut@tt.com.pl>
+ */
+public class ScanIndexScanner extends AbstractScanner {
+
+    private static final int[] NO_IDS = new int[0];
+    private final boolean staticInjects;
+    private final Map<String, Integer> ids = new HashMap<String, Integer>();
+    private final List<String> names = new ArrayList<String>();
+    private byte[] flags = new byte[256];
+    /**
+     * Scanned module candidates, with ids of their supertypes.
+     */
+    private final Map<Integer, int[]> supertypes = new HashMap<Integer, int[]>();
+
+    /**
+     * @param staticInjects if classes with static injections should be indexed
+     */
+    public ScanIndexScanner(boolean staticInjects) {
+        this.staticInjects = staticInjects;
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public void scan(Object cls) {
+        String className = getMetadataAdapter().getClassName(cls);
+        if (className.contains("Module")) {
+            int id = id(className);
+            List<String> interfaces = getMetadataAdapter().getInterfacesNames(cls);
+            int[] supertypeIds = new int[interfaces.size() + 1];
+            supertypeIds[0] = id(getMetadataAdapter().getSuperclassName(cls));
+            for (int i = 0; i < interfaces.size(); i++) {
+                supertypeIds[i + 1] = id(interfaces.get(i));
+            }
+            supertypes.put(id, supertypeIds);
+
+            for (String annotation : (List<String>) getMetadataAdapter().getClassAnnotationNames(cls)) {
+                if (annotation.equals(MasterModule.class.getName())) {
+                    flags[id] |= ScanIndex.MASTER_MODULE;
+                } else if (annotation.equals(TestModule.class.getName())) {
+                    flags[id] |= ScanIndex.TEST_MODULE;
+                } else if (annotation.equals(DevelopmentModule.class.getName())) {
+                    flags[id] |= ScanIndex.DEVELOPMENT_MODULE;
+                }
+            }
+        }
+
+        if (staticInjects && hasStaticInject(cls)) {
+            int id = id(className);
+            flags[id] |= ScanIndex.STATIC_INJECT;
+        }
+    }
+
+    /**
+     * Get index of scanned classes.
+     * Only modules and classes with static injections are kept.
+     *
+     * @return index
+     */
+    public ScanIndex getIndex() {
+        int moduleId = id(Module.class.getName());
+        int abstractModuleId = id(AbstractModule.class.getName());
+        //0 - not checked yet, 1 - module, -1 - not a module
+        byte[] modules = new byte[names.size()];
+        modules[moduleId] = 1;
+        modules[abstractModuleId] = 1;
+
+        List<String> indexNames = new ArrayList<String>();
+        List<Byte> indexFlags = new ArrayList<Byte>();
+        for (int id = 0; id < names.size(); id++) {
+            if (id == moduleId || id == abstractModuleId) {
+                continue;
+            }
+            int classFlags = flags[id];
+            if (supertypes.containsKey(id) && isModule(id, modules)) {
+                classFlags |= ScanIndex.MODULE;
+            } else {
+                classFlags &= ~(ScanIndex.MASTER_MODULE | ScanIndex.TEST_MODULE | ScanIndex.DEVELOPMENT_MODULE);
+            }
+            if (classFlags != 0) {
+                indexNames.add(names.get(id));
+                indexFlags.add((byte) classFlags);
+            }
+        }
+
+        byte[] compactFlags = new byte[indexFlags.size()];
+        for (int i = 0; i < compactFlags.length; i++) {
+            compactFlags[i] = indexFlags.get(i);
+        }
+        return new ScanIndex(indexNames.toArray(new String[indexNames.size()]), compactFlags);
+    }
+
+    /**
+     * Check if class is a module, extending or implementing Guice module
+     * directly or through other scanned modules.
+     */
+    private boolean isModule(int id, byte[] modules) {
+        if (modules[id] != 0) {
+            return modules[id] > 0;
+        }
+        //Mark as not a module while checking, in case of cycles
+        modules[id] = -1;
+        int[] supertypeIds = supertypes.get(id);
+        for (int supertypeId : supertypeIds == null ? NO_IDS : supertypeIds) {
+            if (isModule(supertypeId, modules)) {
+                modules[id] = 1;
+                return true;
+            }
+        }
+        return false;
+    }
+
+    @SuppressWarnings("unchecked")
+    private boolean hasStaticInject(Object cls) {
+        for (Object field : getMetadataAdapter().getFields(cls)) {
+            FieldInfo fieldInfo = (FieldInfo) field;
+            if ((fieldInfo.getAccessFlags() & AccessFlag.STATIC) != 0
+                    && getMetadataAdapter().getFieldAnnotationNames(field).contains(Inject.class.getName())) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private int id(String name) {
+        Integer id = ids.get(name);
+        if (id == null) {
+            id = names.size();
+            names.add(name);
+            ids.put(name, id);
+            if (id == flags.length) {
+                byte[] grown = new byte[flags.length * 2];
+                System.arraycopy(flags, 0, grown, 0, flags.length);
+                flags = grown;
+            }
+        }
+        return id;
+    }
+}
@@ -34,7 +34,11 @@ import org.reflections.scanners.Scanner;
  *
  * @see Scanner
  * @author Marek Piechut <m.piechut@tt.com.pl>
+ * @deprecated Not used by GuiceUnit any more. Classes with static injections are found
+ * by {@link ScanIndexScanner} together with modules, use
+ * {@link pl.com.tt.guice.InjectorFactory#indexClasspath(java.util.Set, boolean)}.
  */
+@Deprecated
 public class StaticFieldAnnotationsScanner extends FieldAnnotationsScanner {
 
     @Override
@@ -0,0 +1,195 @@
+/*
+ * Copyright (c) 2012 Transition Technologies S.A.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package pl.com.tt.guice;
+
+import com.google.inject.AbstractModule;
+import com.google.inject.CreationException;
+import com.google.inject.Injector;
+import com.google.inject.Key;
+import com.google.inject.Module;
+import com.google.inject.name.Names;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import org.junit.Test;
+import pl.com.tt.guice.InjectorFactory.MODE;
+import static org.junit.Assert.*;
+
+/**
+ * Test of modules configured by other modules skipped in combined module.
+ * Fixtures are nested in class without <code>Module</code> in name, so classpath
+ * scan of other tests does not find them.
+ *
+ * @author Marek Piechut <m.piechut@tt.com.pl>
+ */
+public class DeduplicatorTest {
+
+    @Test
+    public void testInstalledSkipped()
+            throws Exception {
+        ModuleDeduplicator deduplicator = new ModuleDeduplicator();
+        List<Module> modules = deduplicate(deduplicator, Installed.class, Installing.class);
+
+        assertEquals(1, modules.size());
+        assertEquals("installed by " + Installing.class.getName(), deduplicator.getSkipped().get(Installed.class));
+    }
+
+    @Test
+    public void testExtendedSkipped()
+            throws Exception {
+        ModuleDeduplicator deduplicator = new ModuleDeduplicator();
+        List<Module> modules = deduplicate(deduplicator, Installed.class, Extending.class);
+
+        assertEquals(1, modules.size());
+        assertEquals("extended by " + Extending.class.getName(), deduplicator.getSkipped().get(Installed.class));
+    }
+
+    @Test
+    public void testDifferentKept()
+            throws Exception {
+        ModuleDeduplicator deduplicator = new ModuleDeduplicator();
+        List<Module> modules = deduplicate(deduplicator, Installing.class, Other.class);
+
+        assertEquals(2, modules.size());
+        assertTrue(deduplicator.getSkipped().isEmpty());
+    }
+
+    /**
+     * Without deduplication Guice 3 fails because of bindings configured twice.
+     */
+    @Test
+    public void testInjector()
+            throws Exception {
+        Injector injector = InjectorFactory.createInjector(Arrays.<Class<? extends Module>>asList(
+                Installed.class, Installing.class, Extending.class, Other.class, OtherInstalling.class), MODE.PROD);
+
+        assertEquals("installed", injector.getInstance(Key.get(String.class, Names.named("installed"))));
+        assertEquals("installing", injector.getInstance(Key.get(String.class, Names.named("installing"))));
+        assertEquals("other", injector.getInstance(Key.get(String.class, Names.named("other"))));
+    }
+
+    /**
+     * Module installed in the same place with different bindings is not a duplicate.
+     */
+    @Test
+    public void testConflictKept()
+            throws Exception {
+        ModuleDeduplicator deduplicator = new ModuleDeduplicator();
+        List<Module> modules = deduplicate(deduplicator, FirstValue.class, SecondValue.class);
+
+        assertEquals(2, modules.size());
+        assertTrue(deduplicator.getSkipped().isEmpty());
+    }
+
+    /**
+     * Guice should still report conflicting bindings.
+     */
+    @Test(expected = CreationException.class)
+    public void testConflictReported()
+            throws Exception {
+        InjectorFactory.createInjector(Arrays.<Class<? extends Module>>asList(FirstValue.class, SecondValue.class),
+                MODE.PROD);
+    }
+
+    private static List<Module> deduplicate(ModuleDeduplicator deduplicator, Class<? extends Module>... moduleClasses)
+            throws Exception {
+        List<Module> modules = new ArrayList<Module>();
+        for (Class<? extends Module> moduleClass : moduleClasses) {
+            modules.add(moduleClass.newInstance());
+        }
+        return deduplicator.deduplicate(Arrays.asList(moduleClasses), modules);
+    }
+
+    public static class Installed extends AbstractModule {
+
+        @Override
+        protected void configure() {
+            bind(String.class).annotatedWith(Names.named("installed")).toInstance("installed");
+        }
+    }
+
+    public static class Installing extends AbstractModule {
+
+        @Override
+        protected void configure() {
+            install(new Installed());
+            bind(String.class).annotatedWith(Names.named("installing")).toInstance("installing");
+        }
+    }
+
+    public static class Extending extends Installed {
+
+        @Override
+        protected void configure() {
+            super.configure();
+            bind(String.class).annotatedWith(Names.named("extending")).toInstance("extending");
+        }
+    }
+
+    public static class Other extends AbstractModule {
+
+        @Override
+        protected void configure() {
+            bind(String.class).annotatedWith(Names.named("other")).toInstance("other");
+        }
+    }
+
+    /**
+     * Installs the same module as other found module, but is not subset of it.
+     */
+    public static class OtherInstalling extends AbstractModule {
+
+        @Override
+        protected void configure() {
+            install(new Installed());
+            bind(Integer.class).toInstance(1);
+        }
+    }
+
+    public static class FirstValue extends AbstractModule {
+
+        @Override
+        protected void configure() {
+            install(new Value("first"));
+        }
+    }
+
+    public static class SecondValue extends AbstractModule {
+
+        @Override
+        protected void configure() {
+            install(new Value("second"));
+        }
+    }
+
+    /**
+     * Binds passed in value, always in the same place.
+     */
+    static class Value extends AbstractModule {
+
+        private final String value;
+
+        Value(String value) {
+            this.value = value;
+        }
+
+        @Override
+        protected void configure() {
+            bindConstant().annotatedWith(Names.named("value")).to(value);
+        }
+    }
+}
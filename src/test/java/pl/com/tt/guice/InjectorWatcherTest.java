@@ -0,0 +1,221 @@
+/*
+ * Copyright (c) 2012 Transition Technologies S.A.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package pl.com.tt.guice;
+
+import com.google.inject.Injector;
+import com.google.inject.Key;
+import com.google.inject.name.Names;
+import java.io.File;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Collections;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import javassist.ClassPool;
+import javassist.CtClass;
+import javassist.CtNewConstructor;
+import javassist.LoaderClassPath;
+import javassist.bytecode.AccessFlag;
+import javassist.bytecode.AnnotationsAttribute;
+import javassist.bytecode.Bytecode;
+import javassist.bytecode.ClassFile;
+import javassist.bytecode.ConstPool;
+import javassist.bytecode.MethodInfo;
+import javassist.bytecode.Opcode;
+import javassist.bytecode.annotation.Annotation;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import pl.com.tt.guice.InjectorFactory.MODE;
+import static org.junit.Assert.*;
+
+/**
+ * Test of injector rebuilt when modules in watched directory change.
+ *
+ * @author Marek Piechut <m.piechut@tt.com.pl>
+ */
+public class InjectorWatcherTest {
+
+    private static final Key<String> WATCHED = Key.get(String.class, Names.named("watched"));
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+    private final BlockingQueue<Injector> reloaded = new LinkedBlockingQueue<Injector>();
+    private InjectorWatcher watcher;
+
+    @Before
+    public void setUp()
+            throws Exception {
+        writeModule("watched.WatchedModule", null, "first");
+        watcher = InjectorWatcher.start(MODE.DEV, Collections.singleton(folder.getRoot().toURI().toURL()));
+        watcher.addListener(new InjectorReloadListener() {
+
+            public void injectorReloaded(Injector injector) {
+                reloaded.add(injector);
+            }
+        });
+    }
+
+    @After
+    public void tearDown()
+            throws Exception {
+        if (watcher != null) {
+            watcher.close();
+        }
+    }
+
+    @Test
+    public void testInitialInjector() {
+        assertEquals("first", watcher.getInjector().getInstance(WATCHED));
+    }
+
+    @Test
+    public void testModuleChanged()
+            throws Exception {
+        writeModule("watched.WatchedModule", null, "second");
+
+        Injector injector = reloaded.poll(10, TimeUnit.SECONDS);
+        assertNotNull("Injector not reloaded", injector);
+        assertEquals("second", injector.getInstance(WATCHED));
+        assertSame(injector, watcher.getInjector());
+    }
+
+    @Test
+    public void testDevelopmentModuleAdded()
+            throws Exception {
+        writeModule("watched.DevOverrideModule", DevelopmentModule.class.getName(), "dev");
+
+        Injector injector = reloaded.poll(10, TimeUnit.SECONDS);
+        assertNotNull("Injector not reloaded", injector);
+        assertEquals("dev", injector.getInstance(WATCHED));
+    }
+
+    @Test
+    public void testModuleRemoved()
+            throws Exception {
+        writeModule("watched.DevOverrideModule", DevelopmentModule.class.getName(), "dev");
+        assertNotNull("Injector not reloaded", reloaded.poll(10, TimeUnit.SECONDS));
+
+        Files.delete(new File(folder.getRoot(), "watched/DevOverrideModule.class").toPath());
+
+        Injector injector = reloaded.poll(10, TimeUnit.SECONDS);
+        assertNotNull("Injector not reloaded", injector);
+        assertEquals("first", injector.getInstance(WATCHED));
+    }
+
+    @Test
+    public void testInstalledModuleChanged()
+            throws Exception {
+        writeInstallingModule("watched.InstallingModule", "watched.WatchedModule");
+        assertNotNull("Injector not reloaded", reloaded.poll(10, TimeUnit.SECONDS));
+
+        writeModule("watched.WatchedModule", null, "second");
+
+        Injector injector = reloaded.poll(10, TimeUnit.SECONDS);
+        assertNotNull("Injector not reloaded", injector);
+        assertEquals("second", injector.getInstance(WATCHED));
+    }
+
+    /**
+     * Write module binding <code>@Named("watched") String</code> to value.
+     * Class file is written to temporary file and moved, so watcher never reads half written class.
+     */
+    private void writeModule(String name, String annotation, String value)
+            throws Exception {
+        ClassPool pool = createPool();
+        CtClass cls = createModule(pool, name);
+        ClassFile classFile = cls.getClassFile();
+        ConstPool constPool = classFile.getConstPool();
+
+        Bytecode code = new Bytecode(constPool, 0, 1);
+        code.addAload(0);
+        code.addInvokevirtual("com.google.inject.AbstractModule", "binder", "()Lcom/google/inject/Binder;");
+        code.addLdc(constPool.addClassInfo("java.lang.String"));
+        code.addInvokeinterface("com.google.inject.Binder", "bind",
+                "(Ljava/lang/Class;)Lcom/google/inject/binder/AnnotatedBindingBuilder;", 2);
+        code.addLdc("watched");
+        code.addInvokestatic("com.google.inject.name.Names", "named",
+                "(Ljava/lang/String;)Lcom/google/inject/name/Named;");
+        code.addInvokeinterface("com.google.inject.binder.AnnotatedBindingBuilder", "annotatedWith",
+                "(Ljava/lang/annotation/Annotation;)Lcom/google/inject/binder/LinkedBindingBuilder;", 2);
+        code.addLdc(value);
+        code.addInvokeinterface("com.google.inject.binder.LinkedBindingBuilder", "toInstance",
+                "(Ljava/lang/Object;)V", 2);
+        code.addOpcode(Opcode.RETURN);
+        addConfigure(classFile, code);
+        if (annotation != null) {
+            AnnotationsAttribute attribute = new AnnotationsAttribute(constPool, AnnotationsAttribute.visibleTag);
+            attribute.addAnnotation(new Annotation(annotation, constPool));
+            classFile.addAttribute(attribute);
+        }
+        writeClass(name, cls);
+    }
+
+    /**
+     * Write module installing new instance of other module.
+     */
+    private void writeInstallingModule(String name, String installed)
+            throws Exception {
+        ClassPool pool = createPool();
+        CtClass cls = createModule(pool, name);
+        ClassFile classFile = cls.getClassFile();
+
+        Bytecode code = new Bytecode(classFile.getConstPool(), 0, 1);
+        code.addAload(0);
+        code.addNew(installed);
+        code.addOpcode(Opcode.DUP);
+        code.addInvokespecial(installed, "<init>", "()V");
+        code.addInvokevirtual("com.google.inject.AbstractModule", "install", "(Lcom/google/inject/Module;)V");
+        code.addOpcode(Opcode.RETURN);
+        addConfigure(classFile, code);
+        writeClass(name, cls);
+    }
+
+    private ClassPool createPool() {
+        ClassPool pool = new ClassPool(true);
+        //System class path of pool does not contain application classes on Java 9+
+        pool.appendClassPath(new LoaderClassPath(getClass().getClassLoader()));
+        return pool;
+    }
+
+    private CtClass createModule(ClassPool pool, String name)
+            throws Exception {
+        CtClass cls = pool.makeClass(name);
+        cls.setSuperclass(pool.get("com.google.inject.AbstractModule"));
+        cls.addConstructor(CtNewConstructor.defaultConstructor(cls));
+        return cls;
+    }
+
+    private void addConfigure(ClassFile classFile, Bytecode code)
+            throws Exception {
+        MethodInfo configure = new MethodInfo(classFile.getConstPool(), "configure", "()V");
+        configure.setAccessFlags(AccessFlag.PROTECTED);
+        configure.setCodeAttribute(code.toCodeAttribute());
+        classFile.addMethod(configure);
+    }
+
+    private void writeClass(String name, CtClass cls)
+            throws Exception {
+        File target = new File(folder.getRoot(), name.replace('.', '/') + ".class");
+        target.getParentFile().mkdirs();
+        File temp = File.createTempFile("module", ".tmp", folder.getRoot());
+        Files.write(temp.toPath(), cls.toBytecode());
+        Files.move(temp.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+}
@@ -0,0 +1,166 @@
+/*
+ * Copyright (c) 2012 Transition Technologies S.A.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package pl.com.tt.guice;
+
+import com.google.inject.AbstractModule;
+import com.google.inject.Inject;
+import com.google.inject.Injector;
+import com.google.inject.Key;
+import com.google.inject.Module;
+import com.google.inject.ScopeAnnotation;
+import com.google.inject.Scopes;
+import com.google.inject.name.Named;
+import com.google.inject.name.Names;
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import pl.com.tt.guice.InjectorFactory.MODE;
+import static org.junit.Assert.*;
+
+/**
+ * Test of modules instantiated and recorded in parallel.
+ *
+ * @author Marek Piechut <m.piechut@tt.com.pl>
+ */
+public class ParallelRecordingTest {
+
+    private static final List<String> configuredBy = new ArrayList<String>();
+    private String threads;
+
+    @Before
+    public void setUp() {
+        threads = System.clearProperty(InjectorFactory.MODULE_THREADS_PROPERTY);
+    }
+
+    @After
+    public void tearDown() {
+        if (threads == null) {
+            System.clearProperty(InjectorFactory.MODULE_THREADS_PROPERTY);
+        } else {
+            System.setProperty(InjectorFactory.MODULE_THREADS_PROPERTY, threads);
+        }
+        configuredBy.clear();
+        SharedStatic.s = null;
+    }
+
+    @Test
+    public void testSequential()
+            throws Exception {
+        Injector injector = InjectorFactory.createInjector(classes(), MODE.TEST);
+
+        assertBindings(injector);
+        assertEquals(Arrays.asList(Thread.currentThread().getName(), Thread.currentThread().getName()), configuredBy);
+    }
+
+    /**
+     * Bindings should be the same as when modules are instantiated one by one.
+     * Shared module installed by both modules should be configured once.
+     */
+    @Test
+    public void testParallel()
+            throws Exception {
+        System.setProperty(InjectorFactory.MODULE_THREADS_PROPERTY, "2");
+        Injector injector = InjectorFactory.createInjector(classes(), MODE.TEST);
+
+        assertBindings(injector);
+        assertEquals(2, configuredBy.size());
+        for (String thread : configuredBy) {
+            assertTrue(thread, thread.startsWith("GuiceUnit module recorder"));
+        }
+    }
+
+    private static void assertBindings(Injector injector) {
+        assertEquals("first", injector.getInstance(Key.get(String.class, Names.named("first"))));
+        assertEquals("second-override", injector.getInstance(Key.get(String.class, Names.named("second"))));
+        assertEquals("shared", injector.getInstance(Key.get(String.class, Names.named("shared"))));
+        assertEquals("shared", SharedStatic.s);
+    }
+
+    private static List<Class<? extends Module>> classes() {
+        List<Class<? extends Module>> classes = new ArrayList<Class<? extends Module>>();
+        classes.add(First.class);
+        classes.add(Second.class);
+        classes.add(SecondOverride.class);
+        return classes;
+    }
+
+    public static class First extends AbstractModule {
+
+        @Override
+        protected void configure() {
+            synchronized (configuredBy) {
+                configuredBy.add(Thread.currentThread().getName());
+            }
+            install(new Shared());
+            bindConstant().annotatedWith(Names.named("first")).to("first");
+        }
+    }
+
+    public static class Second extends AbstractModule {
+
+        @Override
+        protected void configure() {
+            synchronized (configuredBy) {
+                configuredBy.add(Thread.currentThread().getName());
+            }
+            install(new Shared());
+            bindConstant().annotatedWith(Names.named("second")).to("second");
+        }
+    }
+
+    @TestModule
+    public static class SecondOverride extends AbstractModule {
+
+        @Override
+        protected void configure() {
+            bindConstant().annotatedWith(Names.named("second")).to("second-override");
+        }
+    }
+
+    /**
+     * Installed by two modules, without <code>equals()</code> Guice would configure it twice.
+     */
+    public static class Shared extends AbstractModule {
+
+        @Override
+        protected void configure() {
+            bindScope(SharedScope.class, Scopes.NO_SCOPE);
+            requestStaticInjection(SharedStatic.class);
+            bindConstant().annotatedWith(Names.named("shared")).to("shared");
+        }
+    }
+
+    @ScopeAnnotation
+    @Retention(RetentionPolicy.RUNTIME)
+    @Target(ElementType.TYPE)
+    public @interface SharedScope {
+    }
+
+    static class SharedStatic {
+
+        @Inject
+        @Named("shared")
+        static String s;
+    }
+}
@@ -0,0 +1,142 @@
+/*
+ * Copyright (c) 2012 Transition Technologies S.A.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package pl.com.tt.guice;
+
+import javax.inject.Inject;
+import javax.inject.Named;
+import org.junit.Test;
+import org.junit.runner.JUnitCore;
+import org.junit.runner.Result;
+import org.junit.runner.RunWith;
+import pl.com.tt.guice.junit.GUnitTestRunner;
+import pl.com.tt.guice.junit.StaticInjectScope;
+import pl.com.tt.guice.scoped.PackageStaticInject;
+import static org.junit.Assert.*;
+
+/**
+ * Test of static injection limited to declared classes.
+ *
+ * @author Marek Piechut <m.piechut@tt.com.pl>
+ */
+@RunWith(GUnitTestRunner.class)
+@StaticInjectScope(classes = StaticInjectScopeTest.ScopedStaticInject.class)
+public class StaticInjectScopeTest {
+
+    @Inject
+    @Named("static")
+    private static String s;
+
+    /**
+     * Test class itself and declared classes should get static injections.
+     */
+    @Test
+    public void testScopedStaticInjects() {
+        assertEquals("static", s);
+        assertEquals("static", ScopedStaticInject.s);
+    }
+
+    /**
+     * Classes out of scope should not be injected.
+     */
+    @Test
+    public void testOtherStaticInjects() {
+        assertOutOfScopeNotInjected(ClassesScope.class);
+    }
+
+    /**
+     * Classes from declared packages should get static injections.
+     */
+    @Test
+    public void testPackagesScope() {
+        PackageStaticInject.s = null;
+        assertOutOfScopeNotInjected(PackagesScope.class);
+    }
+
+    /**
+     * Classes referenced from test class should get static injections.
+     */
+    @Test
+    public void testReferencedScope() {
+        ReferencedStaticInject.s = null;
+        assertOutOfScopeNotInjected(ReferencedScope.class);
+    }
+
+    private static void assertOutOfScopeNotInjected(Class<?> fixture) {
+        StaticInjectHere.s = null;
+        Result result = JUnitCore.runClasses(fixture);
+        assertTrue(result.getFailures().toString(), result.wasSuccessful());
+    }
+
+    /**
+     * Get value of out of scope static field without referencing it's class
+     * from constant pool of fixture.
+     */
+    static Object getOutOfScopeValue()
+            throws Exception {
+        return Class.forName("pl.com.tt.guice.StaticInjectHere").getDeclaredField("s").get(null);
+    }
+
+    static class ScopedStaticInject {
+
+        @Inject
+        @Named("static")
+        static String s;
+    }
+
+    static class ReferencedStaticInject {
+
+        @Inject
+        @Named("static")
+        static String s;
+    }
+
+    @RunWith(GUnitTestRunner.class)
+    @StaticInjectScope(classes = ScopedStaticInject.class)
+    public static class ClassesScope {
+
+        @Test
+        public void test()
+                throws Exception {
+            assertEquals("static", ScopedStaticInject.s);
+            assertNull(getOutOfScopeValue());
+        }
+    }
+
+    @RunWith(GUnitTestRunner.class)
+    @StaticInjectScope(packages = "pl.com.tt.guice.scoped")
+    public static class PackagesScope {
+
+        @Test
+        public void test()
+                throws Exception {
+            assertEquals("static", PackageStaticInject.s);
+            assertNull(getOutOfScopeValue());
+        }
+    }
+
+    @RunWith(GUnitTestRunner.class)
+    @StaticInjectScope(referenced = true)
+    public static class ReferencedScope {
+
+        @Test
+        public void test()
+                throws Exception {
+            assertEquals("static", ReferencedStaticInject.s);
+            assertNull(getOutOfScopeValue());
+        }
+    }
+}
@@ -0,0 +1,272 @@
+/*
+ * Copyright (c) 2012 Transition Technologies S.A.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package pl.com.tt.guice.benchmark;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.jar.JarEntry;
+import java.util.jar.JarOutputStream;
+import javassist.ClassPool;
+import javassist.CannotCompileException;
+import javassist.CtClass;
+import javassist.CtNewConstructor;
+import javassist.LoaderClassPath;
+import javassist.NotFoundException;
+import javassist.bytecode.AccessFlag;
+import javassist.bytecode.AnnotationsAttribute;
+import javassist.bytecode.Bytecode;
+import javassist.bytecode.ClassFile;
+import javassist.bytecode.ConstPool;
+import javassist.bytecode.FieldInfo;
+import javassist.bytecode.MethodInfo;
+import javassist.bytecode.Opcode;
+import javassist.bytecode.annotation.Annotation;
+import javassist.bytecode.annotation.StringMemberValue;
+import lombok.Setter;
+
+/**
+ * Generates synthetic classpath for scaling benchmarks.
+ * <p/>
+ * Classes are generated directly as bytecode with JavaAssist and written both
+ * to classes directory and jar. Generated classpath contains:
+ * <ul>
+ * <li>Guice modules, each binding configured number of named
+ * <code>String</code> keys. Configured fraction of them is annotated with
+ * <code>@TestModule</code> and <code>@DevelopmentModule</code> (these override first
+ * binding of some production module), and optionally one with <code>@MasterModule</code>.</li>
+ * <li>Classes with static field injected with binding from one of production modules.</li>
+ * <li>Plain classes, that are only there to be scanned.</li>
+ * </ul>
+ *
+ * @author Marek Piechut <m.piechut@tt.com.pl>
+ */
+@Setter
+public class ClasspathGenerator {
+
+    private static final String PACKAGE = "pl.com.tt.guice.generated";
+    private static final int CLASSES_PER_PACKAGE = 500;
+    private int classCount = 1000;
+    private double moduleRatio = 0.02;
+    private double staticInjectRatio = 0.01;
+    private int bindingsPerModule = 10;
+    private double testModuleRatio = 0.1;
+    private double devModuleRatio = 0.1;
+    private boolean masterModule = true;
+    private final ClassPool pool = new ClassPool(true);
+
+    public ClasspathGenerator() {
+        //When executed by Maven classes are not in system classpath
+        pool.appendClassPath(new LoaderClassPath(ClasspathGenerator.class.getClassLoader()));
+    }
+
+    /**
+     * Create generator configured from system properties:
+     * <code>benchmark.moduleRatio</code>, <code>benchmark.staticInjectRatio</code>,
+     * <code>benchmark.bindingsPerModule</code>, <code>benchmark.testModuleRatio</code>,
+     * <code>benchmark.devModuleRatio</code> and <code>benchmark.masterModule</code>.
+     *
+     * @param classCount total number of classes to generate
+     * @return configured generator
+     */
+    public static ClasspathGenerator fromSystemProperties(int classCount) {
+        ClasspathGenerator generator = new ClasspathGenerator();
+        generator.setClassCount(classCount);
+        generator.setModuleRatio(Double.parseDouble(System.getProperty("benchmark.moduleRatio", "0.02")));
+        generator.setStaticInjectRatio(Double.parseDouble(System.getProperty("benchmark.staticInjectRatio", "0.01")));
+        generator.setBindingsPerModule(Integer.getInteger("benchmark.bindingsPerModule", 10));
+        generator.setTestModuleRatio(Double.parseDouble(System.getProperty("benchmark.testModuleRatio", "0.1")));
+        generator.setDevModuleRatio(Double.parseDouble(System.getProperty("benchmark.devModuleRatio", "0.1")));
+        generator.setMasterModule(Boolean.parseBoolean(System.getProperty("benchmark.masterModule", "true")));
+        return generator;
+    }
+
+    /**
+     * Number of production modules generated. Static injections and
+     * overriding modules use bindings from these.
+     *
+     * @return number of production modules
+     */
+    public int getProductionModuleCount() {
+        return Math.max(1, getModuleCount() - getTestModuleCount() - getDevModuleCount() - (masterModule ? 1 : 0));
+    }
+
+    /**
+     * Number of distinct bound keys.
+     *
+     * @return number of bindings
+     */
+    public int getBindingCount() {
+        return getProductionModuleCount() * bindingsPerModule;
+    }
+
+    public int getModuleCount() {
+        return Math.max(1, (int) (classCount * moduleRatio));
+    }
+
+    public int getTestModuleCount() {
+        return (int) (getModuleCount() * testModuleRatio);
+    }
+
+    public int getDevModuleCount() {
+        return (int) (getModuleCount() * devModuleRatio);
+    }
+
+    public int getStaticInjectCount() {
+        return (int) (classCount * staticInjectRatio);
+    }
+
+    /**
+     * Generate classes.
+     *
+     * @param classesDir directory to write class files to
+     * @param jar jar file to write classes to
+     * @throws IOException if could not write classes
+     * @throws CannotCompileException if could not generate class
+     * @throws NotFoundException if Guice classes are not in classpath
+     */
+    public void generate(File classesDir, File jar)
+            throws IOException, CannotCompileException, NotFoundException {
+        JarOutputStream jarStream = new JarOutputStream(new FileOutputStream(jar));
+        try {
+            int index = 0;
+            int productionModules = getProductionModuleCount();
+            for (int i = 0; i < productionModules; i++) {
+                write(createModule(index++, "Production", i, null, bindingsPerModule), classesDir, jarStream);
+            }
+            if (masterModule) {
+                write(createModule(index++, "Master", 0, "pl.com.tt.guice.MasterModule", 1), classesDir, jarStream);
+            }
+            for (int i = 0; i < getTestModuleCount(); i++) {
+                write(createModule(index++, "Test", i % productionModules, "pl.com.tt.guice.TestModule", 1),
+                        classesDir, jarStream);
+            }
+            for (int i = 0; i < getDevModuleCount(); i++) {
+                write(createModule(index++, "Development", i % productionModules, "pl.com.tt.guice.DevelopmentModule", 1),
+                        classesDir, jarStream);
+            }
+            for (int i = 0; i < getStaticInjectCount(); i++) {
+                write(createStaticInject(index++, i % productionModules), classesDir, jarStream);
+            }
+            while (index < classCount) {
+                write(createPlain(index++), classesDir, jarStream);
+            }
+        } finally {
+            jarStream.close();
+        }
+    }
+
+    /**
+     * Create module class. Production modules bind their own keys,
+     * other modules override first key of one of production modules.
+     * <p/>
+     * Bytecode is created directly, without JavaAssist compiler, so no
+     * JDK classes need to be read.
+     */
+    private CtClass createModule(int index, String kind, int target, String annotation, int bindings)
+            throws CannotCompileException, NotFoundException {
+        CtClass cls = pool.makeClass(className(index, kind + "Module"));
+        cls.setSuperclass(pool.get("com.google.inject.AbstractModule"));
+        cls.addConstructor(CtNewConstructor.defaultConstructor(cls));
+        ClassFile classFile = cls.getClassFile();
+        ConstPool constPool = classFile.getConstPool();
+
+        Bytecode code = new Bytecode(constPool, 0, 1);
+        for (int i = 0; i < bindings; i++) {
+            String key = annotation == null ? key(target, i) : key(target, 0);
+            //binder().bind(String.class).annotatedWith(Names.named(key)).toInstance(kind);
+            code.addAload(0);
+            code.addInvokevirtual("com.google.inject.AbstractModule", "binder", "()Lcom/google/inject/Binder;");
+            code.addLdc(constPool.addClassInfo("java.lang.String"));
+            code.addInvokeinterface("com.google.inject.Binder", "bind",
+                    "(Ljava/lang/Class;)Lcom/google/inject/binder/AnnotatedBindingBuilder;", 2);
+            code.addLdc(key);
+            code.addInvokestatic("com.google.inject.name.Names", "named",
+                    "(Ljava/lang/String;)Lcom/google/inject/name/Named;");
+            code.addInvokeinterface("com.google.inject.binder.AnnotatedBindingBuilder", "annotatedWith",
+                    "(Ljava/lang/annotation/Annotation;)Lcom/google/inject/binder/LinkedBindingBuilder;", 2);
+            code.addLdc(kind);
+            code.addInvokeinterface("com.google.inject.binder.LinkedBindingBuilder", "toInstance",
+                    "(Ljava/lang/Object;)V", 2);
+        }
+        code.addOpcode(Opcode.RETURN);
+        MethodInfo configure = new MethodInfo(constPool, "configure", "()V");
+        configure.setAccessFlags(AccessFlag.PROTECTED);
+        configure.setCodeAttribute(code.toCodeAttribute());
+        classFile.addMethod(configure);
+
+        if (annotation != null) {
+            AnnotationsAttribute attribute = new AnnotationsAttribute(constPool, AnnotationsAttribute.visibleTag);
+            attribute.addAnnotation(new Annotation(annotation, constPool));
+            classFile.addAttribute(attribute);
+        }
+        return cls;
+    }
+
+    private CtClass createStaticInject(int index, int module)
+            throws CannotCompileException {
+        CtClass cls = pool.makeClass(className(index, "StaticInject"));
+        cls.addConstructor(CtNewConstructor.defaultConstructor(cls));
+        ClassFile classFile = cls.getClassFile();
+        ConstPool constPool = classFile.getConstPool();
+        FieldInfo field = new FieldInfo(constPool, "value", "Ljava/lang/String;");
+        field.setAccessFlags(AccessFlag.STATIC);
+        AnnotationsAttribute attribute = new AnnotationsAttribute(constPool, AnnotationsAttribute.visibleTag);
+        attribute.addAnnotation(new Annotation("javax.inject.Inject", constPool));
+        Annotation named = new Annotation("javax.inject.Named", constPool);
+        named.addMemberValue("value", new StringMemberValue(key(module, 0), constPool));
+        attribute.addAnnotation(named);
+        field.addAttribute(attribute);
+        classFile.addField(field);
+        return cls;
+    }
+
+    private CtClass createPlain(int index)
+            throws CannotCompileException {
+        CtClass cls = pool.makeClass(className(index, "Service"));
+        cls.addConstructor(CtNewConstructor.defaultConstructor(cls));
+        return cls;
+    }
+
+    private void write(CtClass cls, File classesDir, JarOutputStream jar)
+            throws IOException, CannotCompileException {
+        byte[] bytecode = cls.toBytecode();
+        String path = cls.getName().replace('.', '/') + ".class";
+        cls.detach();
+
+        File file = new File(classesDir, path);
+        file.getParentFile().mkdirs();
+        FileOutputStream out = new FileOutputStream(file);
+        try {
+            out.write(bytecode);
+        } finally {
+            out.close();
+        }
+
+        jar.putNextEntry(new JarEntry(path));
+        jar.write(bytecode);
+        jar.closeEntry();
+    }
+
+    private static String className(int index, String kind) {
+        return PACKAGE + ".p" + (index / CLASSES_PER_PACKAGE) + "." + kind + index;
+    }
+
+    private static String key(int module, int binding) {
+        return "generated-" + module + "-" + binding;
+    }
+}
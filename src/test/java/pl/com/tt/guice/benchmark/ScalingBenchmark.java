@@ -0,0 +1,227 @@
+/*
+ * Copyright (c) 2012 Transition Technologies S.A.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package pl.com.tt.guice.benchmark;
+
+import com.google.inject.Module;
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.PrintWriter;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import pl.com.tt.guice.InjectorFactory;
+import pl.com.tt.guice.InjectorFactory.MODE;
+import pl.com.tt.guice.junit.GUnitTestRunner;
+
+/**
+ * Measures how classpath scan and injector creation scale with codebase size.
+ * <p/>
+ * For every size from <code>benchmark.sizes</code> system property (default
+ * <code>1000,10000,100000</code>) synthetic classpath is generated with
+ * {@link ClasspathGenerator} and measured in fresh JVM, so no caches
+ * are shared between sizes. Measured are:
+ * <ul>
+ * <li>{@link InjectorFactory#findAllModules(java.util.Set)} on classes directory and jar</li>
+ * <li>{@link InjectorFactory#findAllStaticInjectNames(java.util.Set)} on classes directory</li>
+ * <li>{@link InjectorFactory#createInjector(Iterable, MODE)} with found modules</li>
+ * <li>{@link GUnitTestRunner} creation, first (with classpath scan) and second (cached scan)</li>
+ * </ul>
+ * Results are printed and written to <code>results.csv</code> in output directory.
+ * <p/>
+ * Run it with <code>mvn test -Pbenchmark</code>.
+ *
+ * @author Marek Piechut <m.piechut@tt.com.pl>
+ */
+public class ScalingBenchmark {
+
+    private static final String RUN = "--run";
+    private static final String RESULT_PREFIX = "RESULT:";
+    private static final String[] COLUMNS = {"classes", "modules", "staticInjects", "bindings",
+        "scanModulesDirMs", "scanModulesJarMs", "scanStaticInjectsMs", "createInjectorMs",
+        "firstRunnerMs", "secondRunnerMs"};
+
+    public static void main(String[] args)
+            throws Exception {
+        if (args.length > 0 && RUN.equals(args[0])) {
+            run(new File(args[1]), new File(args[2]));
+            return;
+        }
+
+        File outputDir = new File(args.length > 0 ? args[0] : "target/benchmark");
+        List<String> results = new ArrayList<String>();
+        for (String size : System.getProperty("benchmark.sizes", "1000,10000,100000").split(",")) {
+            int classCount = Integer.parseInt(size.trim());
+            ClasspathGenerator generator = ClasspathGenerator.fromSystemProperties(classCount);
+            File sizeDir = new File(outputDir, String.valueOf(classCount));
+            File classesDir = new File(sizeDir, "classes");
+            File jar = new File(sizeDir, "generated.jar");
+            deleteRecursively(sizeDir);
+            classesDir.mkdirs();
+
+            long start = System.nanoTime();
+            generator.generate(classesDir, jar);
+            System.out.println(String.format("Generated %d classes in %d ms", classCount, millis(start)));
+
+            String measured = fork(classesDir, jar);
+            results.add(classCount + "," + generator.getModuleCount() + "," + generator.getStaticInjectCount()
+                    + "," + generator.getBindingCount() + "," + measured);
+        }
+
+        PrintWriter csv = new PrintWriter(new FileWriter(new File(outputDir, "results.csv")));
+        try {
+            csv.println(join(COLUMNS));
+            System.out.println(join(COLUMNS));
+            for (String result : results) {
+                csv.println(result);
+                System.out.println(result);
+            }
+        } finally {
+            csv.close();
+        }
+    }
+
+    /**
+     * Measure single classpath size. Executed in forked JVM with generated
+     * classes directory in classpath.
+     */
+    @SuppressWarnings("unchecked")
+    private static void run(File classesDir, File jar)
+            throws Exception {
+        long start = System.nanoTime();
+        Collection<Class<? extends Module>> modules = InjectorFactory.findAllModules(
+                Collections.singleton(classesDir.toURI().toURL()));
+        long scanModulesDir = millis(start);
+
+        start = System.nanoTime();
+        InjectorFactory.findAllModules(Collections.singleton(jar.toURI().toURL()));
+        long scanModulesJar = millis(start);
+
+        start = System.nanoTime();
+        InjectorFactory.findAllStaticInjectNames(Collections.singleton(classesDir.toURI().toURL()));
+        long scanStaticInjects = millis(start);
+
+        start = System.nanoTime();
+        InjectorFactory.createInjector(modules, MODE.TEST);
+        long createInjector = millis(start);
+
+        start = System.nanoTime();
+        new GUnitTestRunner(BenchmarkTest.class);
+        long firstRunner = millis(start);
+
+        start = System.nanoTime();
+        new GUnitTestRunner(BenchmarkTest.class);
+        long secondRunner = millis(start);
+
+        System.out.println(RESULT_PREFIX + scanModulesDir + "," + scanModulesJar + "," + scanStaticInjects
+                + "," + createInjector + "," + firstRunner + "," + secondRunner);
+    }
+
+    private static String fork(File classesDir, File jar)
+            throws IOException, InterruptedException {
+        String java = new File(new File(System.getProperty("java.home"), "bin"), "java").getPath();
+        String classpath = classesDir.getPath() + File.pathSeparator + getClasspath();
+        List<String> command = new ArrayList<String>();
+        command.add(java);
+        command.add("-Xmx" + System.getProperty("benchmark.heap", "2g"));
+        command.add("-cp");
+        command.add(classpath);
+        command.add(ScalingBenchmark.class.getName());
+        command.add(RUN);
+        command.add(classesDir.getAbsolutePath());
+        command.add(jar.getAbsolutePath());
+
+        Process process = new ProcessBuilder(command).redirectErrorStream(true).start();
+        BufferedReader output = new BufferedReader(new InputStreamReader(process.getInputStream()));
+        String result = null;
+        for (String line = output.readLine(); line != null; line = output.readLine()) {
+            if (line.startsWith(RESULT_PREFIX)) {
+                result = line.substring(RESULT_PREFIX.length());
+            } else if (Boolean.getBoolean("benchmark.verbose")) {
+                System.out.println(line);
+            }
+        }
+        if (process.waitFor() != 0 || result == null) {
+            throw new IllegalStateException("Benchmark for " + classesDir + " failed. Run with -Dbenchmark.verbose=true for details.");
+        }
+        return result;
+    }
+
+    /**
+     * Classpath of current JVM. When executed by Maven it's not in
+     * <code>java.class.path</code>, only in class loader.
+     */
+    private static String getClasspath() {
+        StringBuilder classpath = new StringBuilder();
+        ClassLoader loader = ScalingBenchmark.class.getClassLoader();
+        if (loader instanceof URLClassLoader) {
+            for (URL url : ((URLClassLoader) loader).getURLs()) {
+                if (classpath.length() > 0) {
+                    classpath.append(File.pathSeparator);
+                }
+                classpath.append(new File(url.getPath()).getPath());
+            }
+        }
+        if (classpath.length() == 0) {
+            return System.getProperty("java.class.path");
+        }
+        return classpath.toString();
+    }
+
+    private static long millis(long start) {
+        return (System.nanoTime() - start) / 1000000;
+    }
+
+    private static String join(String[] values) {
+        StringBuilder joined = new StringBuilder();
+        for (String value : values) {
+            if (joined.length() > 0) {
+                joined.append(',');
+            }
+            joined.append(value);
+        }
+        return joined.toString();
+    }
+
+    private static void deleteRecursively(File file) {
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                deleteRecursively(child);
+            }
+        }
+        file.delete();
+    }
+
+    /**
+     * Test class used to measure GuiceUnit runner creation.
+     */
+    @RunWith(GUnitTestRunner.class)
+    public static class BenchmarkTest {
+
+        @Test
+        public void test() {
+        }
+    }
+}
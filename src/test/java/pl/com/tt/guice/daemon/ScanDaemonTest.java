@@ -0,0 +1,120 @@
+/*
+ * Copyright (c) 2012 Transition Technologies S.A.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package pl.com.tt.guice.daemon;
+
+import java.io.File;
+import java.net.ServerSocket;
+import java.net.URL;
+import java.nio.file.Files;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import pl.com.tt.guice.InjectorFactory;
+import pl.com.tt.guice.OtherTestModule;
+import pl.com.tt.guice.reflections.ScanIndex;
+import static org.junit.Assert.*;
+
+/**
+ * Test of scan results served by daemon.
+ *
+ * @author Marek Piechut <m.piechut@tt.com.pl>
+ */
+public class ScanDaemonTest {
+
+    private static final String MODULE_FILE = OtherTestModule.class.getName().replace('.', '/') + ".class";
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+    private ScanDaemon daemon;
+
+    @Before
+    public void setUp()
+            throws Exception {
+        daemon = ScanDaemon.start(0);
+    }
+
+    @After
+    public void tearDown()
+            throws Exception {
+        daemon.close();
+    }
+
+    /**
+     * Daemon should return the same results as scan in test JVM.
+     */
+    @Test
+    public void testSameAsScan()
+            throws Exception {
+        Set<URL> classPath = Collections.singleton(OtherTestModule.class.getProtectionDomain().getCodeSource().getLocation());
+
+        ScanIndex fetched = ScanDaemonClient.fetch(daemon.getPort(), classPath, true);
+        ScanIndex scanned = InjectorFactory.indexClasspath(classPath, true);
+
+        assertEquals(new HashSet<String>(scanned.getNames(ScanIndex.MODULE)),
+                new HashSet<String>(fetched.getNames(ScanIndex.MODULE)));
+        assertEquals(new HashSet<String>(scanned.getNames(ScanIndex.STATIC_INJECT)),
+                new HashSet<String>(fetched.getNames(ScanIndex.STATIC_INJECT)));
+    }
+
+    /**
+     * Results should be scanned again when directory changes, without waiting for watcher.
+     */
+    @Test
+    public void testDirectoryChanged()
+            throws Exception {
+        Set<URL> classPath = Collections.singleton(folder.getRoot().toURI().toURL());
+        assertTrue(ScanDaemonClient.fetch(daemon.getPort(), classPath, false).getNames(ScanIndex.MODULE).isEmpty());
+
+        File module = new File(folder.getRoot(), MODULE_FILE);
+        module.getParentFile().mkdirs();
+        Files.copy(OtherTestModule.class.getResourceAsStream("/" + MODULE_FILE), module.toPath());
+
+        assertTrue("Module added to directory not found", ScanDaemonClient.fetch(daemon.getPort(), classPath, false)
+                .getNames(ScanIndex.MODULE).contains(OtherTestModule.class.getName()));
+    }
+
+    /**
+     * Least recently requested results should be dropped with their watched directories.
+     */
+    @Test
+    public void testEviction()
+            throws Exception {
+        for (int i = 0; i <= ScanDaemon.MAX_ENTRIES; i++) {
+            Set<URL> classPath = Collections.singleton(folder.newFolder("classes" + i).toURI().toURL());
+            assertNotNull(ScanDaemonClient.fetch(daemon.getPort(), classPath, false));
+        }
+
+        assertEquals(ScanDaemon.MAX_ENTRIES, daemon.getWatchedDirs());
+    }
+
+    /**
+     * Client should return null when daemon is not running.
+     */
+    @Test
+    public void testNotRunning()
+            throws Exception {
+        ServerSocket socket = new ServerSocket(0);
+        int port = socket.getLocalPort();
+        socket.close();
+
+        assertNull(ScanDaemonClient.fetch(port, Collections.singleton(folder.getRoot().toURI().toURL()), true));
+    }
+}
@@ -0,0 +1,109 @@
+/*
+ * Copyright (c) 2012 Transition Technologies S.A.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package pl.com.tt.guice.jfr;
+
+import com.google.inject.AbstractModule;
+import com.google.inject.Guice;
+import com.google.inject.Module;
+import com.google.inject.name.Names;
+import java.io.File;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+import javax.inject.Inject;
+import javax.inject.Named;
+import jdk.jfr.FlightRecorder;
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+import org.junit.Test;
+import pl.com.tt.guice.InjectorFactory;
+import pl.com.tt.guice.InjectorFactory.MODE;
+import static org.junit.Assert.*;
+import static org.junit.Assume.*;
+
+/**
+ * Test of Flight Recorder events emitted during bootstrap.
+ *
+ * @author Marek Piechut <m.piechut@tt.com.pl>
+ */
+public class BootstrapEventsTest {
+
+    /**
+     * Injector creation should be recorded with module instantiation,
+     * override composition and static injection.
+     */
+    @Test
+    @SuppressWarnings("unchecked")
+    public void testEventsRecorded()
+            throws Exception {
+        assumeTrue(FlightRecorder.isAvailable());
+
+        File file = File.createTempFile("guiceunit", ".jfr");
+        file.deleteOnExit();
+        Recording recording = new Recording();
+        try {
+            recording.enable("pl.com.tt.guice.InjectorCreation").withoutThreshold();
+            recording.enable("pl.com.tt.guice.ModuleInstantiation").withoutThreshold();
+            recording.enable("pl.com.tt.guice.ModuleOverride").withoutThreshold();
+            recording.enable("pl.com.tt.guice.StaticInjection").withoutThreshold();
+            recording.start();
+
+            Module module = InjectorFactory.setupModule(Collections.<Class<? extends Module>>singleton(
+                    RecordedBindings.class), MODE.TEST);
+            Guice.createInjector(BootstrapEvents.override(module, new RecordedBindings()),
+                    BootstrapEvents.staticInjection(StaticHolder.class));
+            InjectorFactory.createInjector(Collections.<Class<? extends Module>>singleton(RecordedBindings.class), MODE.PROD);
+
+            recording.stop();
+            recording.dump(file.toPath());
+        } finally {
+            recording.close();
+        }
+
+        Set<String> names = new HashSet<String>();
+        for (RecordedEvent event : RecordingFile.readAllEvents(file.toPath())) {
+            names.add(event.getEventType().getName());
+        }
+        assertTrue(names.toString(), names.contains("pl.com.tt.guice.InjectorCreation"));
+        assertTrue(names.toString(), names.contains("pl.com.tt.guice.ModuleInstantiation"));
+        assertTrue(names.toString(), names.contains("pl.com.tt.guice.ModuleOverride"));
+        assertTrue(names.toString(), names.contains("pl.com.tt.guice.StaticInjection"));
+        assertEquals("recorded", StaticHolder.s);
+    }
+
+    public static class RecordedBindings extends AbstractModule {
+
+        @Override
+        protected void configure() {
+            bind(String.class).annotatedWith(Names.named("recorded")).toInstance("recorded");
+        }
+    }
+
+    /**
+     * Injected with method, so it's not found by other tests classpath scans.
+     */
+    static class StaticHolder {
+
+        static String s;
+
+        @Inject
+        static void setS(@Named("recorded") String value) {
+            s = value;
+        }
+    }
+}
@@ -0,0 +1,230 @@
+/*
+ * Copyright (c) 2012 Transition Technologies S.A.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package pl.com.tt.guice.junit;
+
+import com.google.inject.AbstractModule;
+import com.google.inject.Guice;
+import com.google.inject.Injector;
+import com.google.inject.Module;
+import com.google.inject.util.Providers;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.ref.WeakReference;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.util.Collections;
+import org.junit.Test;
+import pl.com.tt.guice.OtherTestModule;
+import pl.com.tt.guice.profiling.ProvisionProfiler;
+import static org.junit.Assert.*;
+
+/**
+ * Test of scan and injector caches kept per class loader.
+ *
+ * @author Marek Piechut <m.piechut@tt.com.pl>
+ */
+public class ClassLoaderCachesTest {
+
+    /**
+     * Modules should be loaded by class loader of test.
+     */
+    @Test
+    public void testModulesFromClassLoader() {
+        ClassLoader isolated = new IsolatingClassLoader(OtherTestModule.class.getName());
+
+        Class<? extends Module> isolatedModule = findModule(isolated, OtherTestModule.class.getName());
+        assertSame(isolated, isolatedModule.getClassLoader());
+        assertNotSame(OtherTestModule.class, isolatedModule);
+        assertSame(OtherTestModule.class, findModule(getClass().getClassLoader(), OtherTestModule.class.getName()));
+    }
+
+    /**
+     * Caches should not keep class loader from being collected.
+     */
+    @Test
+    public void testClassLoaderNotRetained()
+            throws Exception {
+        WeakReference<ClassLoader> reference = scanWithIsolatedClassLoader();
+        for (int i = 0; i < 20 && reference.get() != null; i++) {
+            System.gc();
+            Thread.sleep(50);
+        }
+
+        assertNull(reference.get());
+    }
+
+    /**
+     * Value cached for class loader should not keep it from being collected
+     * once other class loader uses cache.
+     */
+    @Test
+    public void testPreviousClassLoaderReleased()
+            throws Exception {
+        ClassLoaderCache<Object> cache = new ClassLoaderCache<Object>();
+        WeakReference<ClassLoader> reference = cacheForIsolatedClassLoader(cache);
+        Object value = new Object();
+        cache.put(getClass().getClassLoader(), value);
+        for (int i = 0; i < 20 && reference.get() != null; i++) {
+            System.gc();
+            Thread.sleep(50);
+        }
+
+        assertNull(reference.get());
+        assertSame(value, cache.get(getClass().getClassLoader()));
+    }
+
+    /**
+     * Provision statistics of keys from class loader should not keep it from being collected.
+     */
+    @Test
+    public void testProfiledClassLoaderReleased()
+            throws Exception {
+        String previous = System.setProperty(ProvisionProfiler.PROPERTY, "true");
+        WeakReference<ClassLoader> reference;
+        try {
+            reference = profileWithIsolatedClassLoader();
+        } finally {
+            if (previous == null) {
+                System.clearProperty(ProvisionProfiler.PROPERTY);
+            } else {
+                System.setProperty(ProvisionProfiler.PROPERTY, previous);
+            }
+        }
+        for (int i = 0; i < 20 && reference.get() != null; i++) {
+            System.gc();
+            Thread.sleep(50);
+        }
+
+        assertNull(reference.get());
+    }
+
+    /**
+     * Classpath of isolated class loader should be taken from it, not from JVM.
+     */
+    @Test
+    public void testClasspathFromClassLoader()
+            throws Exception {
+        URL classes = new File("target/isolated-classes").toURI().toURL();
+        URL jar = new File("target/isolated.jar").toURI().toURL();
+        URLClassLoader isolated = new URLClassLoader(new URL[]{classes, jar}, null);
+
+        assertEquals(Collections.singleton(classes), GUnitInjectorFactory.getClasspathMembers(isolated));
+        assertEquals(GUnitInjectorFactory.getClasspathMembers(),
+                GUnitInjectorFactory.getClasspathMembers(ClassLoader.getSystemClassLoader()));
+    }
+
+    private static WeakReference<ClassLoader> cacheForIsolatedClassLoader(ClassLoaderCache<Object> cache) {
+        ClassLoader isolated = new IsolatingClassLoader(OtherTestModule.class.getName());
+        //Value references it's class loader, like injectors do
+        cache.put(isolated, findModule(isolated, OtherTestModule.class.getName()));
+        assertNotNull(cache.get(isolated));
+        return new WeakReference<ClassLoader>(isolated);
+    }
+
+    private static WeakReference<ClassLoader> scanWithIsolatedClassLoader() {
+        ClassLoader isolated = new IsolatingClassLoader(OtherTestModule.class.getName());
+        assertNotNull(findModule(isolated, OtherTestModule.class.getName()));
+        assertFalse(GUnitInjectorFactory.findAllStaticInjects(isolated).isEmpty());
+        return new WeakReference<ClassLoader>(isolated);
+    }
+
+    private static WeakReference<ClassLoader> profileWithIsolatedClassLoader()
+            throws Exception {
+        ClassLoader isolated = new IsolatingClassLoader(SelfBinding.class.getName());
+        Class<?> isolatedType = isolated.loadClass(SelfBinding.class.getName());
+        Module module = (Module) isolatedType.newInstance();
+        Injector injector = Guice.createInjector(ProvisionProfiler.wrap(module));
+        assertSame(module, injector.getInstance(isolatedType));
+        assertFalse(ProvisionProfiler.getStats().isEmpty());
+        return new WeakReference<ClassLoader>(isolated);
+    }
+
+    private static Class<? extends Module> findModule(ClassLoader classLoader, String name) {
+        for (Class<? extends Module> module : GUnitInjectorFactory.findAllModules(classLoader)) {
+            if (module.getName().equals(name)) {
+                return module;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Binds it's own class, so profiled key references class from isolated class loader.
+     */
+    public static class SelfBinding extends AbstractModule {
+
+        @Override
+        @SuppressWarnings("unchecked")
+        protected void configure() {
+            bind((Class<Object>) (Class<?>) getClass()).toProvider(Providers.<Object>of(this));
+        }
+    }
+
+    /**
+     * Class loader that loads one class by itself, like isolated
+     * class loaders of IDEs and build tools.
+     */
+    private static class IsolatingClassLoader extends ClassLoader {
+
+        private final String isolatedClass;
+
+        IsolatingClassLoader(String isolatedClass) {
+            super(IsolatingClassLoader.class.getClassLoader());
+            this.isolatedClass = isolatedClass;
+        }
+
+        @Override
+        protected synchronized Class<?> loadClass(String name, boolean resolve)
+                throws ClassNotFoundException {
+            if (!name.equals(isolatedClass)) {
+                return super.loadClass(name, resolve);
+            }
+            Class<?> cls = findLoadedClass(name);
+            if (cls == null) {
+                byte[] bytes = readClass(name);
+                cls = defineClass(name, bytes, 0, bytes.length);
+            }
+            return cls;
+        }
+
+        private byte[] readClass(String name)
+                throws ClassNotFoundException {
+            InputStream in = getParent().getResourceAsStream(name.replace('.', '/') + ".class");
+            if (in == null) {
+                throw new ClassNotFoundException(name);
+            }
+            try {
+                ByteArrayOutputStream out = new ByteArrayOutputStream();
+                byte[] buffer = new byte[4096];
+                for (int read = in.read(buffer); read >= 0; read = in.read(buffer)) {
+                    out.write(buffer, 0, read);
+                }
+                return out.toByteArray();
+            } catch (IOException ex) {
+                throw new ClassNotFoundException(name, ex);
+            } finally {
+                try {
+                    in.close();
+                } catch (IOException ex) {
+                    //Ignore
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,212 @@
+/*
+ * Copyright (c) 2012 Transition Technologies S.A.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package pl.com.tt.guice.junit;
+
+import com.google.inject.Injector;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import javax.inject.Inject;
+import javax.inject.Named;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.junit.platform.launcher.Launcher;
+import org.junit.platform.launcher.LauncherDiscoveryRequest;
+import org.junit.platform.launcher.core.LauncherFactory;
+import org.junit.platform.launcher.listeners.SummaryGeneratingListener;
+import org.junit.platform.launcher.listeners.TestExecutionSummary;
+import pl.com.tt.guice.MainTestModule;
+import static org.junit.Assert.*;
+import static org.junit.platform.engine.discovery.DiscoverySelectors.selectClass;
+import static org.junit.platform.launcher.core.LauncherDiscoveryRequestBuilder.request;
+
+/**
+ * Test of JUnit Jupiter extension.
+ *
+ * @author Marek Piechut <m.piechut@tt.com.pl>
+ */
+public class GUnitExtensionTest {
+
+    private static final List<Injector> sharedInjectors = Collections.synchronizedList(new ArrayList<Injector>());
+
+    @Before
+    public void setUp() {
+        sharedInjectors.clear();
+    }
+
+    /**
+     * Classes with the same configuration should share injector,
+     * static fields should be restored after each class.
+     */
+    @Test
+    public void testSharedInjector() {
+        StaticHolder.s = "before";
+        TestExecutionSummary summary = execute(request().selectors(selectClass(FirstFixture.class),
+                selectClass(SecondFixture.class), selectClass(OverridingFixture.class)).build());
+
+        assertEquals(summary.getFailures().toString(), 3, summary.getTestsSucceededCount());
+        assertEquals(2, sharedInjectors.size());
+        assertSame(sharedInjectors.get(0), sharedInjectors.get(1));
+        assertEquals("before", StaticHolder.s);
+    }
+
+    /**
+     * Classes executed concurrently should wait for shared injector.
+     * Fixtures don't inject other classes static fields, as values restored
+     * by classes running in parallel could be mixed up.
+     */
+    @Test
+    public void testParallel() {
+        TestExecutionSummary summary = execute(request().selectors(selectClass(FirstParallelFixture.class),
+                selectClass(SecondParallelFixture.class), selectClass(ThirdParallelFixture.class))
+                .configurationParameter("junit.jupiter.execution.parallel.enabled", "true")
+                .configurationParameter("junit.jupiter.execution.parallel.mode.classes.default", "concurrent")
+                .build());
+
+        assertEquals(summary.getFailures().toString(), 3, summary.getTestsSucceededCount());
+        assertEquals(3, sharedInjectors.size());
+        assertEquals(1, new HashSet<Injector>(sharedInjectors).size());
+    }
+
+    /**
+     * In minimal mode injector depends on test class, so classes without
+     * modules should not share it.
+     */
+    @Test
+    public void testMinimalNotShared() {
+        String minimal = System.setProperty(GUnitInjectorFactory.MINIMAL_PROPERTY, "true");
+        try {
+            TestExecutionSummary summary = execute(request().selectors(selectClass(FirstFixture.class),
+                    selectClass(OtherFieldFixture.class)).build());
+
+            assertEquals(summary.getFailures().toString(), 2, summary.getTestsSucceededCount());
+        } finally {
+            if (minimal == null) {
+                System.clearProperty(GUnitInjectorFactory.MINIMAL_PROPERTY);
+            } else {
+                System.setProperty(GUnitInjectorFactory.MINIMAL_PROPERTY, minimal);
+            }
+        }
+    }
+
+    /**
+     * Extension should not use injectors shared by test runner in resettable mode,
+     * as their singletons are reset by each runner.
+     */
+    @Test
+    public void testResettableIgnored()
+            throws Exception {
+        String resettable = System.setProperty(GUnitInjectorFactory.RESETTABLE_SINGLETONS_PROPERTY, "true");
+        try {
+            TestExecutionSummary summary = execute(request().selectors(selectClass(FirstFixture.class),
+                    selectClass(SecondFixture.class)).build());
+
+            assertEquals(summary.getFailures().toString(), 2, summary.getTestsSucceededCount());
+            assertSame(sharedInjectors.get(0), sharedInjectors.get(1));
+            assertNotSame(GUnitInjectorFactory.prepareInjector(FirstFixture.class, false), sharedInjectors.get(0));
+        } finally {
+            if (resettable == null) {
+                System.clearProperty(GUnitInjectorFactory.RESETTABLE_SINGLETONS_PROPERTY);
+            } else {
+                System.setProperty(GUnitInjectorFactory.RESETTABLE_SINGLETONS_PROPERTY, resettable);
+            }
+        }
+    }
+
+    private static TestExecutionSummary execute(LauncherDiscoveryRequest request) {
+        Launcher launcher = LauncherFactory.create();
+        SummaryGeneratingListener listener = new SummaryGeneratingListener();
+        launcher.execute(request, listener);
+        return listener.getSummary();
+    }
+
+    @ExtendWith(GUnitExtension.class)
+    static class FirstFixture {
+
+        @Inject
+        @Named("field")
+        private String f;
+        @Inject
+        private Injector injector;
+
+        @org.junit.jupiter.api.Test
+        void testInjections() {
+            assertEquals("field", f);
+            assertEquals("static", StaticHolder.s);
+            sharedInjectors.add(injector.getParent());
+        }
+    }
+
+    static class SecondFixture extends FirstFixture {
+    }
+
+    @ExtendWith(GUnitExtension.class)
+    static class OtherFieldFixture {
+
+        @Inject
+        @Named("other-field")
+        private String f;
+
+        @org.junit.jupiter.api.Test
+        void testInjections() {
+            assertEquals("other-field", f);
+        }
+    }
+
+    @ExtendWith(GUnitExtension.class)
+    abstract static class ParallelFixture {
+
+        @Inject
+        @Named("field")
+        private String f;
+        @Inject
+        private Injector injector;
+
+        @org.junit.jupiter.api.Test
+        void testInjections()
+                throws InterruptedException {
+            assertEquals("field", f);
+            sharedInjectors.add(injector.getParent());
+            Thread.sleep(50);
+        }
+    }
+
+    @WithModule(MainTestModule.class)
+    static class FirstParallelFixture extends ParallelFixture {
+    }
+
+    @WithModule(MainTestModule.class)
+    static class SecondParallelFixture extends ParallelFixture {
+    }
+
+    @WithModule(MainTestModule.class)
+    static class ThirdParallelFixture extends ParallelFixture {
+    }
+
+    @ExtendWith(GUnitExtension.class)
+    @WithModule(value = StaticInjectFieldsTest.OverridingBindings.class, override = true)
+    static class OverridingFixture {
+
+        @org.junit.jupiter.api.Test
+        void testInjections(@Named("field") String f) {
+            assertEquals("field", f);
+            assertEquals("static-override", StaticHolder.s);
+        }
+    }
+}
@@ -0,0 +1,124 @@
+/*
+ * Copyright (c) 2012 Transition Technologies S.A.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package pl.com.tt.guice.junit;
+
+import com.google.inject.AbstractModule;
+import com.google.inject.name.Names;
+import javax.inject.Inject;
+import javax.inject.Named;
+import org.junit.Test;
+import org.junit.runner.Description;
+import org.junit.runner.JUnitCore;
+import org.junit.runner.Request;
+import org.junit.runner.Result;
+import org.junit.runner.RunWith;
+import org.junit.runner.manipulation.Filter;
+import org.junit.runners.Suite.SuiteClasses;
+import static org.junit.Assert.*;
+
+/**
+ * Test of suite with injectors prepared in background.
+ *
+ * @author Marek Piechut <m.piechut@tt.com.pl>
+ */
+public class GUnitSuiteTest {
+
+    /**
+     * All test classes in suite should get their injections
+     * and static fields should be restored after suite.
+     */
+    @Test
+    public void testSuite() {
+        StaticHolder.s = "before";
+        Result result = JUnitCore.runClasses(PrewarmedSuite.class);
+
+        assertTrue(result.getFailures().toString(), result.wasSuccessful());
+        assertEquals(4, result.getRunCount());
+        assertEquals("before", StaticHolder.s);
+    }
+
+    /**
+     * Injectors prepared for test classes filtered out of suite should be dropped when suite finishes.
+     */
+    @Test
+    public void testFilteredClassCancelled() {
+        Result result = new JUnitCore().run(Request.aClass(PrewarmedSuite.class).filterWith(new Filter() {
+
+            @Override
+            public boolean shouldRun(Description description) {
+                return !PrewarmedFixture.class.equals(description.getTestClass());
+            }
+
+            @Override
+            public String describe() {
+                return "without " + PrewarmedFixture.class.getSimpleName();
+            }
+        }));
+
+        assertTrue(result.getFailures().toString(), result.wasSuccessful());
+        assertEquals(3, result.getRunCount());
+        assertFalse(InjectorPrewarmer.isScheduled(PrewarmedFixture.class));
+    }
+
+    @RunWith(GUnitSuite.class)
+    @SuiteClasses({AllModulesFixture.class, StaticInjectFieldsTest.OverridingFixture.class, PrewarmedFixture.class,
+        AllModulesFixture.class})
+    public static class PrewarmedSuite {
+    }
+
+    /**
+     * Checks that it's injector was created in prewarm thread.
+     */
+    @RunWith(GUnitTestRunner.class)
+    @WithModule(ThreadBindings.class)
+    public static class PrewarmedFixture {
+
+        @Inject
+        @Named("thread")
+        private String thread;
+
+        @Test
+        public void testPrewarmed() {
+            assertEquals("GuiceUnit injector prewarm", thread);
+        }
+    }
+
+    /**
+     * Binds name of thread creating injector.
+     */
+    public static class ThreadBindings extends AbstractModule {
+
+        @Override
+        protected void configure() {
+            bind(String.class).annotatedWith(Names.named("thread")).toInstance(Thread.currentThread().getName());
+        }
+    }
+
+    @RunWith(GUnitTestRunner.class)
+    public static class AllModulesFixture {
+
+        @Inject
+        @Named("field")
+        private String f;
+
+        @Test
+        public void testInjections() {
+            assertEquals("field", f);
+            assertEquals("static", StaticHolder.s);
+        }
+    }
+}
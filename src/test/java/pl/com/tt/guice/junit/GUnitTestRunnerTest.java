@@ -0,0 +1,98 @@
+/*
+ * Copyright (c) 2012 Transition Technologies S.A.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package pl.com.tt.guice.junit;
+
+import java.util.ArrayList;
+import java.util.List;
+import javax.inject.Inject;
+import javax.inject.Named;
+import org.junit.After;
+import org.junit.Test;
+import org.junit.runner.JUnitCore;
+import org.junit.runner.Result;
+import org.junit.runner.RunWith;
+import org.junit.runners.model.InitializationError;
+import static org.junit.Assert.*;
+
+/**
+ * Test of test instances created by GUnit runner.
+ *
+ * @author Marek Piechut <m.piechut@tt.com.pl>
+ */
+public class GUnitTestRunnerTest {
+
+    private static final List<Object> instances = new ArrayList<Object>();
+
+    @After
+    public void tearDown() {
+        instances.clear();
+    }
+
+    /**
+     * Every test method should get new, injected instance.
+     */
+    @Test
+    public void testInstancePerMethod() {
+        Result result = JUnitCore.runClasses(Injected.class);
+
+        assertTrue(result.getFailures().toString(), result.wasSuccessful());
+        assertEquals(2, instances.size());
+        assertNotSame(instances.get(0), instances.get(1));
+    }
+
+    /**
+     * Test class that can't be injected should fail when runner is created.
+     */
+    @Test(expected = InitializationError.class)
+    public void testNotInjectableFailsEarly()
+            throws Exception {
+        new GUnitTestRunner(NotInjectable.class);
+    }
+
+    @RunWith(GUnitTestRunner.class)
+    public static class Injected {
+
+        @Inject
+        @Named("field")
+        private String field;
+
+        @Test
+        public void first() {
+            assertEquals("field", field);
+            instances.add(this);
+        }
+
+        @Test
+        public void second() {
+            assertEquals("field", field);
+            instances.add(this);
+        }
+    }
+
+    public static class NotInjectable {
+
+        @Inject
+        private Unbound unbound;
+
+        @Test
+        public void test() {
+        }
+    }
+
+    public interface Unbound {
+    }
+}
@@ -0,0 +1,138 @@
+/*
+ * Copyright (c) 2012 Transition Technologies S.A.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package pl.com.tt.guice.junit;
+
+import com.google.inject.AbstractModule;
+import com.google.inject.Injector;
+import com.google.inject.Key;
+import com.google.inject.matcher.Matchers;
+import com.google.inject.name.Names;
+import org.aopalliance.intercept.MethodInterceptor;
+import org.aopalliance.intercept.MethodInvocation;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import pl.com.tt.guice.ModuleOverrideTest;
+import static org.junit.Assert.*;
+
+/**
+ * Test of layered mode, where test modules that only add bindings
+ * are installed in child injector of shared parent.
+ *
+ * @author Marek Piechut <m.piechut@tt.com.pl>
+ */
+public class LayeredInjectorTest {
+
+    @Before
+    public void setUp() {
+        System.setProperty(GUnitInjectorFactory.LAYERED_PROPERTY, "true");
+    }
+
+    @After
+    public void tearDown() {
+        System.clearProperty(GUnitInjectorFactory.LAYERED_PROPERTY);
+    }
+
+    /**
+     * Module that only adds bindings should get child injector.
+     */
+    @Test
+    @SuppressWarnings("unchecked")
+    public void testAddingModule()
+            throws Exception {
+        Injector injector = GUnitInjectorFactory.getInjector(LayeredInjectorTest.class, true, AddingBindings.class);
+
+        assertNotNull(injector.getParent());
+        Key<String> layered = Key.get(String.class, Names.named("layered"));
+        assertTrue(injector.getBindings().containsKey(layered));
+        assertFalse(injector.getParent().getBindings().containsKey(layered));
+        assertEquals("layered", injector.getInstance(layered));
+        assertEquals("static", injector.getInstance(Key.get(String.class, Names.named("static"))));
+    }
+
+    /**
+     * Module that overrides parent bindings should get full injector.
+     */
+    @Test
+    @SuppressWarnings("unchecked")
+    public void testOverridingModule()
+            throws Exception {
+        Injector injector = GUnitInjectorFactory.getInjector(LayeredInjectorTest.class, true,
+                ModuleOverrideTest.OverridingModule.class);
+
+        assertNull(injector.getParent());
+        assertEquals("static-override", injector.getInstance(Key.get(String.class, Names.named("static"))));
+    }
+
+    /**
+     * Module with interceptors should get full injector, as interceptors of child
+     * injector would not apply to classes bound by parent.
+     */
+    @Test
+    @SuppressWarnings("unchecked")
+    public void testInterceptingModule()
+            throws Exception {
+        Injector injector = GUnitInjectorFactory.getInjector(LayeredInjectorTest.class, true, InterceptingBindings.class);
+
+        assertNull(injector.getParent());
+        assertEquals("intercepted", injector.getInstance(Intercepted.class).value());
+    }
+
+    /**
+     * Test without module should share parent injector.
+     */
+    @Test
+    @SuppressWarnings("unchecked")
+    public void testAllModules()
+            throws Exception {
+        Injector first = GUnitInjectorFactory.getInjector(LayeredInjectorTest.class, false);
+        Injector second = GUnitInjectorFactory.getInjector(LayeredInjectorTest.class, false);
+
+        assertSame(first.getParent(), second.getParent());
+    }
+
+    /**
+     * Not named module, so classpath scan does not install it in parent.
+     */
+    public static class AddingBindings extends AbstractModule {
+
+        @Override
+        protected void configure() {
+            bind(String.class).annotatedWith(Names.named("layered")).toInstance("layered");
+        }
+    }
+
+    public static class InterceptingBindings extends AbstractModule {
+
+        @Override
+        protected void configure() {
+            bindInterceptor(Matchers.subclassesOf(Intercepted.class), Matchers.any(), new MethodInterceptor() {
+
+                public Object invoke(MethodInvocation invocation) {
+                    return "intercepted";
+                }
+            });
+        }
+    }
+
+    public static class Intercepted {
+
+        public String value() {
+            return "plain";
+        }
+    }
+}
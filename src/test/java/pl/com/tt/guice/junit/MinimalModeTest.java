@@ -0,0 +1,165 @@
+/*
+ * Copyright (c) 2012 Transition Technologies S.A.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package pl.com.tt.guice.junit;
+
+import com.google.inject.AbstractModule;
+import com.google.inject.Injector;
+import com.google.inject.Key;
+import com.google.inject.Module;
+import com.google.inject.ScopeAnnotation;
+import com.google.inject.Scopes;
+import com.google.inject.name.Names;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import javax.inject.Inject;
+import javax.inject.Named;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.JUnitCore;
+import org.junit.runner.Result;
+import org.junit.runner.RunWith;
+import static org.junit.Assert.*;
+import static org.junit.Assume.assumeFalse;
+
+/**
+ * Test of modules selected in minimal mode.
+ * Fixtures are nested in class without <code>Module</code> in name, so classpath
+ * scan of other tests does not find them.
+ *
+ * @author Marek Piechut <m.piechut@tt.com.pl>
+ */
+public class MinimalModeTest {
+
+    private static Injector injected;
+    private String minimal;
+
+    @Before
+    public void setUp() {
+        minimal = System.setProperty(GUnitInjectorFactory.MINIMAL_PROPERTY, "true");
+    }
+
+    @After
+    public void tearDown() {
+        if (minimal == null) {
+            System.clearProperty(GUnitInjectorFactory.MINIMAL_PROPERTY);
+        } else {
+            System.setProperty(GUnitInjectorFactory.MINIMAL_PROPERTY, minimal);
+        }
+        injected = null;
+    }
+
+    /**
+     * Modules binding required keys and their dependencies should be selected.
+     */
+    @Test
+    @SuppressWarnings("unchecked")
+    public void testSelect()
+            throws Exception {
+        ModuleKeyIndex index = new ModuleKeyIndex(Arrays.<Class<? extends Module>>asList(
+                Bindings.class, Dependencies.class, Unused.class, Scoping.class));
+
+        assertEquals(new HashSet<Class<? extends Module>>(Arrays.asList(Bindings.class, Dependencies.class, Scoping.class)),
+                index.select(ModuleKeyIndex.requiredKeys(Client.class, Collections.<Class<?>>emptySet())));
+    }
+
+    /**
+     * Injector of test should not have bindings of modules it does not need.
+     */
+    @Test
+    public void testMinimalInjector() {
+        //Minimal mode is ignored in layered mode
+        assumeFalse(Boolean.getBoolean(GUnitInjectorFactory.LAYERED_PROPERTY));
+        Result result = JUnitCore.runClasses(Minimal.class);
+
+        assertTrue(result.getFailures().toString(), result.wasSuccessful());
+        assertNotNull(injected.getExistingBinding(Key.get(String.class, Names.named("field"))));
+        assertNull(injected.getExistingBinding(Key.get(String.class, Names.named("other-field"))));
+    }
+
+    public interface Service {
+    }
+
+    public static class ServiceImpl implements Service {
+
+        @Inject
+        @Named("dependency")
+        String dependency;
+    }
+
+    public static class Client {
+
+        @Inject
+        Service service;
+    }
+
+    @ScopeAnnotation
+    @Retention(RetentionPolicy.RUNTIME)
+    public @interface Custom {
+    }
+
+    public static class Bindings extends AbstractModule {
+
+        @Override
+        protected void configure() {
+            bind(Service.class).to(ServiceImpl.class);
+        }
+    }
+
+    public static class Dependencies extends AbstractModule {
+
+        @Override
+        protected void configure() {
+            bind(String.class).annotatedWith(Names.named("dependency")).toInstance("dependency");
+        }
+    }
+
+    public static class Unused extends AbstractModule {
+
+        @Override
+        protected void configure() {
+            bind(String.class).annotatedWith(Names.named("unused")).toInstance("unused");
+        }
+    }
+
+    public static class Scoping extends AbstractModule {
+
+        @Override
+        protected void configure() {
+            bindScope(Custom.class, Scopes.SINGLETON);
+        }
+    }
+
+    @RunWith(GUnitTestRunner.class)
+    public static class Minimal {
+
+        @Inject
+        @Named("field")
+        private String field;
+        @Inject
+        private Injector injector;
+
+        @Test
+        public void test() {
+            assertEquals("field", field);
+            injected = injector;
+        }
+    }
+}
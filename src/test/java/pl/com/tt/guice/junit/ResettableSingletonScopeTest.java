@@ -0,0 +1,168 @@
+/*
+ * Copyright (c) 2012 Transition Technologies S.A.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package pl.com.tt.guice.junit;
+
+import com.google.inject.AbstractModule;
+import com.google.inject.Injector;
+import com.google.inject.Key;
+import com.google.inject.Provider;
+import com.google.inject.Singleton;
+import java.util.ArrayList;
+import java.util.List;
+import javax.inject.Inject;
+import org.junit.After;
+import org.junit.Test;
+import org.junit.runner.JUnitCore;
+import org.junit.runner.Result;
+import org.junit.runner.RunWith;
+import static org.junit.Assert.*;
+
+/**
+ * Test of singletons reset between test classes.
+ *
+ * @author Marek Piechut <m.piechut@tt.com.pl>
+ */
+public class ResettableSingletonScopeTest {
+
+    private static final List<Object[]> instances = new ArrayList<Object[]>();
+
+    @After
+    public void tearDown() {
+        instances.clear();
+    }
+
+    /**
+     * Scope should provide the same instance until reset.
+     */
+    @Test
+    public void testReset() {
+        ResettableSingletonScope scope = new ResettableSingletonScope();
+        Provider<Object> provider = scope.scope(Key.get(Object.class), new Provider<Object>() {
+
+            public Object get() {
+                return new Object();
+            }
+        });
+
+        Object first = provider.get();
+        assertSame(first, provider.get());
+        scope.reset();
+        assertNotSame(first, provider.get());
+    }
+
+    /**
+     * Test classes with the same configuration should share injector,
+     * but get their own singletons.
+     */
+    @Test
+    public void testNewSingletonsForTestClass() {
+        String previous = System.setProperty(GUnitInjectorFactory.RESETTABLE_SINGLETONS_PROPERTY, "true");
+        try {
+            Result result = JUnitCore.runClasses(FirstClass.class, SecondClass.class);
+            assertTrue(result.getFailures().toString(), result.wasSuccessful());
+        } finally {
+            if (previous == null) {
+                System.clearProperty(GUnitInjectorFactory.RESETTABLE_SINGLETONS_PROPERTY);
+            } else {
+                System.setProperty(GUnitInjectorFactory.RESETTABLE_SINGLETONS_PROPERTY, previous);
+            }
+        }
+
+        assertEquals(4, instances.size());
+        Object[] first = instances.get(0);
+        Object[] second = instances.get(2);
+        //Same class
+        assertSame(first[1], instances.get(1)[1]);
+        assertSame(first[2], instances.get(1)[2]);
+        //Next class
+        assertSame(first[0], second[0]);
+        assertNotSame(first[1], second[1]);
+        assertNotSame(first[2], second[2]);
+    }
+
+    /**
+     * Reset of injector should not drop singletons of injector with other configuration.
+     */
+    @Test
+    public void testScopePerInjector()
+            throws Exception {
+        String previous = System.setProperty(GUnitInjectorFactory.RESETTABLE_SINGLETONS_PROPERTY, "true");
+        try {
+            Injector first = GUnitInjectorFactory.prepareInjector(FirstClass.class, false, SingletonBindings.class);
+            Injector other = GUnitInjectorFactory.prepareInjector(FirstClass.class, true, SingletonBindings.class);
+            Counter counter = first.getInstance(Counter.class);
+            Counter otherCounter = other.getInstance(Counter.class);
+
+            GUnitInjectorFactory.resetSingletons(FirstClass.class, first);
+
+            assertNotSame(counter, first.getInstance(Counter.class));
+            assertSame(otherCounter, other.getInstance(Counter.class));
+        } finally {
+            if (previous == null) {
+                System.clearProperty(GUnitInjectorFactory.RESETTABLE_SINGLETONS_PROPERTY);
+            } else {
+                System.setProperty(GUnitInjectorFactory.RESETTABLE_SINGLETONS_PROPERTY, previous);
+            }
+        }
+    }
+
+    @RunWith(GUnitTestRunner.class)
+    @WithModule(SingletonBindings.class)
+    public static class FirstClass {
+
+        @Inject
+        private Injector injector;
+        @Inject
+        private Counter counter;
+        @Inject
+        private Service service;
+
+        @Test
+        public void first() {
+            instances.add(new Object[]{injector.getParent(), counter, service});
+        }
+
+        @Test
+        public void second() {
+            instances.add(new Object[]{injector.getParent(), counter, service});
+        }
+    }
+
+    @RunWith(GUnitTestRunner.class)
+    @WithModule(SingletonBindings.class)
+    public static class SecondClass extends FirstClass {
+    }
+
+    public static class SingletonBindings extends AbstractModule {
+
+        @Override
+        protected void configure() {
+            bind(Counter.class).in(Singleton.class);
+            bind(Service.class).to(SingletonService.class);
+        }
+    }
+
+    public static class Counter {
+    }
+
+    public interface Service {
+    }
+
+    @Singleton
+    public static class SingletonService implements Service {
+    }
+}
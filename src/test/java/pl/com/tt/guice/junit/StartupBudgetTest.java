@@ -0,0 +1,125 @@
+/*
+ * Copyright (c) 2012 Transition Technologies S.A.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package pl.com.tt.guice.junit;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Properties;
+import javax.inject.Inject;
+import javax.inject.Named;
+import org.junit.ClassRule;
+import org.junit.Test;
+import org.junit.runner.JUnitCore;
+import org.junit.runner.Result;
+import org.junit.runner.RunWith;
+import pl.com.tt.guice.junit.InjectorStartup.Measurement;
+import static org.junit.Assert.*;
+
+/**
+ * Test of injector startup budget checks.
+ *
+ * @author Marek Piechut <m.piechut@tt.com.pl>
+ */
+public class StartupBudgetTest {
+
+    private static final long MB = 1024 * 1024;
+
+    @Test
+    public void testWithinBudget() {
+        StartupBudget budget = new StartupBudget();
+        budget.setBaseline(baseline(100, 50 * MB));
+        budget.setMaxMillis(1000);
+
+        assertTrue(budget.check("Test", new Measurement(140 * 1000000L, 70 * MB)).isEmpty());
+    }
+
+    @Test
+    public void testOverBudget() {
+        StartupBudget budget = new StartupBudget();
+        budget.setMaxMillis(1000);
+        budget.setMaxAllocated(100 * MB);
+
+        assertEquals(2, budget.check("Test", new Measurement(1001 * 1000000L, 101 * MB)).size());
+    }
+
+    @Test
+    public void testRegression() {
+        StartupBudget budget = new StartupBudget();
+        budget.setBaseline(baseline(1000, 50 * MB));
+        budget.setRegressionPercent(20);
+
+        assertTrue(budget.check("Test", new Measurement(1200 * 1000000L, 60 * MB)).isEmpty());
+        assertEquals(2, budget.check("Test", new Measurement(1300 * 1000000L, 61 * MB)).size());
+    }
+
+    /**
+     * Regression smaller than tolerance is not reported, even if it's many times baseline.
+     */
+    @Test
+    public void testTolerance() {
+        StartupBudget budget = new StartupBudget();
+        budget.setBaseline(baseline(10, MB));
+
+        assertTrue(budget.check("Test", new Measurement(100 * 1000000L, 5 * MB)).isEmpty());
+        assertEquals(1, budget.check("Test", new Measurement(200 * 1000000L, 5 * MB)).size());
+    }
+
+    @Test
+    public void testRule() {
+        Result result = JUnitCore.runClasses(BudgetFixture.class);
+
+        assertEquals(1, result.getFailureCount());
+        assertTrue(result.getFailures().get(0).getMessage().contains("over budget"));
+        assertEquals(0, result.getRunCount());
+        assertNotNull(InjectorStartup.get(BudgetFixture.class));
+    }
+
+    private static Properties baseline(long millis, long allocated) {
+        Properties baseline = new Properties();
+        baseline.setProperty("Test.millis", String.valueOf(millis));
+        baseline.setProperty("Test.allocated", String.valueOf(allocated));
+        return baseline;
+    }
+
+    @RunWith(GUnitTestRunner.class)
+    public static class BudgetFixture {
+
+        @ClassRule
+        public static StartupBudgetRule budget = new StartupBudgetRule(exceededBudget());
+        @Inject
+        @Named("field")
+        private String f;
+
+        @Test
+        public void testInjections() {
+            assertEquals("field", f);
+        }
+
+        /**
+         * Budget exceeded by any measurement, fast startup can be measured as 0 ms and 0 bytes.
+         */
+        private static StartupBudget exceededBudget() {
+            return new StartupBudget() {
+
+                @Override
+                public List<String> check(String test, Measurement measurement) {
+                    return Collections.singletonList("Injector startup of " + test + " is over budget");
+                }
+            };
+        }
+    }
+}
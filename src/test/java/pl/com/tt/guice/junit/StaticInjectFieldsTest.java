@@ -0,0 +1,91 @@
+/*
+ * Copyright (c) 2012 Transition Technologies S.A.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package pl.com.tt.guice.junit;
+
+import com.google.inject.AbstractModule;
+import com.google.inject.name.Names;
+import java.util.Collections;
+import javax.inject.Inject;
+import javax.inject.Named;
+import org.junit.Test;
+import org.junit.runner.JUnitCore;
+import org.junit.runner.Result;
+import org.junit.runner.RunWith;
+import static org.junit.Assert.*;
+
+/**
+ * Test of static fields snapshot and restore.
+ * Static injections done for test class should not be visible
+ * after it finished.
+ *
+ * @author Marek Piechut <m.piechut@tt.com.pl>
+ */
+public class StaticInjectFieldsTest {
+
+    /**
+     * Test that remembered values are written back.
+     */
+    @Test
+    public void testSnapshotRestore() {
+        StaticInjectFields fields = StaticInjectFields.of(Collections.<Class<?>>singleton(StaticHolder.class));
+        assertEquals(1, fields.size());
+
+        StaticHolder.s = "before";
+        StaticInjectFields.Snapshot snapshot = fields.snapshot();
+        StaticHolder.s = "changed";
+        snapshot.restore();
+
+        assertEquals("before", StaticHolder.s);
+    }
+
+    /**
+     * Test that overridden static injections are reverted after test class.
+     */
+    @Test
+    public void testOverrideRestoredAfterClass() {
+        StaticHolder.s = "before";
+        Result result = JUnitCore.runClasses(OverridingFixture.class);
+
+        assertTrue(result.wasSuccessful());
+        assertEquals("before", StaticHolder.s);
+    }
+
+    @RunWith(GUnitTestRunner.class)
+    @WithModule(value = OverridingBindings.class, override = true)
+    public static class OverridingFixture {
+
+        @Test
+        public void testOverridden() {
+            assertEquals("static-override", StaticHolder.s);
+        }
+    }
+
+    public static class OverridingBindings extends AbstractModule {
+
+        @Override
+        protected void configure() {
+            bind(String.class).annotatedWith(Names.named("static")).toInstance("static-override");
+        }
+    }
+}
+
+class StaticHolder {
+
+    @Inject
+    @Named("static")
+    static String s;
+}
@@ -0,0 +1,215 @@
+/*
+ * Copyright (c) 2012 Transition Technologies S.A.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package pl.com.tt.guice.profiling;
+
+import com.google.inject.AbstractModule;
+import com.google.inject.Guice;
+import com.google.inject.Inject;
+import com.google.inject.Injector;
+import com.google.inject.Provides;
+import com.google.inject.Singleton;
+import com.google.inject.name.Named;
+import com.google.inject.name.Names;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.util.Collections;
+import org.junit.Test;
+import org.junit.runner.JUnitCore;
+import org.junit.runner.Result;
+import org.junit.runner.RunWith;
+import org.junit.runners.Suite.SuiteClasses;
+import pl.com.tt.guice.junit.GUnitInjectorFactory;
+import pl.com.tt.guice.junit.GUnitSuite;
+import pl.com.tt.guice.junit.GUnitTestRunner;
+import static org.junit.Assert.*;
+import static org.junit.Assume.assumeFalse;
+
+/**
+ * Test of injector statistics.
+ *
+ * @author Marek Piechut <m.piechut@tt.com.pl>
+ */
+public class InjectorStatisticsTest {
+
+    /**
+     * Bindings should be counted by type and scope.
+     */
+    @Test
+    public void testAnalyze() {
+        Injector injector = Guice.createInjector(new CountedBindings());
+        InjectorStats before = InjectorStatistics.analyze(injector);
+        injector.getInstance(Plain.class);
+        InjectorStats after = InjectorStatistics.analyze(injector);
+
+        assertEquals(1, before.getInstanceBindings());
+        assertEquals(1, before.getProviderBindings());
+        assertEquals(1, before.getLinkedBindings());
+        assertEquals(3, before.getUntargettedBindings());
+        assertEquals(3, before.getSingletons());
+        assertEquals(1, before.getEagerSingletons());
+        assertEquals(before.getJitBindings() + 1, after.getJitBindings());
+        assertEquals(before.getBindings(), after.getBindings());
+    }
+
+    /**
+     * Profiled bindings should be counted by their original targets.
+     */
+    @Test
+    public void testAnalyzeProfiled() {
+        InjectorStats plain = InjectorStatistics.analyze(Guice.createInjector(new CountedBindings()));
+        InjectorStats profiled = InjectorStatistics.analyze(
+                Guice.createInjector(new ProfilingModule(new CountedBindings())));
+
+        assertEquals(plain.getBindings(), profiled.getBindings());
+        assertEquals(plain.getJitBindings(), profiled.getJitBindings());
+        assertEquals(plain.getInstanceBindings(), profiled.getInstanceBindings());
+        assertEquals(plain.getProviderBindings(), profiled.getProviderBindings());
+        assertEquals(plain.getLinkedBindings(), profiled.getLinkedBindings());
+        assertEquals(plain.getUntargettedBindings(), profiled.getUntargettedBindings());
+        assertEquals(plain.getConstructorBindings(), profiled.getConstructorBindings());
+        assertEquals(plain.getSingletons(), profiled.getSingletons());
+        assertEquals(plain.getEagerSingletons(), profiled.getEagerSingletons());
+    }
+
+    /**
+     * Bound instances and eager singletons should be measured.
+     */
+    @Test
+    public void testRetainedBytes() {
+        InjectorStats stats = InjectorStatistics.analyze(Guice.createInjector(new CountedBindings()));
+
+        assertTrue(stats.getRetainedBytes() >= Eager.SIZE + 1000);
+    }
+
+    /**
+     * Lazy singletons should be measured once they are created.
+     */
+    @Test
+    public void testLazySingletonRetainedBytes() {
+        Injector injector = Guice.createInjector(new CountedBindings());
+        long before = InjectorStatistics.analyze(injector).getRetainedBytes();
+        injector.getInstance(Lazy.class);
+        long after = InjectorStatistics.analyze(injector).getRetainedBytes();
+
+        assertTrue(after - before >= Lazy.SIZE);
+    }
+
+    /**
+     * Test class prepared in background by suite should be reported with bindings of
+     * prepared injector, not only of it's child doing static injections.
+     */
+    @Test
+    public void testSuiteClassRecorded() {
+        //Child injectors of layered mode are reported without parent bindings
+        assumeFalse(Boolean.getBoolean(GUnitInjectorFactory.LAYERED_PROPERTY));
+        String previous = System.setProperty(InjectorStatistics.PROPERTY, "true");
+        try {
+            Result result = JUnitCore.runClasses(StatisticsSuite.class);
+            assertTrue(result.getFailures().toString(), result.wasSuccessful());
+        } finally {
+            if (previous == null) {
+                System.clearProperty(InjectorStatistics.PROPERTY);
+            } else {
+                System.setProperty(InjectorStatistics.PROPERTY, previous);
+            }
+        }
+
+        InjectorStats stats = InjectorStatistics.getStats().get(StatisticsFixture.class.getName());
+        assertTrue(stats.getBindings() > 0);
+        assertTrue(stats.getInstanceBindings() > 0);
+    }
+
+    /**
+     * Report should contain injectors and run summary.
+     */
+    @Test
+    public void testJsonReport() {
+        InjectorStats stats = InjectorStatistics.analyze(Guice.createInjector(new CountedBindings()));
+
+        StringWriter json = new StringWriter();
+        new InjectorReport(Collections.singletonMap("counted", stats)).writeJson(new PrintWriter(json));
+
+        assertTrue(json.toString().contains("\"counted\": {\"injectors\": 1"));
+        assertTrue(json.toString().contains("\"" + InjectorReport.RUN_CONTEXT + "\""));
+        assertTrue(json.toString().contains("\"maxRetainedBytes\": " + stats.getRetainedBytes()));
+    }
+
+    @Test
+    public void testEstimate() {
+        HeapEstimator estimator = new HeapEstimator();
+
+        assertEquals(16, estimator.estimate(Collections.singleton(new Object())));
+        assertEquals(1016, estimator.estimate(Collections.singleton(new byte[1000])));
+    }
+
+    interface Service {
+    }
+
+    static class ServiceImpl implements Service {
+    }
+
+    static class Plain {
+    }
+
+    static class Eager {
+
+        static final int SIZE = 10000;
+        private final byte[] data = new byte[SIZE];
+    }
+
+    static class Lazy {
+
+        static final int SIZE = 10000;
+        private final byte[] data = new byte[SIZE];
+    }
+
+    @RunWith(GUnitSuite.class)
+    @SuiteClasses(StatisticsFixture.class)
+    public static class StatisticsSuite {
+    }
+
+    @RunWith(GUnitTestRunner.class)
+    public static class StatisticsFixture {
+
+        @Inject
+        @Named("field")
+        private String f;
+
+        @Test
+        public void testInjections() {
+            assertEquals("field", f);
+        }
+    }
+
+    static class CountedBindings extends AbstractModule {
+
+        @Override
+        protected void configure() {
+            bind(Lazy.class).in(Singleton.class);
+            bind(Service.class).to(ServiceImpl.class).in(Singleton.class);
+            bind(ServiceImpl.class).in(Singleton.class);
+            bind(Eager.class).asEagerSingleton();
+            bind(byte[].class).annotatedWith(Names.named("instance")).toInstance(new byte[1000]);
+        }
+
+        @Provides
+        @Named("provided")
+        String provided() {
+            return "provided";
+        }
+    }
+}
@@ -0,0 +1,120 @@
+/*
+ * Copyright (c) 2012 Transition Technologies S.A.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package pl.com.tt.guice.profiling;
+
+import com.google.inject.AbstractModule;
+import com.google.inject.Guice;
+import com.google.inject.Injector;
+import com.google.inject.Key;
+import com.google.inject.Provides;
+import com.google.inject.Singleton;
+import com.google.inject.name.Named;
+import com.google.inject.name.Names;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.util.Map;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Test of provisions profiling.
+ *
+ * @author Marek Piechut <m.piechut@tt.com.pl>
+ */
+public class ProvisionProfilerTest {
+
+    private static final String CONTEXT = ProvisionProfilerTest.class.getName();
+    private String previousContext;
+
+    @Before
+    public void setUp() {
+        previousContext = ProvisionProfiler.setContext(CONTEXT);
+    }
+
+    @After
+    public void tearDown() {
+        ProvisionProfiler.setContext(previousContext);
+    }
+
+    /**
+     * Provisions should be counted and bindings should work as before.
+     */
+    @Test
+    public void testProvisionsRecorded() {
+        Injector injector = Guice.createInjector(new ProfilingModule(new ProfiledBindings()));
+
+        Service first = injector.getInstance(Service.class);
+        Service second = injector.getInstance(Service.class);
+        assertTrue(first instanceof ServiceImpl);
+        assertSame(first, second);
+        injector.getInstance(Key.get(String.class, Names.named("provided")));
+        injector.getInstance(Key.get(String.class, Names.named("provided")));
+        injector.getInstance(Plain.class);
+
+        Map<String, ProvisionStats> stats = ProvisionProfiler.getStats().get(CONTEXT);
+        assertEquals(1, stats.get(Key.get(Service.class).toString()).getCount());
+        //Statistics are kept by name of bound key, annotation of provider method is named by JVM
+        String provided = injector.getBinding(Key.get(String.class, Names.named("provided"))).getKey().toString();
+        assertEquals(2, stats.get(provided).getCount());
+        assertEquals(1, stats.get(Key.get(Plain.class).toString()).getCount());
+        assertNull(stats.get(Key.get(String.class, Names.named("instance")).toString()));
+    }
+
+    /**
+     * Report should contain context and run summary.
+     */
+    @Test
+    public void testJsonReport() {
+        ProvisionProfiler.setContext(CONTEXT + "#report");
+        Injector injector = Guice.createInjector(new ProfilingModule(new ProfiledBindings()));
+        injector.getInstance(Plain.class);
+
+        StringWriter json = new StringWriter();
+        new ProvisionReport(ProvisionProfiler.getStats()).writeJson(new PrintWriter(json));
+
+        assertTrue(json.toString().contains("\"" + CONTEXT + "#report\""));
+        assertTrue(json.toString().contains("\"" + ProvisionReport.RUN_CONTEXT + "\""));
+        assertTrue(json.toString().contains(Plain.class.getName()));
+    }
+
+    interface Service {
+    }
+
+    static class ServiceImpl implements Service {
+    }
+
+    static class Plain {
+    }
+
+    static class ProfiledBindings extends AbstractModule {
+
+        @Override
+        protected void configure() {
+            bind(Service.class).to(ServiceImpl.class).in(Singleton.class);
+            bind(Plain.class);
+            bind(String.class).annotatedWith(Names.named("instance")).toInstance("instance");
+        }
+
+        @Provides
+        @Named("provided")
+        String provided(@Named("instance") String instance) {
+            return "provided-" + instance;
+        }
+    }
+}
@@ -0,0 +1,102 @@
+/*
+ * Copyright (c) 2012 Transition Technologies S.A.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package pl.com.tt.guice.reflections;
+
+import com.google.inject.AbstractModule;
+import java.util.Collections;
+import java.util.HashSet;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import pl.com.tt.guice.InjectorFactory;
+import pl.com.tt.guice.MainTestModule;
+import pl.com.tt.guice.ModuleOverrideTest;
+import pl.com.tt.guice.ParallelRecordingTest;
+import static org.junit.Assert.*;
+
+/**
+ * Test of classpath scan index.
+ *
+ * @author Marek Piechut <m.piechut@tt.com.pl>
+ */
+public class ScanIndexTest {
+
+    private static ScanIndex index;
+
+    @BeforeClass
+    public static void scan() {
+        index = InjectorFactory.indexClasspath(Collections.singleton(
+                ScanIndexTest.class.getProtectionDomain().getCodeSource().getLocation()), true);
+    }
+
+    @Test
+    public void testModules() {
+        assertFlags(MainTestModule.class, ScanIndex.MODULE | ScanIndex.TEST_MODULE);
+        assertFlags(ModuleOverrideTest.OverridingModule.class, ScanIndex.MODULE);
+        assertFlags(ExtendingModule.class, ScanIndex.MODULE);
+        assertEquals(-1, id(ModuleLike.class));
+        //Only classes with Module in name are modules
+        assertEquals(-1, id(ParallelRecordingTest.SecondOverride.class));
+    }
+
+    @Test
+    public void testModuleTypes() {
+        assertEquals(ScanIndex.TEST_MODULE, index.getModuleType(id(MainTestModule.class)));
+        assertEquals(0, index.getModuleType(id(ExtendingModule.class)));
+        assertEquals(ScanIndex.TEST_MODULE, ScanIndex.getModuleTypeOf(ScanIndex.MASTER_MODULE | ScanIndex.TEST_MODULE));
+    }
+
+    @Test
+    public void testStaticInjects() {
+        assertFlags(ModuleOverrideTest.class, ScanIndex.STATIC_INJECT);
+        assertTrue(index.getNames(ScanIndex.STATIC_INJECT).contains(ModuleOverrideTest.class.getName()));
+        assertFalse(index.getNames(ScanIndex.STATIC_INJECT).contains(MainTestModule.class.getName()));
+    }
+
+    @Test
+    public void testModulesOnly() {
+        ScanIndex modules = InjectorFactory.indexClasspath(Collections.singleton(
+                ScanIndexTest.class.getProtectionDomain().getCodeSource().getLocation()), false);
+
+        assertEquals(new HashSet<String>(index.getNames(ScanIndex.MODULE)),
+                new HashSet<String>(modules.getNames(ScanIndex.MODULE)));
+        assertTrue(modules.getNames(ScanIndex.STATIC_INJECT).isEmpty());
+    }
+
+    private static void assertFlags(Class<?> cls, int flags) {
+        int id = id(cls);
+        assertTrue(cls + " not in index", id >= 0);
+        assertTrue(index.is(id, flags));
+        assertSame(cls, index.getClasses(flags).get(index.getNames(flags).indexOf(cls.getName())));
+    }
+
+    private static int id(Class<?> cls) {
+        return index.getId(cls.getName());
+    }
+
+    public abstract static class BaseModule extends AbstractModule {
+    }
+
+    public static class ExtendingModule extends BaseModule {
+
+        @Override
+        protected void configure() {
+        }
+    }
+
+    public static class ModuleLike {
+    }
+}